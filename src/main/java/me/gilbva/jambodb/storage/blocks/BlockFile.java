@@ -0,0 +1,255 @@
+package me.gilbva.jambodb.storage.blocks;
+
+import com.sun.nio.file.ExtendedOpenOption;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The file of a block storage, it gives positional reads and writes of any size at any position.
+ * When the file is opened for direct I/O it bypasses the page cache of the operating system, so every
+ * transfer must be aligned to the block size of the file store, reads and writes that are not aligned go
+ * through per thread aligned direct buffers, and the parts of the aligned blocks that are not written are
+ * read first from the file, unless the caller owns them.
+ */
+class BlockFile implements Closeable {
+    /**
+     * The maximum amount of bytes of the runs of blocks written with a single gathering write.
+     */
+    static final int MAX_GATHER_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+
+    private final int alignment;
+
+    private final byte[] zeros;
+
+    private final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<>();
+
+    private BlockFile(FileChannel channel, int alignment) {
+        this.channel = channel;
+        this.alignment = alignment;
+        this.zeros = new byte[alignment];
+    }
+
+    static BlockFile open(Path file, boolean create, boolean direct) throws IOException {
+        Set<OpenOption> options = new HashSet<>();
+        options.add(StandardOpenOption.READ);
+        options.add(StandardOpenOption.WRITE);
+        if(create) {
+            options.add(StandardOpenOption.CREATE);
+        }
+        if(!direct) {
+            return new BlockFile(FileChannel.open(file, options), 1);
+        }
+
+        if(create) {
+            FileChannel.open(file, options).close();
+        }
+        int alignment = (int) Files.getFileStore(file).getBlockSize();
+        if(Integer.bitCount(alignment) != 1 || alignment > StorageOptions.MAX_BLOCK_SIZE) {
+            throw new IOException("unsupported file store block size " + alignment);
+        }
+        options.add(ExtendedOpenOption.DIRECT);
+        try {
+            return new BlockFile(FileChannel.open(file, options), alignment);
+        }
+        catch (UnsupportedOperationException | IOException ex) {
+            throw new IOException("direct I/O is not supported for " + file, ex);
+        }
+    }
+
+    /**
+     * Gets the size that positions and lengths must be aligned to, so no data has to be read before it is written.
+     *
+     * @return the size of the blocks of the file store for direct I/O, otherwise 1.
+     */
+    int alignment() {
+        return alignment;
+    }
+
+    long size() throws IOException {
+        return channel.size();
+    }
+
+    /**
+     * Reads the bytes remaining in the given buffer from the given position, bytes after the end of the
+     * file are left unread.
+     *
+     * @return the amount of bytes read.
+     */
+    int read(ByteBuffer dst, long position) throws IOException {
+        int length = dst.remaining();
+        if(alignment == 1 || isAligned(dst, position)) {
+            return readFully(dst, position);
+        }
+
+        long start = alignDown(position);
+        int size = (int) (alignUp(position + length) - start);
+        ByteBuffer buffer = buffer(size);
+        int read = readFully(buffer, start);
+        int skip = (int) (position - start);
+        int count = Math.max(0, Math.min(read - skip, length));
+        buffer.limit(skip + count);
+        buffer.position(skip);
+        dst.put(buffer);
+        return count;
+    }
+
+    int write(ByteBuffer src, long position) throws IOException {
+        return write(src, position, position + src.remaining());
+    }
+
+    /**
+     * Writes the bytes remaining in the given buffer at the given position, the bytes from the end of the
+     * written ones to the given end belong to the caller, so they are written as zeros if that saves reading
+     * the aligned block they are in.
+     *
+     * @return the amount of bytes written.
+     */
+    int write(ByteBuffer src, long position, long end) throws IOException {
+        int length = src.remaining();
+        write(new ByteBuffer[] {src}, position, end);
+        return length;
+    }
+
+    /**
+     * Writes the given buffers one after the other from the given position, with a single gathering
+     * write, or through an aligned buffer for direct I/O. The bytes from the end of the written ones to
+     * the given end belong to the caller, as in {@link #write(ByteBuffer, long, long)}.
+     */
+    void write(ByteBuffer[] srcs, long position, long end) throws IOException {
+        long total = 0;
+        for (ByteBuffer src : srcs) {
+            total += src.remaining();
+        }
+        if(alignment == 1 || srcs.length == 1 && isAligned(srcs[0], position)) {
+            writeFully(srcs, position, total);
+            return;
+        }
+
+        int length = (int) total;
+        long start = alignDown(position);
+        long last = alignUp(position + length);
+        int size = (int) (last - start);
+        ByteBuffer buffer = buffer(size);
+        if(start < position) {
+            fill(buffer, 0, start);
+        }
+        if(position + length < last) {
+            if(last <= end) {
+                buffer.limit(size);
+                buffer.position((int) (position - start) + length);
+                buffer.put(zeros, 0, buffer.remaining());
+            }
+            else if(start == position || last - alignment > start) {
+                fill(buffer, size - alignment, last - alignment);
+            }
+        }
+        buffer.limit(size);
+        buffer.position((int) (position - start));
+        for (ByteBuffer src : srcs) {
+            buffer.put(src);
+        }
+        buffer.clear();
+        buffer.limit(size);
+        writeFully(buffer, start);
+    }
+
+    /**
+     * Forces the written bytes and the size of the file to the storage device.
+     */
+    void force() throws IOException {
+        channel.force(true);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private boolean isAligned(ByteBuffer buffer, long position) {
+        return buffer.isDirect()
+                && position % alignment == 0
+                && buffer.remaining() % alignment == 0
+                && buffer.alignmentOffset(buffer.position(), alignment) == 0;
+    }
+
+    /**
+     * Reads the aligned block at the given position into the given offset of the buffer, the
+     * bytes after the end of the file are zeros.
+     */
+    private void fill(ByteBuffer buffer, int offset, long position) throws IOException {
+        buffer.clear();
+        buffer.position(offset);
+        buffer.limit(offset + alignment);
+        readFully(buffer, position);
+        buffer.put(zeros, 0, buffer.remaining());
+    }
+
+    private ByteBuffer buffer(int size) {
+        ByteBuffer buffer = buffers.get();
+        if(buffer == null || buffer.capacity() < size) {
+            buffer = ByteBuffer.allocateDirect(size + alignment).alignedSlice(alignment);
+            buffers.set(buffer);
+        }
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Reads until the buffer is full or the end of the file, a direct read that ends unaligned
+     * reached the end of the file.
+     */
+    private int readFully(ByteBuffer dst, long position) throws IOException {
+        int count = 0;
+        while (dst.hasRemaining()) {
+            int read = channel.read(dst, position + count);
+            if(read <= 0) {
+                break;
+            }
+            count += read;
+            if(count % alignment != 0) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    private void writeFully(ByteBuffer[] srcs, long position, long length) throws IOException {
+        if(srcs.length == 1) {
+            writeFully(srcs[0], position);
+            return;
+        }
+        channel.position(position);
+        long count = 0;
+        while (count < length) {
+            count += channel.write(srcs);
+        }
+    }
+
+    private int writeFully(ByteBuffer src, long position) throws IOException {
+        int count = 0;
+        while (src.hasRemaining()) {
+            count += channel.write(src, position + count);
+        }
+        return count;
+    }
+
+    private long alignDown(long position) {
+        return position / alignment * alignment;
+    }
+
+    private long alignUp(long position) {
+        return (position + alignment - 1) / alignment * alignment;
+    }
+}
@@ -3,7 +3,12 @@ package me.gilbva.jambodb.storage.blocks;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * This class represents a block storage, block is defined as a collections of bytes that are
@@ -12,10 +17,17 @@ import java.nio.file.Path;
  * This class is intended to by implemented to access external memory like a single file but the
  * actual implementation could be anything from main memory access to network access, this interface
  * makes no assumptions about it.
- *
+ * <p>
+ * Block ids are unsigned ints, starting at 1, so a storage holds up to 2^32 - 1 blocks, ids and
+ * counts above Integer.MAX_VALUE are negative ints that must be compared with
+ * Integer.compareUnsigned and widened with Integer.toUnsignedLong.
  */
 public interface BlockStorage extends Closeable {
 
+    /**
+     * The size of the blocks of the default format, one byte less than the 4096 bytes of their slots,
+     * every format keeps this size for blocks of 4096 bytes so the same pages can be stored in any of them.
+     */
     int BLOCK_SIZE = 4095;
 
     int HEAD_SIZE = BLOCK_SIZE - 20;
@@ -31,8 +43,28 @@ public interface BlockStorage extends Closeable {
      * @throws IOException If the file type is incorrect, or the security options provided are invalid.
      */
     static BlockStorage open(Path path, SecurityOptions opts) throws IOException {
+        return open(path, opts, false);
+    }
+
+    /**
+     * Opens the given file as a block storage, optionally with direct I/O, see {@link StorageOptions#directIo(boolean)}.
+     *
+     * @param path the file to open.
+     * @param opts the security options for the file, must be the same as the one used
+     *             when the file was created.
+     * @param directIo true to bypass the page cache of the operating system.
+     * @return An instance of this interface that can be used to access the blocks in the given file.
+     * @throws IOException If the file type is incorrect, the security options provided are invalid, or
+     *                     direct I/O is not supported by the file system.
+     */
+    static BlockStorage open(Path path, SecurityOptions opts, boolean directIo) throws IOException {
+        if(version(path) == JamboBlksV2.VERSION) {
+            var handler = new JamboBlksV2();
+            handler.open(path, opts, directIo);
+            return handler;
+        }
         var handler = new JamboBlksV1();
-        handler.open(path, opts);
+        handler.open(path, opts, directIo);
         return handler;
     }
 
@@ -46,23 +78,124 @@ public interface BlockStorage extends Closeable {
      * @throws IOException If any I/O error occurs initializing the file.
      */
     static BlockStorage create(Path path, SecurityOptions opts) throws IOException {
+        return create(path, new StorageOptions().security(opts));
+    }
+
+    /**
+     * Creates a new block storage in the file at the given path, using the format chosen by the given options.
+     *
+     * @param path the path to create the block storage at.
+     * @param opts the options for the new storage.
+     * @return An instance of this interface that can be used to access the blocks in the given file.
+     * @throws IOException If any I/O error occurs initializing the file.
+     */
+    static BlockStorage create(Path path, StorageOptions opts) throws IOException {
+        if(opts.compression() || opts.ctrEncryption() || opts.blockSize() != StorageOptions.DEFAULT_BLOCK_SIZE) {
+            var handler = new JamboBlksV2();
+            handler.create(path, opts.blockSize(), opts.compression(), opts.security(), opts.directIo());
+            return handler;
+        }
         var handler = new JamboBlksV1();
-        handler.create(path, opts);
+        handler.create(path, opts.security(), opts.directIo());
         return handler;
     }
 
+    /**
+     * Creates a new block storage striped across the given files, block ids are assigned to the
+     * files round robin, so the blocks are spread over all of them. Every file is a storage in the
+     * format chosen by the given options, the header of the storage is kept in the first file.
+     *
+     * @param paths the files to create the stripes at, usually in different devices.
+     * @param opts the options for the stripes.
+     * @return An instance of this interface that can be used to access the blocks in the given files.
+     * @throws IOException If any I/O error occurs initializing the files.
+     */
+    static BlockStorage create(List<Path> paths, StorageOptions opts) throws IOException {
+        if(paths.isEmpty()) {
+            throw new IllegalArgumentException("at least one file is required");
+        }
+        if(paths.size() == 1) {
+            return create(paths.get(0), opts);
+        }
+        return StripedBlockStorage.create(paths, opts);
+    }
+
+    /**
+     * Opens a block storage striped across the given files, the files must be given in the same
+     * order they were given when the storage was created.
+     *
+     * @param paths the files of the stripes.
+     * @param opts the security options for the files.
+     * @return An instance of this interface that can be used to access the blocks in the given files.
+     * @throws IOException If any of the files is not a stripe of the same storage, or the security options are invalid.
+     */
+    static BlockStorage open(List<Path> paths, SecurityOptions opts) throws IOException {
+        return open(paths, opts, false);
+    }
+
+    /**
+     * Opens a block storage striped across the given files, optionally with direct I/O for every file,
+     * see {@link StorageOptions#directIo(boolean)}.
+     *
+     * @param paths the files of the stripes.
+     * @param opts the security options for the files.
+     * @param directIo true to bypass the page cache of the operating system.
+     * @return An instance of this interface that can be used to access the blocks in the given files.
+     * @throws IOException If any of the files is not a stripe of the same storage, or the security options are invalid.
+     */
+    static BlockStorage open(List<Path> paths, SecurityOptions opts, boolean directIo) throws IOException {
+        if(paths.isEmpty()) {
+            throw new IllegalArgumentException("at least one file is required");
+        }
+        if(paths.size() == 1) {
+            return open(paths.get(0), opts, directIo);
+        }
+        return StripedBlockStorage.open(paths, opts, directIo);
+    }
+
+    /**
+     * Reads the version of the format of the given file, from the bytes after the title.
+     */
+    private static short version(Path path) throws IOException {
+        try(var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer initData = ByteBuffer.allocate(11);
+            channel.read(initData, 0);
+            return initData.getShort(9);
+        }
+    }
+
+    /**
+     * Gets the amount of bytes of data of every block of this storage, it is BLOCK_SIZE
+     * unless a different size was chosen when the storage was created.
+     *
+     * @return the size of the blocks.
+     */
+    default int blockSize() {
+        return BLOCK_SIZE;
+    }
+
     /**
      * Gets the amount of blocks that have been created in this storage.
      *
-     * @return An integer that represents the count of blocks present in this storage.
+     * @return An integer that represents the count of blocks present in this storage, as an unsigned int.
      */
     int count();
 
+    /**
+     * Gets the amount of blocks that have been created in this storage as a long.
+     *
+     * @return the count of blocks present in this storage.
+     */
+    default long blockCount() {
+        return Integer.toUnsignedLong(count());
+    }
+
     /**
      * This expands the count of blocks currently manage by this object.
      *
      * @return The index of the new block created.
-     * @throws IOException if any I/O exceptions occur writing to the underlying storage.
+     * @throws IOException if any I/O exceptions occur writing to the underlying storage, or if the
+     *                     storage already holds the maximum amount of blocks.
      */
     int increase() throws IOException;
 
@@ -91,6 +224,47 @@ public interface BlockStorage extends Closeable {
      */
     void read(int id, ByteBuffer data) throws IOException;
 
+    /**
+     * Reads the block at the given index asynchronously on the given executor, so several reads can be
+     * in flight at the same time. The storages of this package can read several blocks concurrently,
+     * but reads must not run concurrently with writes or with the creation of blocks.
+     *
+     * @param id The index of the block to read from.
+     * @param data The buffer to place the data, it must not be used until the read completes.
+     * @param executor The executor to read the block on.
+     * @return A future completed with the given buffer once the block is read, or with the I/O exception.
+     */
+    default CompletableFuture<ByteBuffer> readAsync(int id, ByteBuffer data, Executor executor) {
+        CompletableFuture<ByteBuffer> result = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                read(id, data);
+                result.complete(data);
+            }
+            catch (Throwable ex) {
+                result.completeExceptionally(ex);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Reads several blocks asynchronously, every block is read as a separate task of the given
+     * executor, so all of them can be in flight at the same time, see {@link #readAsync(int, ByteBuffer, Executor)}.
+     *
+     * @param ids The indexes of the blocks to read.
+     * @param data The buffers to place the data of each block, in the same order as the ids.
+     * @param executor The executor to read the blocks on.
+     * @return A future completed once every block is read, or with the first I/O exception.
+     */
+    default CompletableFuture<Void> readAsync(int[] ids, ByteBuffer[] data, Executor executor) {
+        CompletableFuture<?>[] reads = new CompletableFuture<?>[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            reads[i] = readAsync(ids[i], data[i], executor);
+        }
+        return CompletableFuture.allOf(reads);
+    }
+
     /**
      * This method reads the block at the given index, into the provided data buffer.
      *
@@ -99,4 +273,28 @@ public interface BlockStorage extends Closeable {
      * @throws IOException if any I/O exceptions occur writing to the underlying storage.
      */
     void write(int id, ByteBuffer data) throws IOException;
+
+    /**
+     * Writes several blocks, one after the other in the given order. Implementations that transform
+     * the blocks before writing them, like encrypting or compressing them, may do it in parallel on
+     * the given executor, the blocks are still written to the underlying storage in the given order.
+     *
+     * @param ids The indexes of the blocks to write to.
+     * @param data The buffers with the data to be written to each block, in the same order as the ids.
+     * @param executor The executor to transform the blocks on, or null to do it on the calling thread.
+     * @throws IOException if any I/O exceptions occur writing to the underlying storage.
+     */
+    default void write(int[] ids, ByteBuffer[] data, Executor executor) throws IOException {
+        for (int i = 0; i < ids.length; i++) {
+            write(ids[i], data[i]);
+        }
+    }
+
+    /**
+     * Forces every block and header written so far to the underlying storage device, so they
+     * survive a crash or a power loss.
+     *
+     * @throws IOException if any I/O exceptions occur forcing the underlying storage.
+     */
+    void force() throws IOException;
 }
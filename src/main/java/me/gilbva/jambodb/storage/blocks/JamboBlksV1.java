@@ -2,20 +2,12 @@ package me.gilbva.jambodb.storage.blocks;
 
 import javax.crypto.*;
 import javax.crypto.spec.IvParameterSpec;
-import javax.crypto.spec.PBEKeySpec;
-import javax.crypto.spec.SecretKeySpec;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
-import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.OpenOption;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
-import java.security.spec.KeySpec;
 import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.concurrent.Executor;
 
 class JamboBlksV1 implements BlockStorage {
 
@@ -35,15 +27,17 @@ class JamboBlksV1 implements BlockStorage {
 
     private static final short VERSION = 1;
 
-    private SeekableByteChannel channel;
+    private BlockFile file;
 
     private boolean encrypted;
 
-    private SecurityOptions options;
+    private SecretKey secretKey;
 
-    private Cipher encCipher;
+    private ThreadLocal<Cipher> encCiphers;
 
-    private Cipher decCipher;
+    private ThreadLocal<Cipher> decCiphers;
+
+    private ByteBuffer initData;
 
     private ByteBuffer headData;
 
@@ -55,6 +49,9 @@ class JamboBlksV1 implements BlockStorage {
     @Override
     public int increase() throws IOException {
         int count = headData.getInt(0);
+        if(count == -1) {
+            throw new IOException("the storage is full");
+        }
         headData.putInt(0, count+1);
         writeHeader();
         return count;
@@ -95,39 +92,38 @@ class JamboBlksV1 implements BlockStorage {
 
     @Override
     public void read(int id, ByteBuffer data) throws IOException {
-        if(id <= 0 || id > count()) {
+        if(id == 0 || Integer.compareUnsigned(id, count()) > 0) {
             throw new IllegalArgumentException("invalid block id " + id);
         }
         if(data.capacity() > BLOCK_DATA_SIZE) {
             throw new IllegalArgumentException("invalid data size");
         }
-        channel.position((long) id * BLOCK_REAL_SIZE);
+        long position = Integer.toUnsignedLong(id) * BLOCK_REAL_SIZE;
         data.position(0);
         data.limit(BLOCK_DATA_SIZE);
 
         if(encrypted) {
             ByteBuffer encBuff = ByteBuffer.allocate(BLOCK_REAL_SIZE);
-            channel.read(encBuff);
+            file.read(encBuff, position);
 
             byte[] array = decrypt(encBuff.array());
             data.put(array);
         }
         else {
-            channel.read(data);
+            file.read(data, position);
         }
         data.flip();
     }
 
     @Override
     public void write(int id, ByteBuffer data) throws IOException {
-        if(id <= 0 || id > count()) {
+        if(id == 0 || Integer.compareUnsigned(id, count()) > 0) {
             throw new IllegalArgumentException("invalid block id " + id);
         }
         if(data.capacity() > BLOCK_DATA_SIZE) {
             throw new IllegalArgumentException("invalid data size");
         }
-        channel.position((long) id * BLOCK_REAL_SIZE);
-
+        long position = Integer.toUnsignedLong(id) * BLOCK_REAL_SIZE;
         data.position(0);
         data.limit(BLOCK_DATA_SIZE);
 
@@ -139,33 +135,102 @@ class JamboBlksV1 implements BlockStorage {
             encBuff.put(encrypt(array));
             encBuff.flip();
 
-            channel.write(encBuff);
+            file.write(encBuff, position);
         }
         else {
-            channel.write(data);
+            file.write(data, position, position + BLOCK_REAL_SIZE);
         }
 
         data.flip();
     }
 
+    /**
+     * Encrypts the blocks in parallel, with the ciphers of the threads of the executor, and then
+     * writes them in the given order, every run of consecutive ids is written with a single
+     * gathering write.
+     */
+    @Override
+    public void write(int[] ids, ByteBuffer[] data, Executor executor) throws IOException {
+        for (int i = 0; i < ids.length; i++) {
+            if(ids[i] == 0 || Integer.compareUnsigned(ids[i], count()) > 0) {
+                throw new IllegalArgumentException("invalid block id " + ids[i]);
+            }
+            if(data[i].capacity() > BLOCK_DATA_SIZE) {
+                throw new IllegalArgumentException("invalid data size");
+            }
+        }
+
+        ByteBuffer[] blocks = new ByteBuffer[ids.length];
+        ParallelTasks.run(ids.length, encrypted ? executor : null, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                ByteBuffer source = data[i].duplicate();
+                source.position(0);
+                source.limit(BLOCK_DATA_SIZE);
+                if(encrypted) {
+                    byte[] array = new byte[BLOCK_DATA_SIZE];
+                    source.get(array);
+                    source = ByteBuffer.wrap(encrypt(array));
+                }
+                blocks[i] = source;
+            }
+        });
+
+        int start = 0;
+        while (start < ids.length) {
+            int end = start + 1;
+            while (end < ids.length && ids[end] == ids[end - 1] + 1
+                    && (end - start + 1) * BLOCK_REAL_SIZE <= BlockFile.MAX_GATHER_SIZE) {
+                end++;
+            }
+            writeRun(ids[start], Arrays.copyOfRange(blocks, start, end));
+            start = end;
+        }
+        for (ByteBuffer block : data) {
+            block.position(0);
+            block.limit(BLOCK_DATA_SIZE);
+        }
+    }
+
+    /**
+     * Writes the given blocks from the given id, unencrypted blocks are followed by the unused
+     * last byte of their slot, except the last one.
+     */
+    private void writeRun(int id, ByteBuffer[] blocks) throws IOException {
+        ByteBuffer[] buffers = blocks;
+        if(!encrypted) {
+            buffers = new ByteBuffer[blocks.length * 2 - 1];
+            for (int i = 0; i < blocks.length; i++) {
+                buffers[i * 2] = blocks[i];
+                if(i + 1 < blocks.length) {
+                    buffers[i * 2 + 1] = ByteBuffer.allocate(BLOCK_REAL_SIZE - BLOCK_DATA_SIZE);
+                }
+            }
+        }
+        long position = Integer.toUnsignedLong(id) * BLOCK_REAL_SIZE;
+        file.write(buffers, position, position + (long) blocks.length * BLOCK_REAL_SIZE);
+    }
+
+    @Override
+    public void force() throws IOException {
+        file.force();
+    }
+
     @Override
     public void close() throws IOException {
-        channel.close();
+        file.close();
     }
 
-    void create(Path file, SecurityOptions secOpts) throws IOException {
-        Set<OpenOption> optionSet = openOptions();
-        optionSet.add(StandardOpenOption.CREATE);
-        channel = FileChannel.open(file, optionSet);
+    void create(Path path, SecurityOptions secOpts, boolean direct) throws IOException {
+        file = BlockFile.open(path, true, direct);
         setupSecurity(secOpts);
-        writeInitData();
+        createInitData();
 
         headData = ByteBuffer.allocate(HEAD_DATA_SIZE);
         writeHeader();
     }
 
-    void open(Path file, SecurityOptions secOpts) throws IOException {
-        channel = FileChannel.open(file, openOptions());
+    void open(Path path, SecurityOptions secOpts, boolean direct) throws IOException {
+        file = BlockFile.open(path, false, direct);
         setupSecurity(secOpts);
 
         readInitData();
@@ -174,87 +239,74 @@ class JamboBlksV1 implements BlockStorage {
     }
 
     private void setupSecurity(SecurityOptions secOpts) throws IOException {
-        encrypted = secOpts != null
-                && secOpts.password() != null
-                && !secOpts.password().isEmpty();
+        encrypted = secOpts != null && secOpts.isEnabled();
         if(encrypted) {
-            options = secOpts;
-            encCipher = createCipher(Cipher.ENCRYPT_MODE);
-            decCipher = createCipher(Cipher.DECRYPT_MODE);
+            secretKey = secOpts.secretKey();
+            encCiphers = ThreadLocal.withInitial(() -> createCipher(Cipher.ENCRYPT_MODE));
+            decCiphers = ThreadLocal.withInitial(() -> createCipher(Cipher.DECRYPT_MODE));
         }
     }
 
-    private Cipher createCipher(int mode) throws IOException {
+    private Cipher createCipher(int mode) {
         try {
             byte[] iv = {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0};
             IvParameterSpec ivspec = new IvParameterSpec(iv);
 
-            SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
-            KeySpec spec = new PBEKeySpec(options.password().toCharArray(), options.salt().getBytes(), 65536, 256);
-            SecretKey tmp = factory.generateSecret(spec);
-            SecretKeySpec secretKey = new SecretKeySpec(tmp.getEncoded(), "AES");
-
             Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5PADDING");
             cipher.init(mode, secretKey, ivspec);
 
             return cipher;
         }
         catch (Exception ex) {
-            throw new IOException(ex);
+            throw new IllegalStateException(ex);
         }
     }
 
-    private Set<OpenOption> openOptions() {
-        Set<OpenOption> optionSet = new HashSet<>();
-        optionSet.add(StandardOpenOption.READ);
-        optionSet.add(StandardOpenOption.WRITE);
-        return optionSet;
-    }
-
+    /**
+     * Writes the header together with the init data before it, so the first block of the
+     * file is written whole.
+     */
     private void writeHeader() throws IOException {
-        channel.position(INIT_DATA_SIZE);
-        headData.position(0);
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_REAL_SIZE);
+        block.put(initData.array());
         if(encrypted) {
-            byte[] encrypted = encrypt(headData.array());
-            channel.write(ByteBuffer.wrap(encrypted));
+            block.put(encrypt(headData.array()));
         }
         else {
-            channel.write(headData);
+            block.put(headData.array());
         }
+        block.flip();
+        file.write(block, 0, BLOCK_REAL_SIZE);
     }
 
     private void readHeader() throws IOException {
-        channel.position(INIT_DATA_SIZE);
         headData.position(0);
         if(encrypted) {
             ByteBuffer encData = ByteBuffer.allocate(HEAD_REAL_SIZE);
-            channel.read(encData);
+            file.read(encData, INIT_DATA_SIZE);
             headData.put(decrypt(encData.array()));
         }
         else {
-            channel.read(headData);
+            file.read(headData, INIT_DATA_SIZE);
         }
     }
 
-    private void writeInitData() throws IOException {
+    private void createInitData() {
         short flags = 0;
         if(encrypted) {
             flags |= (short) 1;
         }
 
-        ByteBuffer initData = ByteBuffer.allocate(INIT_DATA_SIZE);
+        initData = ByteBuffer.allocate(INIT_DATA_SIZE);
         initData.put(TITLE);
         initData.putShort(VERSION);
         initData.putShort(flags);
         initData.flip();
-        channel.position(0);
-        channel.write(initData);
     }
 
     private void readInitData() throws IOException {
-        ByteBuffer initData = ByteBuffer.allocate(INIT_DATA_SIZE);
-        channel.position(0);
-        channel.read(initData);
+        initData = ByteBuffer.allocate(INIT_DATA_SIZE);
+        file.read(initData, 0);
         initData.flip();
 
         byte[] title = new byte[TITLE.length];
@@ -276,7 +328,7 @@ class JamboBlksV1 implements BlockStorage {
 
     private byte[] encrypt(byte[] array) throws IOException {
         try {
-            return encCipher.doFinal(array);
+            return encCiphers.get().doFinal(array);
         } catch (IllegalBlockSizeException | BadPaddingException e) {
             throw new IOException(e);
         }
@@ -284,7 +336,7 @@ class JamboBlksV1 implements BlockStorage {
 
     private byte[] decrypt(byte[] array) throws IOException {
         try {
-            return decCipher.doFinal(array);
+            return decCiphers.get().doFinal(array);
         } catch (IllegalBlockSizeException | BadPaddingException e) {
             throw new IOException(e);
         }
@@ -0,0 +1,879 @@
+package me.gilbva.jambodb.storage.blocks;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Block storage format where every block is written in a slot that is found through an indirection
+ * table, the table is stored in a chain of chunks of the size of a block, the first one right after the
+ * header, every chunk starts with the offset of the next one followed by the entries of the blocks. The
+ * size of the blocks is chosen when the storage is created, from 4096 to 65536 bytes, and is recorded
+ * in the init data, every block holds one byte less of data.
+ * <p>
+ * When the storage is compressed every block is compressed with deflate and written in a slot made of
+ * units of an eighth of the block size, big enough for its compressed size plus a two bytes header
+ * holding that size, blocks that do not compress are stored raw. A block is rewritten in place while its
+ * compressed form still fits its slot, otherwise it is moved to a new slot and the old one is reused by a
+ * block of the same amount of units. When the storage is not compressed every slot is an aligned unit
+ * of the block size.
+ * <p>
+ * When the storage is encrypted the slots and the header are encrypted with AES/GCM, every write uses
+ * a new nonce that is stored in the table entry of the block along with the authentication tag of the
+ * slot, or before and after the header, so blocks can be read and written independently and the ciphertext
+ * has the same size as the data. A block that was tampered with, or whose slot and entry were not both
+ * written before a crash, fails to decrypt instead of being read as garbage. Compressed slots are encrypted
+ * whole, up to the end of their last unit. The ciphers are kept per thread and work on per thread direct
+ * buffers, which are also used for the file I/O.
+ * <p>
+ * Blocks hold one byte less than their slot, as in the version 1 format, since the pages written to a
+ * storage are laid out for {@link BlockStorage#blockSize()} and must not depend on the format of the file.
+ * <p>
+ * The free slots are found again when the storage is opened, as the gaps between used slots.
+ * <p>
+ * Reads only use positional I/O and per thread buffers, so several blocks can be read at the same
+ * time, writes and the creation of blocks must not run concurrently with other operations.
+ */
+class JamboBlksV2 implements BlockStorage {
+    private static final int INIT_DATA_SIZE = 16;
+
+    private static final int HEAD_DATA_SIZE = 4096 - INIT_DATA_SIZE - 1;
+
+    private static final int HEAD_USER_DATA_SIZE = HEAD_DATA_SIZE - 4;
+
+    private static final int KEY_CHECK_SIZE = 16;
+
+    private static final int TAG_SIZE = 16;
+
+    private static final int HEAD_END = 4096;
+
+    private static final int MIN_BLOCK_SHIFT = 12;
+
+    private static final int COMPRESSED_UNITS = 8;
+
+    private static final int IO_BUFFER_SIZE = 8192;
+
+    private static final int RAW_FLAG = 0x8000;
+
+    private static final int HEADER_ID = -1;
+
+    private static final long MAX_COUNT = 0xFFFFFFFEL;
+
+    private static final byte[] TITLE = "JamboBlks".getBytes(StandardCharsets.UTF_8);
+
+    static final short VERSION = 2;
+
+    private static final short FLAG_ENCRYPTED = 1;
+
+    private static final short FLAG_COMPRESSED = 2;
+
+    private BlockFile file;
+
+    private boolean compressed;
+
+    private boolean encrypted;
+
+    private int blockSize;
+
+    private int dataSize;
+
+    private int unitSize;
+
+    private int maxUnits;
+
+    private int entrySize;
+
+    private int chunkEntries;
+
+    private long firstChunk;
+
+    private ByteBuffer initData;
+
+    private ByteBuffer headData;
+
+    private final List<Long> chunks = new ArrayList<>();
+
+    private final List<long[]> tables = new ArrayList<>();
+
+    private final List<long[]> nonces = new ArrayList<>();
+
+    private final List<long[]> tags = new ArrayList<>();
+
+    private ArrayDeque<Long>[] freeSlots;
+
+    private long end;
+
+    private SecretKey key;
+
+    private byte[] keyCheck;
+
+    private final long nonceBase = new SecureRandom().nextLong();
+
+    private long nonceCounter;
+
+    private final ThreadLocal<Cipher> ciphers = ThreadLocal.withInitial(JamboBlksV2::createCipher);
+
+    private final ThreadLocal<ByteBuffer> ioBuffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(Math.max(IO_BUFFER_SIZE, 2 * blockSize)));
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+    private final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+
+    private final ThreadLocal<ByteBuffer> readSlots = ThreadLocal.withInitial(() -> ByteBuffer.allocate(maxUnits * unitSize));
+
+    private final ThreadLocal<byte[]> readRaws = ThreadLocal.withInitial(() -> new byte[dataSize]);
+
+    private byte[] raw;
+
+    private ByteBuffer slot;
+
+    @Override
+    public int blockSize() {
+        return dataSize;
+    }
+
+    @Override
+    public int count() {
+        return headData.getInt(0);
+    }
+
+    @Override
+    public int increase() throws IOException {
+        long count = Integer.toUnsignedLong(headData.getInt(0));
+        if(count == MAX_COUNT) {
+            throw new IOException("the storage is full");
+        }
+        if(count / chunkEntries >= chunks.size()) {
+            addChunk();
+        }
+        headData.putInt(0, (int) (count + 1));
+        writeHeader();
+        return (int) count;
+    }
+
+    @Override
+    public void readHead(ByteBuffer data) {
+        if(data.capacity() != HEAD_USER_DATA_SIZE) {
+            throw new IllegalArgumentException("invalid data size");
+        }
+
+        data.position(0);
+        data.limit(HEAD_USER_DATA_SIZE);
+        data.put(headData.array(), 4, HEAD_USER_DATA_SIZE);
+        data.flip();
+    }
+
+    @Override
+    public void writeHead(ByteBuffer data) throws IOException {
+        if(data.capacity() != HEAD_USER_DATA_SIZE) {
+            throw new IllegalArgumentException("invalid data size");
+        }
+
+        data.position(0);
+        data.limit(HEAD_USER_DATA_SIZE);
+        headData.position(4);
+        headData.put(data);
+        data.flip();
+        writeHeader();
+    }
+
+    @Override
+    public void read(int id, ByteBuffer data) throws IOException {
+        if(id == 0 || Integer.compareUnsigned(id, count()) > 0) {
+            throw new IllegalArgumentException("invalid block id " + id);
+        }
+        if(data.capacity() > dataSize) {
+            throw new IllegalArgumentException("invalid data size");
+        }
+        data.position(0);
+        data.limit(dataSize);
+
+        long entry = entry(id);
+        if(entry == 0) {
+            byte[] zeros = readRaws.get();
+            Arrays.fill(zeros, (byte) 0);
+            data.put(zeros);
+        }
+        else if(!compressed) {
+            if(encrypted) {
+                ByteBuffer io = readSealedSlot(id, offset(entry), dataSize);
+                decrypt(id, nonce(id), io, data);
+            }
+            else {
+                file.read(data, offset(entry));
+            }
+        }
+        else {
+            ByteBuffer slot = readSlots.get();
+            slot.clear();
+            if(encrypted) {
+                ByteBuffer io = readSealedSlot(id, offset(entry), units(entry) * unitSize);
+                decrypt(id, nonce(id), io, slot);
+            }
+            else {
+                slot.limit(units(entry) * unitSize);
+                file.read(slot, offset(entry));
+            }
+
+            int header = slot.getShort(0) & 0xFFFF;
+            if((header & RAW_FLAG) != 0) {
+                data.put(slot.array(), 2, dataSize);
+            }
+            else {
+                byte[] block = readRaws.get();
+                inflate(slot, header, block);
+                data.put(block);
+            }
+        }
+        data.flip();
+    }
+
+    @Override
+    public void write(int id, ByteBuffer data) throws IOException {
+        checkWrite(id, data);
+        data.position(0);
+        data.limit(dataSize);
+
+        ByteBuffer content = data;
+        if(compressed) {
+            data.get(raw);
+            slot.clear();
+            slot.limit(deflate(deflater, raw, slot) + 2);
+            content = slot;
+        }
+
+        long nonce = 0;
+        long[] tag = null;
+        if(encrypted) {
+            if(compressed) {
+                padSlot(content);
+            }
+            nonce = nextNonce();
+            ByteBuffer io = ioBuffers.get();
+            io.clear();
+            encrypt(id, nonce, content, io);
+            io.flip();
+            tag = takeTag(io);
+            content = io;
+        }
+        store(id, content, nonce, tag);
+        data.position(0);
+        data.limit(dataSize);
+    }
+
+    /**
+     * Compresses and encrypts the blocks in parallel, every part of the blocks uses its own deflater,
+     * then the slots of the blocks are allocated in the given order, and the slots are written sorted
+     * by offset, with a single gathering write for every run of adjacent slots.
+     */
+    @Override
+    public void write(int[] ids, ByteBuffer[] data, Executor executor) throws IOException {
+        long[] blockNonces = new long[ids.length];
+        long[][] blockTags = new long[ids.length][];
+        for (int i = 0; i < ids.length; i++) {
+            checkWrite(ids[i], data[i]);
+            if(encrypted) {
+                blockNonces[i] = nextNonce();
+            }
+        }
+
+        ByteBuffer[] contents = new ByteBuffer[ids.length];
+        ParallelTasks.run(ids.length, compressed || encrypted ? executor : null, (from, to) -> {
+            Deflater partDeflater = compressed ? new Deflater(Deflater.BEST_SPEED) : null;
+            byte[] block = new byte[dataSize];
+            try {
+                for (int i = from; i < to; i++) {
+                    contents[i] = prepare(ids[i], data[i], blockNonces[i], partDeflater, block);
+                    if(encrypted) {
+                        blockTags[i] = takeTag(contents[i]);
+                    }
+                }
+            }
+            finally {
+                if(partDeflater != null) {
+                    partDeflater.end();
+                }
+            }
+        });
+
+        long[] offsets = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            offsets[i] = place(ids[i], contents[i], blockNonces[i], blockTags[i]);
+        }
+        writeSlots(ids, contents, offsets);
+        for (ByteBuffer block : data) {
+            block.position(0);
+            block.limit(dataSize);
+        }
+    }
+
+    @Override
+    public void force() throws IOException {
+        file.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+        deflater.end();
+        Inflater inflater;
+        while ((inflater = inflaters.poll()) != null) {
+            inflater.end();
+        }
+    }
+
+    void create(Path path, int blockSize, boolean compressed, SecurityOptions secOpts, boolean direct) throws IOException {
+        file = BlockFile.open(path, true, direct);
+        setup(blockSize, compressed, secOpts);
+        createInitData();
+        headData = ByteBuffer.allocate(HEAD_DATA_SIZE);
+        writeHeader();
+
+        end = firstChunk;
+        addChunk();
+    }
+
+    void open(Path path, SecurityOptions secOpts, boolean direct) throws IOException {
+        file = BlockFile.open(path, false, direct);
+        readInitData();
+        short flags = initData.getShort();
+        boolean isEncrypted = (flags & FLAG_ENCRYPTED) != 0;
+        if(isEncrypted != isEncrypted(secOpts)) {
+            throw new IOException("invalid password");
+        }
+        int shift = initData.get();
+        if(shift < 0 || shift > 4) {
+            throw new IOException("invalid block size");
+        }
+        setup(1 << (shift + MIN_BLOCK_SHIFT), (flags & FLAG_COMPRESSED) != 0, secOpts);
+        headData = ByteBuffer.allocate(HEAD_DATA_SIZE);
+        readHeader();
+        readTable();
+    }
+
+    private static boolean isEncrypted(SecurityOptions secOpts) {
+        return secOpts != null && secOpts.isEnabled();
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void setup(int blockSize, boolean compressed, SecurityOptions secOpts) throws IOException {
+        this.compressed = compressed;
+        this.encrypted = isEncrypted(secOpts);
+        this.blockSize = blockSize;
+        dataSize = blockSize - 1;
+        raw = new byte[dataSize];
+        unitSize = compressed ? blockSize / COMPRESSED_UNITS : blockSize;
+        maxUnits = compressed ? (dataSize + 2 + unitSize - 1) / unitSize : 1;
+        entrySize = encrypted ? 16 + TAG_SIZE : 8;
+        chunkEntries = blockSize / entrySize - 1;
+        long headEnd = encrypted ? HEAD_END + 8 + KEY_CHECK_SIZE + TAG_SIZE : HEAD_END;
+        firstChunk = (headEnd + blockSize - 1) / blockSize * blockSize;
+        freeSlots = new ArrayDeque[maxUnits + 1];
+        for (int i = 0; i < freeSlots.length; i++) {
+            freeSlots[i] = new ArrayDeque<>();
+        }
+        if(compressed) {
+            slot = ByteBuffer.allocate(maxUnits * unitSize);
+        }
+        if(encrypted) {
+            key = secOpts.secretKey();
+            keyCheck = keyCheck(key);
+        }
+    }
+
+    private static byte[] keyCheck(SecretKey key) throws IOException {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getEncoded());
+            return Arrays.copyOf(digest, KEY_CHECK_SIZE);
+        }
+        catch (GeneralSecurityException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    private static Cipher createCipher() {
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        }
+        catch (GeneralSecurityException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Encrypts the input into the output followed by its authentication tag, the IV is the nonce
+     * followed by the id of the block, so a nonce is never used for two different blocks. The
+     * last unsigned id is never given to a block, since it is the id of the header.
+     */
+    private void encrypt(int id, long nonce, ByteBuffer input, ByteBuffer output) throws IOException {
+        try {
+            Cipher cipher = ciphers.get();
+            cipher.init(Cipher.ENCRYPT_MODE, key, iv(id, nonce));
+            cipher.doFinal(input, output);
+        }
+        catch (GeneralSecurityException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Decrypts the input, the ciphertext followed by its authentication tag, into the output.
+     *
+     * @throws IOException if the tag does not match, because the block was modified or only partially written.
+     */
+    private void decrypt(int id, long nonce, ByteBuffer input, ByteBuffer output) throws IOException {
+        try {
+            Cipher cipher = ciphers.get();
+            cipher.init(Cipher.DECRYPT_MODE, key, iv(id, nonce));
+            cipher.doFinal(input, output);
+        }
+        catch (AEADBadTagException ex) {
+            throw new IOException(id == HEADER_ID ? "corrupted header" : "corrupted block " + Integer.toUnsignedString(id), ex);
+        }
+        catch (GeneralSecurityException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    private static GCMParameterSpec iv(int id, long nonce) {
+        byte[] iv = new byte[12];
+        ByteBuffer.wrap(iv).putLong(nonce).putInt(id);
+        return new GCMParameterSpec(TAG_SIZE * 8, iv);
+    }
+
+    /**
+     * Removes the authentication tag from the end of the given encrypted content.
+     *
+     * @return the tag, as two longs.
+     */
+    private static long[] takeTag(ByteBuffer content) {
+        int end = content.limit() - TAG_SIZE;
+        long[] tag = {content.getLong(end), content.getLong(end + 8)};
+        content.limit(end);
+        return tag;
+    }
+
+    /**
+     * Pads the given compressed slot with zeros up to the end of its last unit, so the length of the
+     * ciphertext is known from the table entry of the block.
+     */
+    private void padSlot(ByteBuffer content) {
+        int end = (content.limit() + unitSize - 1) / unitSize * unitSize;
+        Arrays.fill(content.array(), content.limit(), end, (byte) 0);
+        content.limit(end);
+    }
+
+    private long nextNonce() {
+        return nonceBase + ++nonceCounter;
+    }
+
+    private ByteBuffer readSlot(long offset, int length) throws IOException {
+        ByteBuffer io = ioBuffers.get();
+        io.clear();
+        io.limit(length);
+        file.read(io, offset);
+        io.flip();
+        return io;
+    }
+
+    /**
+     * Reads the encrypted slot of the given block followed by the authentication tag from its table entry.
+     */
+    private ByteBuffer readSealedSlot(int id, long offset, int length) throws IOException {
+        ByteBuffer io = readSlot(offset, length);
+        long index = Integer.toUnsignedLong(id) - 1;
+        long[] chunkTags = tags.get((int) (index / chunkEntries));
+        int tagIndex = (int) (index % chunkEntries) * 2;
+        io.limit(length + TAG_SIZE);
+        io.putLong(length, chunkTags[tagIndex]);
+        io.putLong(length + 8, chunkTags[tagIndex + 1]);
+        return io;
+    }
+
+    /**
+     * Compresses the given block into the slot buffer, after the header. The compressed size must
+     * be lower than RAW_FLAG, so blocks of 32K or more that barely compress are stored raw.
+     *
+     * @return the size of the stored data, without the header.
+     */
+    private static int deflate(Deflater deflater, byte[] block, ByteBuffer slot) {
+        deflater.reset();
+        deflater.setInput(block);
+        deflater.finish();
+        int limit = Math.min(block.length, RAW_FLAG);
+        int length = deflater.deflate(slot.array(), 2, limit);
+        if(!deflater.finished() || length >= limit) {
+            System.arraycopy(block, 0, slot.array(), 2, block.length);
+            slot.putShort(0, (short) (RAW_FLAG | block.length));
+            return block.length;
+        }
+        slot.putShort(0, (short) length);
+        return length;
+    }
+
+    /**
+     * Decompresses the data of the given slot into the given block, with an inflater taken from
+     * the pool, so several blocks can be decompressed at the same time.
+     */
+    private void inflate(ByteBuffer slot, int length, byte[] block) throws IOException {
+        Inflater inflater = inflaters.poll();
+        if(inflater == null) {
+            inflater = new Inflater();
+        }
+        try {
+            inflater.reset();
+            inflater.setInput(slot.array(), 2, length);
+            if(inflater.inflate(block) != dataSize) {
+                throw new IOException("corrupted block");
+            }
+        }
+        catch (DataFormatException ex) {
+            throw new IOException("corrupted block", ex);
+        }
+        finally {
+            inflaters.offer(inflater);
+        }
+    }
+
+    private void checkWrite(int id, ByteBuffer data) {
+        if(id == 0 || Integer.compareUnsigned(id, count()) > 0) {
+            throw new IllegalArgumentException("invalid block id " + id);
+        }
+        if(data.capacity() > dataSize) {
+            throw new IllegalArgumentException("invalid data size");
+        }
+    }
+
+    /**
+     * Gets the content of the slot of the given block, compressed and encrypted as needed, without
+     * using any of the buffers of this storage, so blocks can be prepared from several threads. The
+     * encrypted content is followed by its authentication tag.
+     */
+    private ByteBuffer prepare(int id, ByteBuffer data, long nonce, Deflater deflater, byte[] block) throws IOException {
+        ByteBuffer content = data.duplicate();
+        content.position(0);
+        content.limit(dataSize);
+        if(compressed) {
+            content.get(block);
+            ByteBuffer compressedSlot = ByteBuffer.allocate(maxUnits * unitSize);
+            compressedSlot.limit(deflate(deflater, block, compressedSlot) + 2);
+            content = compressedSlot;
+        }
+        if(encrypted) {
+            if(compressed) {
+                padSlot(content);
+            }
+            ByteBuffer output = ByteBuffer.allocate(content.remaining() + TAG_SIZE);
+            encrypt(id, nonce, content, output);
+            output.flip();
+            content = output;
+        }
+        return content;
+    }
+
+    /**
+     * Writes the content of the slot of the given block, in place if it still fits its slot,
+     * otherwise in a new slot.
+     */
+    private void store(int id, ByteBuffer content, long nonce, long[] tag) throws IOException {
+        long offset = place(id, content, nonce, tag);
+        file.write(content, offset, offset + slotSize(id));
+    }
+
+    /**
+     * Chooses the slot for the given content of a block, its current slot if the content still fits it,
+     * otherwise a new slot, updating the table entry of the block when the slot or its nonce and tag change.
+     * Encrypted content only stays in its slot when it has the same number of units, since the slot is
+     * decrypted whole.
+     *
+     * @return the offset of the slot.
+     */
+    private long place(int id, ByteBuffer content, long nonce, long[] tag) throws IOException {
+        int units = (content.remaining() + unitSize - 1) / unitSize;
+        long entry = entry(id);
+        int oldUnits = units(entry);
+        boolean moved = entry == 0 || oldUnits < units || oldUnits > units + (encrypted ? 0 : 1);
+        long offset = moved ? allocate(units) : offset(entry);
+
+        if(moved || encrypted) {
+            writeEntry(id, offset, moved ? units : oldUnits, nonce, tag);
+        }
+        if(moved && entry != 0) {
+            freeSlots[oldUnits].push(offset(entry));
+        }
+        return offset;
+    }
+
+    private long slotSize(int id) {
+        return (long) units(entry(id)) * unitSize;
+    }
+
+    /**
+     * Writes the contents of the given slots sorted by offset, every run of adjacent slots is written
+     * with a single gathering write, where the unused end of every slot but the last one is written as zeros.
+     */
+    private void writeSlots(int[] ids, ByteBuffer[] contents, long[] offsets) throws IOException {
+        Integer[] order = new Integer[ids.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(offsets[a], offsets[b]));
+
+        List<ByteBuffer> run = new ArrayList<>();
+        int start = 0;
+        while (start < order.length) {
+            long position = offsets[order[start]];
+            long written = position;
+            long slotEnd = position;
+            int i = start;
+            while (i < order.length && offsets[order[i]] == slotEnd && slotEnd - position < BlockFile.MAX_GATHER_SIZE) {
+                int index = order[i++];
+                if(written < slotEnd) {
+                    run.add(ByteBuffer.allocate((int) (slotEnd - written)));
+                }
+                run.add(contents[index]);
+                written = slotEnd + contents[index].remaining();
+                slotEnd += slotSize(ids[index]);
+            }
+            file.write(run.toArray(new ByteBuffer[0]), position, slotEnd);
+            run.clear();
+            start = i;
+        }
+    }
+
+    private long allocate(int units) {
+        Long offset = freeSlots[units].poll();
+        if(offset != null) {
+            return offset;
+        }
+        long result = end;
+        end += (long) units * unitSize;
+        return result;
+    }
+
+    private void addChunk() throws IOException {
+        long offset = allocate(blockSize / unitSize);
+        file.write(ByteBuffer.allocate(blockSize), offset);
+        chunks.add(offset);
+        tables.add(new long[chunkEntries]);
+        nonces.add(encrypted ? new long[chunkEntries] : null);
+        tags.add(encrypted ? new long[chunkEntries * 2] : null);
+        if(chunks.size() > 1) {
+            writeChunk(chunks.size() - 2, 0, 8);
+        }
+    }
+
+    /**
+     * Writes the given range of bytes of a chunk from the entries kept in memory, widened to the
+     * alignment of the file, so the neighbouring entries never have to be read before the write.
+     */
+    private void writeChunk(int chunkIndex, int from, int to) throws IOException {
+        int alignment = Math.min(file.alignment(), blockSize);
+        from = from / alignment * alignment;
+        to = (to + alignment - 1) / alignment * alignment;
+
+        ByteBuffer buffer = ByteBuffer.allocate(to - from);
+        long[] table = tables.get(chunkIndex);
+        long[] chunkNonces = nonces.get(chunkIndex);
+        long[] chunkTags = tags.get(chunkIndex);
+        for (int position = from; position < to; position += 8) {
+            int index = position / entrySize - 1;
+            int word = position % entrySize / 8;
+            long value;
+            if(index < 0) {
+                value = word == 0 && chunkIndex + 1 < chunks.size() ? chunks.get(chunkIndex + 1) : 0;
+            }
+            else if(word == 0) {
+                value = table[index];
+            }
+            else if(word == 1) {
+                value = chunkNonces[index];
+            }
+            else {
+                value = chunkTags[index * 2 + word - 2];
+            }
+            buffer.putLong(value);
+        }
+        buffer.flip();
+        file.write(buffer, chunks.get(chunkIndex) + from);
+    }
+
+    /**
+     * Gets the table entry of the given block, the entries are kept per chunk, so the ids can
+     * take the whole unsigned int range without a single array holding all of them.
+     */
+    private long entry(int id) {
+        long index = Integer.toUnsignedLong(id) - 1;
+        return tables.get((int) (index / chunkEntries))[(int) (index % chunkEntries)];
+    }
+
+    private long nonce(int id) {
+        long index = Integer.toUnsignedLong(id) - 1;
+        return nonces.get((int) (index / chunkEntries))[(int) (index % chunkEntries)];
+    }
+
+    private void writeEntry(int id, long offset, int units, long nonce, long[] tag) throws IOException {
+        long entry = (offset / unitSize) << 4 | units;
+        long index = Integer.toUnsignedLong(id) - 1;
+        int chunkIndex = (int) (index / chunkEntries);
+        int entryIndex = (int) (index % chunkEntries);
+        tables.get(chunkIndex)[entryIndex] = entry;
+        if(encrypted) {
+            nonces.get(chunkIndex)[entryIndex] = nonce;
+            tags.get(chunkIndex)[entryIndex * 2] = tag[0];
+            tags.get(chunkIndex)[entryIndex * 2 + 1] = tag[1];
+        }
+        int position = entrySize * (entryIndex + 1);
+        writeChunk(chunkIndex, position, position + entrySize);
+    }
+
+    private void readTable() throws IOException {
+        long count = Integer.toUnsignedLong(count());
+        List<long[]> used = new ArrayList<>();
+        ByteBuffer chunk = ByteBuffer.allocate(blockSize);
+        long offset = firstChunk;
+        long index = 0;
+        while (offset != 0) {
+            long[] table = new long[chunkEntries];
+            long[] chunkNonces = encrypted ? new long[chunkEntries] : null;
+            long[] chunkTags = encrypted ? new long[chunkEntries * 2] : null;
+            chunks.add(offset);
+            tables.add(table);
+            nonces.add(chunkNonces);
+            tags.add(chunkTags);
+            used.add(new long[] {offset, blockSize / unitSize});
+            chunk.clear();
+            file.read(chunk, offset);
+            for (int i = 1; i <= chunkEntries && index < count; i++, index++) {
+                long entry = chunk.getLong(i * entrySize);
+                table[i - 1] = entry;
+                if(encrypted) {
+                    chunkNonces[i - 1] = chunk.getLong(i * entrySize + 8);
+                    chunkTags[i * 2 - 2] = chunk.getLong(i * entrySize + 16);
+                    chunkTags[i * 2 - 1] = chunk.getLong(i * entrySize + 24);
+                }
+                if(entry != 0) {
+                    used.add(new long[] {offset(entry), units(entry)});
+                }
+            }
+            offset = chunk.getLong(0);
+        }
+        if(index < count) {
+            throw new IOException("invalid file");
+        }
+
+        used.sort((a, b) -> Long.compare(a[0], b[0]));
+        long position = firstChunk;
+        for (long[] extent : used) {
+            addFreeSlots(position, extent[0]);
+            position = Math.max(position, extent[0] + extent[1] * unitSize);
+        }
+        end = Math.max(position, (file.size() + unitSize - 1) / unitSize * unitSize);
+        addFreeSlots(position, end);
+    }
+
+    private void addFreeSlots(long from, long to) {
+        while (from < to) {
+            int units = (int) Math.min(maxUnits, (to - from) / unitSize);
+            freeSlots[units].push(from);
+            from += (long) units * unitSize;
+        }
+    }
+
+    private long offset(long entry) {
+        return (entry >>> 4) * unitSize;
+    }
+
+    private static int units(long entry) {
+        return (int) (entry & 0xF);
+    }
+
+    /**
+     * Writes the header together with the init data before it, the space up to the first chunk
+     * belongs to the header, so it is written whole.
+     */
+    private void writeHeader() throws IOException {
+        headData.clear();
+        ByteBuffer io = ioBuffers.get();
+        io.clear();
+        io.put(initData.array());
+        if(!encrypted) {
+            io.put(headData);
+        }
+        else {
+            long nonce = nextNonce();
+            io.putLong(nonce);
+            io.put(keyCheck);
+            encrypt(HEADER_ID, nonce, headData, io);
+        }
+        io.flip();
+        file.write(io, 0, firstChunk);
+    }
+
+    private void readHeader() throws IOException {
+        headData.clear();
+        if(!encrypted) {
+            file.read(headData, INIT_DATA_SIZE);
+            return;
+        }
+
+        ByteBuffer io = readSlot(INIT_DATA_SIZE, 8 + KEY_CHECK_SIZE + HEAD_DATA_SIZE + TAG_SIZE);
+        long nonce = io.getLong();
+        byte[] check = new byte[KEY_CHECK_SIZE];
+        io.get(check);
+        if(!MessageDigest.isEqual(check, keyCheck)) {
+            throw new IOException("invalid password");
+        }
+        decrypt(HEADER_ID, nonce, io, headData);
+    }
+
+    private void createInitData() {
+        short flags = 0;
+        if(encrypted) {
+            flags |= FLAG_ENCRYPTED;
+        }
+        if(compressed) {
+            flags |= FLAG_COMPRESSED;
+        }
+
+        initData = ByteBuffer.allocate(INIT_DATA_SIZE);
+        initData.put(TITLE);
+        initData.putShort(VERSION);
+        initData.putShort(flags);
+        initData.put((byte) (Integer.numberOfTrailingZeros(blockSize) - MIN_BLOCK_SHIFT));
+        initData.clear();
+    }
+
+    private void readInitData() throws IOException {
+        initData = ByteBuffer.allocate(INIT_DATA_SIZE);
+        file.read(initData, 0);
+        initData.flip();
+
+        byte[] title = new byte[TITLE.length];
+        initData.get(title);
+        if(!Arrays.equals(title, TITLE)) {
+            throw new IOException("invalid file");
+        }
+        if(initData.getShort() != VERSION) {
+            throw new IOException("invalid version");
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package me.gilbva.jambodb.storage.blocks;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs a task over a range of indexes split in a few contiguous parts that are run in parallel on
+ * an executor, one part per available processor, so every part processes several blocks and the
+ * cost of scheduling is paid once per part.
+ */
+final class ParallelTasks {
+    interface RangeTask {
+        void run(int from, int to) throws IOException;
+    }
+
+    private ParallelTasks() {
+    }
+
+    static void run(int count, Executor executor, RangeTask task) throws IOException {
+        int parts = Math.min(count, Runtime.getRuntime().availableProcessors());
+        if(executor == null || parts <= 1) {
+            task.run(0, count);
+            return;
+        }
+
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[parts];
+        for (int i = 0; i < parts; i++) {
+            int from = (int) ((long) count * i / parts);
+            int to = (int) ((long) count * (i + 1) / parts);
+            futures[i] = CompletableFuture.runAsync(() -> {
+                try {
+                    task.run(from, to);
+                }
+                catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }, executor);
+        }
+
+        try {
+            CompletableFuture.allOf(futures).join();
+        }
+        catch (CompletionException ex) {
+            if(ex.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) ex.getCause()).getCause();
+            }
+            if(ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+}
@@ -1,15 +1,45 @@
 package me.gilbva.jambodb.storage.blocks;
 
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.spec.KeySpec;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The options to encrypt a storage, either a password and a salt the key is derived from with PBKDF2,
+ * or a key that was already derived. Derived keys are cached within the process, so opening several
+ * storages with the same password and salt derives the key only once.
+ */
 public class SecurityOptions {
+    private static final Map<String, SecretKey> KEYS = new ConcurrentHashMap<>();
+
     private String password;
 
     private String salt;
 
+    private SecretKey key;
+
     public SecurityOptions(String password, String salt) {
         this.password = password;
         this.salt = salt;
     }
 
+    /**
+     * Creates the options for a key that was already derived, for example with {@link #deriveKey(String, String)}.
+     *
+     * @param key the AES key of the storage.
+     */
+    public SecurityOptions(SecretKey key) {
+        this.key = key;
+    }
+
     public String password() {
         return password;
     }
@@ -17,4 +47,68 @@ public class SecurityOptions {
     public String salt() {
         return salt;
     }
+
+    public SecretKey key() {
+        return key;
+    }
+
+    /**
+     * Determines if these options encrypt the storage, which requires a key or a non empty password.
+     *
+     * @return true if the storage is encrypted.
+     */
+    public boolean isEnabled() {
+        return key != null || (password != null && !password.isEmpty());
+    }
+
+    /**
+     * Gets the key of the storage, the given key or the one derived from the password and the salt.
+     *
+     * @return the AES key of the storage.
+     * @throws IOException if the key cannot be derived.
+     */
+    SecretKey secretKey() throws IOException {
+        if(key == null) {
+            key = deriveKey(password, salt);
+        }
+        return key;
+    }
+
+    /**
+     * Derives the key for the given password and salt with PBKDF2, it is derived once per process
+     * for every password and salt, the cache is indexed by a digest of both so it holds no passwords.
+     *
+     * @param password the password.
+     * @param salt the salt.
+     * @return the derived AES key.
+     * @throws IOException if the key cannot be derived.
+     */
+    public static SecretKey deriveKey(String password, String salt) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(password.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(salt.getBytes(StandardCharsets.UTF_8));
+            String id = new String(digest.digest(), StandardCharsets.ISO_8859_1);
+
+            SecretKey result = KEYS.get(id);
+            if(result == null) {
+                SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+                KeySpec spec = new PBEKeySpec(password.toCharArray(), salt.getBytes(), 65536, 256);
+                result = new SecretKeySpec(factory.generateSecret(spec).getEncoded(), "AES");
+                KEYS.put(id, result);
+            }
+            return result;
+        }
+        catch (GeneralSecurityException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Removes all the derived keys from the cache of the process.
+     */
+    public static void clearKeyCache() {
+        KEYS.clear();
+    }
 }
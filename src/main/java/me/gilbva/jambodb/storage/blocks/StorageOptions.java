@@ -0,0 +1,107 @@
+package me.gilbva.jambodb.storage.blocks;
+
+/**
+ * The options used to create a block storage, they choose the format of the storage file, which is
+ * recorded in the file so it does not need to be given again when the storage is opened. The security
+ * options and direct I/O are not recorded, they are given again every time the storage is opened.
+ */
+public class StorageOptions {
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+    public static final int MAX_BLOCK_SIZE = 65536;
+
+    private SecurityOptions security;
+
+    private boolean compression;
+
+    private boolean ctrEncryption;
+
+    private int blockSize = DEFAULT_BLOCK_SIZE;
+
+    private boolean directIo;
+
+    public SecurityOptions security() {
+        return security;
+    }
+
+    public StorageOptions security(SecurityOptions security) {
+        this.security = security;
+        return this;
+    }
+
+    public boolean compression() {
+        return compression;
+    }
+
+    /**
+     * Stores the blocks compressed, in slots of variable size that are located through an
+     * indirection table, this uses the JamboBlks version 2 format, so encrypted storages are
+     * encrypted as with {@link #ctrEncryption(boolean)}.
+     *
+     * @param compression true to compress the blocks.
+     * @return this object.
+     */
+    public StorageOptions compression(boolean compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    public boolean ctrEncryption() {
+        return ctrEncryption;
+    }
+
+    /**
+     * Encrypts the blocks with AES/GCM, a counter mode with an authentication tag, using a new nonce
+     * on every write, instead of the AES/CBC cipher with a fixed IV of the version 1 format, so blocks
+     * that were modified or torn fail to be read. The blocks are then stored in aligned 4096 bytes
+     * slots of the JamboBlks version 2 format. Without security options the
+     * blocks are just stored unencrypted in that format.
+     *
+     * @param ctrEncryption true to use AES/GCM.
+     * @return this object.
+     */
+    public StorageOptions ctrEncryption(boolean ctrEncryption) {
+        this.ctrEncryption = ctrEncryption;
+        return this;
+    }
+
+    public int blockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Sets the size of the blocks of the storage on disk, a power of two from 4096 to 65536 bytes,
+     * every block holds one byte less of data. Sizes other than the default use the JamboBlks
+     * version 2 format.
+     *
+     * @param blockSize the size of the blocks.
+     * @return this object.
+     * @throws IllegalArgumentException if the size is not supported.
+     */
+    public StorageOptions blockSize(int blockSize) {
+        if(blockSize < DEFAULT_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE || Integer.bitCount(blockSize) != 1) {
+            throw new IllegalArgumentException("invalid block size " + blockSize);
+        }
+        this.blockSize = blockSize;
+        return this;
+    }
+
+    public boolean directIo() {
+        return directIo;
+    }
+
+    /**
+     * Opens the storage files with O_DIRECT, so the blocks bypass the page cache of the operating system
+     * and the cache of the pages in memory is the only copy of them. The file I/O is aligned to the block
+     * size of the file store through aligned direct buffers, writes that only cover part of an aligned block,
+     * like those of the compressed slots when the file store blocks are bigger than the slots, read the
+     * rest of the block first. It can be used with any format.
+     *
+     * @param directIo true to bypass the page cache.
+     * @return this object.
+     */
+    public StorageOptions directIo(boolean directIo) {
+        this.directIo = directIo;
+        return this;
+    }
+}
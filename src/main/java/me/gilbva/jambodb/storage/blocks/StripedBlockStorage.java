@@ -0,0 +1,234 @@
+package me.gilbva.jambodb.storage.blocks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Block storage that stripes its blocks across several storages, usually files on different devices,
+ * block i is stored in the stripe (i - 1) % n as its block (i - 1) / n + 1, so consecutive blocks are
+ * spread over all the stripes. Every stripe is a complete storage of the same format with its own
+ * channel, the header of the first stripe holds the header of the striped storage, and the headers of
+ * the other stripes record the id of the set, their position and the amount of stripes, so stripes of
+ * other sets or given in a different order are detected when the storage is opened.
+ * <p>
+ * Batch writes write the blocks of every stripe in parallel on the given executor, and the blocks of
+ * a stripe are written in the given order.
+ */
+class StripedBlockStorage implements BlockStorage {
+    private static final int MAGIC = 0x4A425354;
+
+    private static final long MAX_COUNT = 0xFFFFFFFFL;
+
+    private final List<BlockStorage> stripes;
+
+    private StripedBlockStorage(List<BlockStorage> stripes) {
+        this.stripes = stripes;
+    }
+
+    static StripedBlockStorage create(List<Path> files, StorageOptions opts) throws IOException {
+        long setId = new SecureRandom().nextLong();
+        List<BlockStorage> stripes = new ArrayList<>();
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                BlockStorage stripe = BlockStorage.create(files.get(i), opts);
+                stripes.add(stripe);
+                if(i > 0) {
+                    ByteBuffer head = ByteBuffer.allocate(HEAD_SIZE);
+                    head.putInt(MAGIC).putLong(setId).putInt(i).putInt(files.size());
+                    stripe.writeHead(head);
+                }
+            }
+        }
+        catch (IOException | RuntimeException ex) {
+            closeAll(stripes);
+            throw ex;
+        }
+        return new StripedBlockStorage(stripes);
+    }
+
+    static StripedBlockStorage open(List<Path> files, SecurityOptions opts, boolean directIo) throws IOException {
+        List<BlockStorage> stripes = new ArrayList<>();
+        try {
+            long setId = 0;
+            for (int i = 0; i < files.size(); i++) {
+                BlockStorage stripe = BlockStorage.open(files.get(i), opts, directIo);
+                stripes.add(stripe);
+                if(stripe.blockSize() != stripes.get(0).blockSize()) {
+                    throw new IOException("the stripes have different block sizes");
+                }
+                if(i == 0) {
+                    continue;
+                }
+
+                ByteBuffer head = ByteBuffer.allocate(HEAD_SIZE);
+                stripe.readHead(head);
+                if(head.getInt() != MAGIC) {
+                    throw new IOException("invalid stripe " + files.get(i));
+                }
+                long id = head.getLong();
+                if(i == 1) {
+                    setId = id;
+                }
+                if(id != setId || head.getInt() != i || head.getInt() != files.size()) {
+                    throw new IOException("invalid stripe " + files.get(i));
+                }
+            }
+            checkCounts(stripes);
+        }
+        catch (IOException | RuntimeException ex) {
+            closeAll(stripes);
+            throw ex;
+        }
+        return new StripedBlockStorage(stripes);
+    }
+
+    /**
+     * Blocks are created round robin, so no stripe can have more blocks than the previous one,
+     * and no stripe can have less than one block less than the first one.
+     */
+    private static void checkCounts(List<BlockStorage> stripes) throws IOException {
+        long first = stripes.get(0).blockCount();
+        long previous = first;
+        for (BlockStorage stripe : stripes) {
+            long count = stripe.blockCount();
+            if(count > previous || count < first - 1) {
+                throw new IOException("the stripes are not consistent");
+            }
+            previous = count;
+        }
+    }
+
+    private static void closeAll(List<BlockStorage> stripes) {
+        for (BlockStorage stripe : stripes) {
+            try {
+                stripe.close();
+            }
+            catch (IOException ignored) {
+            }
+        }
+    }
+
+    @Override
+    public int blockSize() {
+        return stripes.get(0).blockSize();
+    }
+
+    @Override
+    public int count() {
+        long count = 0;
+        for (BlockStorage stripe : stripes) {
+            count += stripe.blockCount();
+        }
+        return (int) Math.min(count, MAX_COUNT);
+    }
+
+    @Override
+    public int increase() throws IOException {
+        long count = Integer.toUnsignedLong(count());
+        if(count == MAX_COUNT) {
+            throw new IOException("the storage is full");
+        }
+        stripes.get((int) (count % stripes.size())).increase();
+        return (int) count;
+    }
+
+    @Override
+    public void readHead(ByteBuffer data) throws IOException {
+        stripes.get(0).readHead(data);
+    }
+
+    @Override
+    public void writeHead(ByteBuffer data) throws IOException {
+        stripes.get(0).writeHead(data);
+    }
+
+    @Override
+    public void read(int id, ByteBuffer data) throws IOException {
+        checkId(id);
+        long index = Integer.toUnsignedLong(id) - 1;
+        stripes.get(stripe(index)).read(localId(index), data);
+    }
+
+    @Override
+    public void write(int id, ByteBuffer data) throws IOException {
+        checkId(id);
+        long index = Integer.toUnsignedLong(id) - 1;
+        stripes.get(stripe(index)).write(localId(index), data);
+    }
+
+    /**
+     * Splits the blocks by stripe and writes the blocks of every stripe in parallel, the blocks
+     * of each stripe are transformed and written on a single thread.
+     */
+    @Override
+    public void write(int[] ids, ByteBuffer[] data, Executor executor) throws IOException {
+        int count = stripes.size();
+        int[] sizes = new int[count];
+        for (int id : ids) {
+            checkId(id);
+            sizes[stripe(Integer.toUnsignedLong(id) - 1)]++;
+        }
+
+        int[][] stripeIds = new int[count][];
+        ByteBuffer[][] stripeData = new ByteBuffer[count][];
+        for (int i = 0; i < count; i++) {
+            stripeIds[i] = new int[sizes[i]];
+            stripeData[i] = new ByteBuffer[sizes[i]];
+            sizes[i] = 0;
+        }
+        for (int i = 0; i < ids.length; i++) {
+            long index = Integer.toUnsignedLong(ids[i]) - 1;
+            int stripe = stripe(index);
+            stripeIds[stripe][sizes[stripe]] = localId(index);
+            stripeData[stripe][sizes[stripe]++] = data[i];
+        }
+
+        ParallelTasks.run(count, executor, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                stripes.get(i).write(stripeIds[i], stripeData[i], null);
+            }
+        });
+    }
+
+    @Override
+    public void force() throws IOException {
+        for (BlockStorage stripe : stripes) {
+            stripe.force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException error = null;
+        for (BlockStorage stripe : stripes) {
+            try {
+                stripe.close();
+            }
+            catch (IOException ex) {
+                error = ex;
+            }
+        }
+        if(error != null) {
+            throw error;
+        }
+    }
+
+    private void checkId(int id) {
+        if(id == 0 || Integer.compareUnsigned(id, count()) > 0) {
+            throw new IllegalArgumentException("invalid block id " + id);
+        }
+    }
+
+    private int stripe(long index) {
+        return (int) (index % stripes.size());
+    }
+
+    private int localId(long index) {
+        return (int) (index / stripes.size() + 1);
+    }
+}
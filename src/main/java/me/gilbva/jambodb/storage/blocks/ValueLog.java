@@ -0,0 +1,414 @@
+package me.gilbva.jambodb.storage.blocks;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This class represents an append-only log of values that lives next to a block storage file.
+ * The log is split in segment files, values are always appended to the last segment (the head)
+ * and are referenced by a pointer that packs the number of the segment and the offset of the value
+ * within it. Every record holds the length of the value, the value, the length of its key and the key,
+ * so the records of a segment can be scanned and matched against the index by their keys.
+ * Released values are only accounted as garbage, the space is reclaimed by relocating the
+ * live values of an old segment to the head and then dropping the whole segment file.
+ * The list of segments and their garbage is kept in a small manifest file that is rewritten on sync.
+ */
+public class ValueLog implements Closeable {
+    /**
+     * Receives the records of a segment scanned with {@link #scan(int, RecordVisitor)}.
+     */
+    @FunctionalInterface
+    public interface RecordVisitor {
+        /**
+         * Visits a record of the segment.
+         *
+         * @param pointer the pointer to the record.
+         * @param length the length of the value of the record.
+         * @param key the key stored with the value.
+         * @throws IOException if any I/O error occurs handling the record.
+         */
+        void visit(long pointer, int length, ByteBuffer key) throws IOException;
+    }
+
+    public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+    private static final byte[] TITLE = "JamboVLog".getBytes(StandardCharsets.UTF_8);
+
+    private static final short VERSION = 1;
+
+    private static final int SEGMENT_HEAD_SIZE = 16;
+
+    private static final int OFFSET_BITS = 40;
+
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+
+    private static class Segment {
+        final int number;
+        final FileChannel channel;
+        long size;
+        long garbage;
+
+        Segment(int number, FileChannel channel, long size) {
+            this.number = number;
+            this.channel = channel;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Creates a new empty value log at the given path, any previous log at the same path is overwritten.
+     *
+     * @param path the path of the manifest file, segments are stored next to it.
+     * @param segmentSize the size at which the head segment is sealed and a new one is started.
+     * @return the new value log.
+     * @throws IOException if any I/O error occurs creating the files.
+     */
+    public static ValueLog create(Path path, long segmentSize) throws IOException {
+        var log = new ValueLog(path, segmentSize);
+        log.startSegment(1);
+        log.writeManifest();
+        return log;
+    }
+
+    /**
+     * Opens the value log whose manifest is at the given path.
+     *
+     * @param path the path of the manifest file.
+     * @return the opened value log.
+     * @throws IOException if the manifest is invalid or any I/O error occurs.
+     */
+    public static ValueLog open(Path path) throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+        ByteBuffer manifest = ByteBuffer.wrap(bytes);
+
+        byte[] title = new byte[TITLE.length];
+        manifest.get(title);
+        if(!Arrays.equals(title, TITLE)) {
+            throw new IOException("invalid value log");
+        }
+        if(manifest.getShort() != VERSION) {
+            throw new IOException("invalid value log version");
+        }
+
+        var log = new ValueLog(path, manifest.getLong());
+        int count = manifest.getInt();
+        for (int i = 0; i < count; i++) {
+            int number = manifest.getInt();
+            long garbage = manifest.getLong();
+            var channel = FileChannel.open(log.segmentPath(number), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            var segment = new Segment(number, channel, channel.size());
+            segment.garbage = garbage;
+            log.segments.put(number, segment);
+        }
+        if(log.segments.isEmpty()) {
+            throw new IOException("invalid value log, no segments found");
+        }
+        return log;
+    }
+
+    /**
+     * Gets the number of the segment referenced by the given pointer.
+     *
+     * @param pointer a pointer returned by append.
+     * @return the number of the segment holding the value.
+     */
+    public static int segment(long pointer) {
+        return (int) (pointer >>> OFFSET_BITS);
+    }
+
+    private final Path path;
+
+    private final long segmentSize;
+
+    private final TreeMap<Integer, Segment> segments;
+
+    private final List<Segment> dropped;
+
+    private ValueLog(Path path, long segmentSize) {
+        this.path = path;
+        this.segmentSize = segmentSize;
+        this.segments = new TreeMap<>();
+        this.dropped = new ArrayList<>();
+    }
+
+    /**
+     * Appends the given value to the head of the log, along with the key it is stored under.
+     *
+     * @param data the bytes of the value, from its position to its limit.
+     * @param key the serialized key of the value, from its position to its limit.
+     * @return the pointer to the stored value.
+     * @throws IOException if any I/O error occurs writing the value.
+     */
+    public long append(ByteBuffer data, ByteBuffer key) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(8 + data.remaining() + key.remaining());
+        record.putInt(data.remaining());
+        record.put(data);
+        record.putInt(key.remaining());
+        record.put(key);
+        record.flip();
+        return append(record);
+    }
+
+    private long append(ByteBuffer record) throws IOException {
+        var head = segments.lastEntry().getValue();
+        if(head.size >= segmentSize) {
+            head = startSegment(head.number + 1);
+        }
+
+        long offset = head.size;
+        while (record.hasRemaining()) {
+            head.channel.write(record, offset + record.position());
+        }
+        head.size += record.limit();
+        return ((long) head.number << OFFSET_BITS) | offset;
+    }
+
+    /**
+     * Reads the value referenced by the given pointer.
+     *
+     * @param pointer the pointer returned by append.
+     * @param length the length of the value.
+     * @return a buffer holding the value.
+     * @throws IOException if any I/O error occurs or the pointer is invalid.
+     */
+    public ByteBuffer read(long pointer, int length) throws IOException {
+        var segment = segments.get(segment(pointer));
+        if(segment == null) {
+            throw new IOException("invalid value pointer " + pointer);
+        }
+
+        ByteBuffer data = ByteBuffer.allocate(length);
+        read(segment, data, (pointer & OFFSET_MASK) + 4);
+        return data;
+    }
+
+    /**
+     * Visits every record of the given segment, live or not, in the order they were appended.
+     *
+     * @param number the number of the segment to scan.
+     * @param visitor the visitor of the records.
+     * @throws IOException if any I/O error occurs reading the segment, or the segment does not exist.
+     */
+    public void scan(int number, RecordVisitor visitor) throws IOException {
+        var segment = segments.get(number);
+        if(segment == null) {
+            throw new IOException("invalid value log segment " + number);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(4);
+        long offset = SEGMENT_HEAD_SIZE;
+        while (offset < segment.size) {
+            int length = readInt(segment, header, offset);
+            ByteBuffer key = ByteBuffer.allocate(readInt(segment, header, offset + 4 + length));
+            read(segment, key, offset + 8 + length);
+            visitor.visit(((long) number << OFFSET_BITS) | offset, length, key);
+            offset += 8 + length + key.capacity();
+        }
+    }
+
+    /**
+     * Marks the value referenced by the given pointer as garbage.
+     *
+     * @param pointer the pointer returned by append.
+     * @param length the length of the value.
+     * @throws IOException if any I/O error occurs reading the length of the key of the record.
+     */
+    public void release(long pointer, int length) throws IOException {
+        var segment = segments.get(segment(pointer));
+        if(segment != null) {
+            long offset = pointer & OFFSET_MASK;
+            segment.garbage += 8 + length + readInt(segment, ByteBuffer.allocate(4), offset + 4 + length);
+        }
+    }
+
+    /**
+     * Copies the record referenced by the given pointer, value and key, to the head of the log.
+     *
+     * @param pointer the pointer returned by append.
+     * @param length the length of the value.
+     * @return the pointer to the new copy of the value.
+     * @throws IOException if any I/O error occurs.
+     */
+    public long relocate(long pointer, int length) throws IOException {
+        var segment = segments.get(segment(pointer));
+        if(segment == null) {
+            throw new IOException("invalid value pointer " + pointer);
+        }
+
+        long offset = pointer & OFFSET_MASK;
+        int keyLength = readInt(segment, ByteBuffer.allocate(4), offset + 4 + length);
+        ByteBuffer record = ByteBuffer.allocate(8 + length + keyLength);
+        read(segment, record, offset);
+        return append(record);
+    }
+
+    /**
+     * Gets the oldest segment whose garbage is at least the given fraction of its size,
+     * the head segment is never returned since it is still being appended to.
+     *
+     * @param ratio the minimum fraction of garbage.
+     * @return the number of the segment, or -1 if no segment qualifies.
+     */
+    public int collectable(double ratio) {
+        for (var segment : segments.values()) {
+            if(segment == segments.lastEntry().getValue()) {
+                break;
+            }
+            long data = segment.size - SEGMENT_HEAD_SIZE;
+            if(data <= 0 || segment.garbage >= data * ratio) {
+                return segment.number;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Seals the head segment, so every existing value becomes collectable.
+     *
+     * @throws IOException if any I/O error occurs creating the new head.
+     */
+    public void seal() throws IOException {
+        var head = segments.lastEntry().getValue();
+        if(head.size > SEGMENT_HEAD_SIZE) {
+            startSegment(head.number + 1);
+        }
+    }
+
+    /**
+     * Gets the number of the oldest segment of the log.
+     *
+     * @return the number of the oldest segment.
+     */
+    public int oldest() {
+        return segments.firstKey();
+    }
+
+    /**
+     * Removes the given segment from the log, its file is deleted on the next sync.
+     * This must only be called once every live value has been relocated out of the segment.
+     *
+     * @param number the number of the segment to drop.
+     */
+    public void drop(int number) {
+        if(number == segments.lastKey()) {
+            throw new IllegalArgumentException("the head segment cannot be dropped");
+        }
+        var segment = segments.remove(number);
+        if(segment != null) {
+            dropped.add(segment);
+        }
+    }
+
+    /**
+     * Forces the appended values to disk, it must be called before the blocks referencing them are written.
+     *
+     * @throws IOException if any I/O error occurs.
+     */
+    public void force() throws IOException {
+        for (var segment : segments.values()) {
+            segment.channel.force(false);
+        }
+    }
+
+    /**
+     * Forces the appended values to disk, rewrites the manifest and deletes the dropped segments, the
+     * blocks that referenced the dropped segments must have been forced to disk before.
+     *
+     * @throws IOException if any I/O error occurs.
+     */
+    public void sync() throws IOException {
+        force();
+        writeManifest();
+        for (var segment : dropped) {
+            segment.channel.close();
+            Files.deleteIfExists(segmentPath(segment.number));
+        }
+        dropped.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (var segment : segments.values()) {
+            segment.channel.close();
+        }
+        for (var segment : dropped) {
+            segment.channel.close();
+        }
+    }
+
+    private int readInt(Segment segment, ByteBuffer buffer, long position) throws IOException {
+        buffer.clear();
+        read(segment, buffer, position);
+        return buffer.getInt();
+    }
+
+    /**
+     * Reads the given buffer fully from the given position of the segment and flips it.
+     */
+    private void read(Segment segment, ByteBuffer data, long position) throws IOException {
+        while (data.hasRemaining()) {
+            if(segment.channel.read(data, position + data.position()) < 0) {
+                throw new IOException("unexpected end of value log segment " + segment.number);
+            }
+        }
+        data.flip();
+    }
+
+    private Segment startSegment(int number) throws IOException {
+        var channel = FileChannel.open(segmentPath(number),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+
+        ByteBuffer head = ByteBuffer.allocate(SEGMENT_HEAD_SIZE);
+        head.put(TITLE);
+        head.putShort(VERSION);
+        head.flip();
+        while (head.hasRemaining()) {
+            channel.write(head, head.position());
+        }
+
+        var segment = new Segment(number, channel, SEGMENT_HEAD_SIZE);
+        segments.put(number, segment);
+        return segment;
+    }
+
+    private void writeManifest() throws IOException {
+        ByteBuffer manifest = ByteBuffer.allocate(TITLE.length + 2 + 8 + 4 + segments.size() * 12);
+        manifest.put(TITLE);
+        manifest.putShort(VERSION);
+        manifest.putLong(segmentSize);
+        manifest.putInt(segments.size());
+        for (Map.Entry<Integer, Segment> entry : segments.entrySet()) {
+            manifest.putInt(entry.getKey());
+            manifest.putLong(entry.getValue().garbage);
+        }
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        manifest.flip();
+        try(var channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (manifest.hasRemaining()) {
+                channel.write(manifest);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path segmentPath(int number) {
+        return path.resolveSibling(path.getFileName() + "." + number);
+    }
+}
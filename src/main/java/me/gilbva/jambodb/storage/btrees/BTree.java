@@ -82,7 +82,7 @@ public final class BTree<K extends Comparable<K>, V> {
          * false otherwise.
          */
         public boolean lesserThan(K key) {
-            return key().compareTo(key) < 0;
+            return page.compare(index, key) < 0;
         }
 
         /**
@@ -94,7 +94,7 @@ public final class BTree<K extends Comparable<K>, V> {
          * false otherwise.
          */
         public boolean greaterThan(K key) {
-            return key().compareTo(key) > 0;
+            return page.compare(index, key) > 0;
         }
     }
 
@@ -140,7 +140,7 @@ public final class BTree<K extends Comparable<K>, V> {
         this.pager = pager;
         this.index = index;
         this.root = pager.root(index);
-        if (this.root <= 0) {
+        if (this.root == 0) {
             this.root = pager.create(true).id();
             pager.root(index, root);
         }
@@ -172,6 +172,33 @@ public final class BTree<K extends Comparable<K>, V> {
         return null;
     }
 
+    /**
+     * Searches the tree for the given key and passes the serialized form of its value to the given
+     * reader without deserializing or copying it, the page holding the value is pinned in the pager
+     * while the reader runs so the buffer stays valid, the tree must not be modified meanwhile.
+     *
+     * @param key    The key to look for in the tree.
+     * @param reader The callback that consumes the value.
+     * @param <R>    The type of the result produced by the reader.
+     * @return The result of the reader or null if the key does not exist.
+     * @throws IOException Thrown by the underlying storage or by the reader.
+     */
+    public <R> R view(K key, ValueReader<R> reader) throws IOException {
+        var result = lookup(key, null);
+        if (!result.found) {
+            return null;
+        }
+
+        int id = result.page.id();
+        pager.pin(id);
+        try {
+            // the page is fetched again since the lookup may have let it go before it was pinned
+            return reader.read(pager.page(id).valueBuffer(result.index));
+        } finally {
+            pager.unpin(id);
+        }
+    }
+
     /**
      * Determines if a particular key exists in the tree,
      * by searching from top to bottom.
@@ -218,16 +245,73 @@ public final class BTree<K extends Comparable<K>, V> {
         var ancestors = new LinkedList<Node<K, V>>();
         var result = lookup(key, ancestors);
         if (result.found) {
-            deletePlace(result.page, result.index);
-
-            if (result.page.isHalf()) {
-                fill(result.page, ancestors);
+            if (!result.page.isLeaf()) {
+                var replacement = replacement(result.page, result.index, ancestors);
+                if (replacement != null) {
+                    // the replacement leaves its leaf first, since rebalancing the tree may move the
+                    // removed node, which is then looked up again to be overwritten
+                    K replacementKey = replacement.key();
+                    V replacementValue = replacement.value();
+                    removePlace(replacement.page, replacement.index, ancestors);
+
+                    ancestors.clear();
+                    result = lookup(key, ancestors);
+                    result.page.key(result.index, replacementKey);
+                    result.page.value(result.index, replacementValue);
+                    if (result.page.isFull()) {
+                        split(result.page, ancestors);
+                    }
+                    return;
+                }
             }
+            removePlace(result.page, result.index, ancestors);
             return;
         }
         throw new IOException("element not found");
     }
 
+    /**
+     * Removes the given node and fills its page if it becomes half empty.
+     *
+     * @param page      the page holding the node to remove.
+     * @param index     the index of the node to remove.
+     * @param ancestors the ancestors of the given page.
+     * @throws IOException thrown by the Pager interface if any I/O errors occur.
+     */
+    private void removePlace(BTreePage<K, V> page, int index, Deque<Node<K, V>> ancestors) throws IOException {
+        deletePlace(page, index);
+        if (page.isHalf()) {
+            fill(page, ancestors);
+        }
+    }
+
+    /**
+     * Finds the node that takes the place of the given node of a non-leaf page when it is removed, the
+     * last node of its left subtree, or the first node of its right subtree if that leaf is empty. The
+     * ancestors are extended with the path to the replacement.
+     *
+     * @param page      the non-leaf page holding the node to remove.
+     * @param index     the index of the node to remove.
+     * @param ancestors the ancestors of the given page.
+     * @return the replacement node, or null if the leaves next to the node are both empty.
+     * @throws IOException thrown by the Pager interface if any I/O errors occur.
+     */
+    private Node<K, V> replacement(BTreePage<K, V> page, int index, Deque<Node<K, V>> ancestors) throws IOException {
+        var path = new LinkedList<>(ancestors);
+        path.addFirst(new Node<>(page, index));
+        var node = last(getChildPage(page, index), path);
+        if (node == null) {
+            path = new LinkedList<>(ancestors);
+            path.addFirst(new Node<>(page, index + 1));
+            node = first(getChildPage(page, index + 1), path);
+        }
+        if (node != null) {
+            ancestors.clear();
+            ancestors.addAll(path);
+        }
+        return node;
+    }
+
     /**
      * Returns a range of entries from the given start key (inclusive) to the given
      * end key (also inclusive)
@@ -259,11 +343,8 @@ public final class BTree<K extends Comparable<K>, V> {
                 var entry = current;
                 try {
                     current = BTree.this.next(current, ancestors);
-                    if (current != null) {
-                        var key = current.key();
-                        if (to != null && key.compareTo(to) > 0) {
-                            current = null;
-                        }
+                    if (current != null && to != null && current.greaterThan(to)) {
+                        current = null;
                     }
                 } catch (IOException e) {
                     throw new IllegalStateException(e.getMessage(), e);
@@ -471,7 +552,8 @@ public final class BTree<K extends Comparable<K>, V> {
     }
 
     /**
-     * Performs a binary search for the specified key in the given page.
+     * Performs a binary search for the specified key in the given page, the keys of
+     * the page are compared in place through BTreePage.compare so no key is materialized.
      *
      * @param page the page to search the given key.
      * @param key  the key to search for.
@@ -485,12 +567,12 @@ public final class BTree<K extends Comparable<K>, V> {
         while (p <= r) {
             int q = p + (r - p) / 2;
 
-            var currentKey = page.key(q);
-            if (Objects.equals(currentKey, key)) {
+            int cmp = page.compare(q, key);
+            if (cmp == 0) {
                 return new Result<>(page, q, true);
             }
 
-            if (key.compareTo(currentKey) <= 0) {
+            if (cmp > 0) {
                 r = q - 1;
             } else {
                 p = q + 1;
@@ -699,19 +781,7 @@ public final class BTree<K extends Comparable<K>, V> {
      * @param index  a valid index at the source page signaling the first element that will be moved.
      */
     void move(BTreePage<K, V> source, BTreePage<K, V> target, int index) {
-        int prevSize = target.size();
-        int moveSize = source.size() - index;
-        target.size(target.size() + moveSize);
-        for (int i = 0; i <= moveSize; i++) {
-            if (i < moveSize) {
-                target.key(prevSize + i, source.key(index + i));
-                target.value(prevSize + i, source.value(index + i));
-            }
-            if (!target.isLeaf()) {
-                target.child(prevSize + i, source.child(index + i));
-            }
-        }
-        source.size(source.size() - moveSize);
+        target.moveCells(source, index, source.size() - index);
     }
 
     /**
@@ -781,15 +851,7 @@ public final class BTree<K extends Comparable<K>, V> {
      * @param index The index at which the empty spot will be inserted.
      */
     void insertPlace(BTreePage<K, V> page, int index) {
-        page.size(page.size() + 1);
-        for (int i = page.size(); i > index; i--) {
-            if (i < page.size()) {
-                page.swap(i, i - 1);
-            }
-            if (!page.isLeaf()) {
-                page.child(i, page.child(i - 1));
-            }
-        }
+        page.shift(index, 1);
     }
 
     /**
@@ -800,15 +862,7 @@ public final class BTree<K extends Comparable<K>, V> {
      * @param index The index to be deleted from the given page.
      */
     void deletePlace(BTreePage<K, V> page, int index) {
-        for (int i = index; i < page.size(); i++) {
-            if (i < page.size() - 1) {
-                page.swap(i, i + 1);
-            }
-            if (!page.isLeaf()) {
-                page.child(i, page.child(i + 1));
-            }
-        }
-        page.size(page.size() - 1);
+        page.shift(index + 1, -1);
     }
 
     /**
@@ -1,5 +1,7 @@
 package me.gilbva.jambodb.storage.btrees;
 
+import java.nio.ByteBuffer;
+
 /**
  * This interface represents a page of a BTree.
  *
@@ -72,6 +74,20 @@ public interface BTreePage<K, V> {
      */
     void key(int index, K data);
 
+    /**
+     * Compares the key of the element at the given index against the given key,
+     * implementations should override this method to avoid materializing the stored key.
+     *
+     * @param index the index of the element to compare.
+     * @param key the key to compare against, it must implement Comparable.
+     * @return a negative integer, zero, or a positive integer as the key of the element
+     * is less than, equal to, or greater than the given key.
+     */
+    @SuppressWarnings("unchecked")
+    default int compare(int index, K key) {
+        return ((Comparable<K>) key(index)).compareTo(key);
+    }
+
     /**
      * Gets the value for the element at the given index.
      *
@@ -80,6 +96,17 @@ public interface BTreePage<K, V> {
      */
     V value(int index);
 
+    /**
+     * Gets a read-only view over the serialized form of the value at the given index, the view may
+     * share memory with the page so it is only valid while the page is pinned and not modified.
+     *
+     * @param index the index of the element to look for.
+     * @return a read-only buffer holding the serialized value, from its position to its limit.
+     */
+    default ByteBuffer valueBuffer(int index) {
+        throw new UnsupportedOperationException("this page does not expose its values as buffers");
+    }
+
     /**
      * Swaps the ith element with the jth element.
      *
@@ -88,6 +115,71 @@ public interface BTreePage<K, V> {
      */
     void swap(int i, int j);
 
+    /**
+     * Moves the elements from the given index to the end of the page by the given amount of places,
+     * along with their children. A positive delta grows the page and opens delta empty elements at
+     * the index, the children at the opened places keep their previous ids. A negative delta removes
+     * the -delta elements before the index along with their children, and shrinks the page.
+     * Implementations should override this method to move the elements in bulk.
+     *
+     * @param index the index of the first element to move.
+     * @param delta the amount of places to move the elements.
+     */
+    default void shift(int index, int delta) {
+        if (delta > 0) {
+            size(size() + delta);
+            for (int i = size() - 1; i >= index + delta; i--) {
+                swap(i, i - delta);
+            }
+            if (!isLeaf()) {
+                for (int i = size(); i >= index + delta; i--) {
+                    child(i, child(i - delta));
+                }
+            }
+        }
+        else if (delta < 0) {
+            for (int i = index; i < size(); i++) {
+                swap(i + delta, i);
+            }
+            if (!isLeaf()) {
+                for (int i = index; i <= size(); i++) {
+                    child(i + delta, child(i));
+                }
+            }
+            size(size() + delta);
+        }
+    }
+
+    /**
+     * Moves the given amount of elements of the source page, starting at the given index, to the end
+     * of this page. The children from the index to the index plus count are copied too, the first one
+     * replaces the last child of this page. The elements are removed from the source page by shifting
+     * the following elements to the index, the source page keeps its child at the index.
+     * Implementations should override this method to copy the serialized elements without
+     * materializing them.
+     *
+     * @param source the page holding the elements to move.
+     * @param from the index of the first element to move.
+     * @param count the amount of elements to move.
+     */
+    default void moveCells(BTreePage<K, V> source, int from, int count) {
+        int prevSize = size();
+        size(prevSize + count);
+        for (int i = 0; i <= count; i++) {
+            if (i < count) {
+                key(prevSize + i, source.key(from + i));
+                value(prevSize + i, source.value(from + i));
+            }
+            if (!isLeaf()) {
+                child(prevSize + i, source.child(from + i));
+            }
+        }
+        if (!source.isLeaf()) {
+            source.child(from + count, source.child(from));
+        }
+        source.shift(from + count, -count);
+    }
+
     /**
      * Sets the value for the element at the given index.
      *
@@ -0,0 +1,468 @@
+package me.gilbva.jambodb.storage.btrees;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This class represents a BTree specialized for primitive long keys and values, it
+ * follows the same algorithms as the generic BTree but nothing is boxed and the lookup
+ * paths allocate no objects: the ancestors of a page are tracked in arrays owned by the
+ * tree instead of a list of nodes, which also means instances are not thread safe.
+ */
+public final class LongLongBTree {
+    /**
+     * This is the reference to the underlying page storage.
+     */
+    Pager<LongLongPage> pager;
+
+    /**
+     * A reference to the root page of the tree.
+     */
+    int root;
+
+    /**
+     * Index for the pager of this BTree
+     */
+    int index;
+
+    /**
+     * The pages visited from the root by the last put or remove.
+     */
+    LongLongPage[] pathPages;
+
+    /**
+     * The index of the child followed at each page visited by the last put or remove.
+     */
+    int[] pathIndexes;
+
+    /**
+     * The amount of ancestors currently held in the path.
+     */
+    int depth;
+
+    /**
+     * The constructor builds a LongLongBTree instance for the given page storage.
+     *
+     * @param pager The object responsible for storing the pages managed by this tree.
+     * @param index the index of the tree in the given pager.
+     * @throws IOException Thrown by the underlying storage.
+     */
+    public LongLongBTree(Pager<LongLongPage> pager, int index) throws IOException {
+        this.pager = pager;
+        this.index = index;
+        this.pathPages = new LongLongPage[16];
+        this.pathIndexes = new int[16];
+        this.root = pager.root(index);
+        if (this.root == 0) {
+            this.root = pager.create(true).id();
+            pager.root(index, root);
+        }
+    }
+
+    /**
+     * Gets the underlying pager for this BTree.
+     *
+     * @return the underlying pager.
+     */
+    public Pager<LongLongPage> getPager() {
+        return pager;
+    }
+
+    /**
+     * Searches the tree from top to bottom for the given key.
+     *
+     * @param key The key to look for in the tree.
+     * @param defaultValue the value to return if the key does not exist.
+     * @return The value associated with the key or the default value if it does not exist.
+     * @throws IOException Thrown by the underlying storage.
+     */
+    public long get(long key, long defaultValue) throws IOException {
+        var page = pager.page(root);
+        while (true) {
+            int result = page.search(key);
+            if (result >= 0) {
+                return page.value(result);
+            }
+            if (page.isLeaf()) {
+                return defaultValue;
+            }
+            page = pager.page(page.child(-result - 1));
+        }
+    }
+
+    /**
+     * Determines if a particular key exists in the tree, by searching from top to bottom.
+     *
+     * @param key the key to lookup.
+     * @return true if the key exists, false if the key does not exist.
+     * @throws IOException thrown by the Pager interface if any I/O errors occur.
+     */
+    public boolean exists(long key) throws IOException {
+        var page = pager.page(root);
+        while (true) {
+            int result = page.search(key);
+            if (result >= 0) {
+                return true;
+            }
+            if (page.isLeaf()) {
+                return false;
+            }
+            page = pager.page(page.child(-result - 1));
+        }
+    }
+
+    /**
+     * Sets the given key to the given value by inserting or updating it.
+     *
+     * @param key   the key to insert or update in the tree.
+     * @param value the value to be inserted or updated for the given key.
+     * @throws IOException thrown by the Pager interface if any I/O errors occur.
+     */
+    public void put(long key, long value) throws IOException {
+        depth = 0;
+        var page = pager.page(root);
+        while (true) {
+            int result = page.search(key);
+            if (result >= 0) {
+                page.value(result, value);
+                return;
+            }
+
+            int place = -result - 1;
+            if (page.isLeaf()) {
+                page.shift(place, 1);
+                page.key(place, key);
+                page.value(place, value);
+                if (page.isFull()) {
+                    split(page);
+                }
+                return;
+            }
+
+            push(page, place);
+            page = pager.page(page.child(place));
+        }
+    }
+
+    /**
+     * Removes the given key from the tree if it exists, a key found in a non-leaf page
+     * is replaced by its predecessor, which is then removed from its leaf page.
+     *
+     * @param key the key to be removed from the tree.
+     * @throws IOException thrown by the Pager interface if any I/O errors occur, or if the key does not exist.
+     */
+    public void remove(long key) throws IOException {
+        depth = 0;
+        var page = pager.page(root);
+        int result;
+        while ((result = page.search(key)) < 0) {
+            if (page.isLeaf()) {
+                throw new IOException("element not found");
+            }
+            push(page, -result - 1);
+            page = pager.page(page.child(-result - 1));
+        }
+
+        if (!page.isLeaf()) {
+            var found = page;
+            push(page, result);
+            page = pager.page(page.child(result));
+            while (!page.isLeaf()) {
+                push(page, page.size());
+                page = pager.page(page.child(page.size()));
+            }
+            found.key(result, page.key(page.size() - 1));
+            found.value(result, page.value(page.size() - 1));
+            result = page.size() - 1;
+        }
+
+        page.shift(result + 1, -1);
+        if (page.isHalf()) {
+            fill(page);
+        }
+    }
+
+    /**
+     * Returns a cursor over the entries from the given start key (inclusive) to the given
+     * end key (also inclusive), the cursor only allocates its own state once.
+     *
+     * @param from the starting key (inclusive) for the query, use Long.MIN_VALUE to start at the first key.
+     * @param to   the ending key (inclusive) for the query, use Long.MAX_VALUE to end at the last key.
+     * @return a cursor positioned before the first entry of the range.
+     * @throws IOException thrown by the Pager interface if any I/O errors occur.
+     */
+    public LongLongCursor query(long from, long to) throws IOException {
+        var cursor = new Cursor(to);
+        if (from <= to) {
+            cursor.seek(from);
+        }
+        return cursor;
+    }
+
+    /**
+     * Splits a page that has become full into two pages by creating a new page and moving half
+     * of the elements to the new page, the middle element is promoted to the parent page.
+     *
+     * @param source the page to be split, its ancestors must be held in the path.
+     * @throws IOException thrown by the Pager interface if any I/O errors occur.
+     */
+    void split(LongLongPage source) throws IOException {
+        LongLongPage parent;
+        int place;
+        if (depth == 0) {
+            parent = grow();
+            place = 0;
+        } else {
+            depth--;
+            parent = pathPages[depth];
+            place = pathIndexes[depth];
+        }
+
+        int mid = source.size() / 2;
+        var target = pager.create(source.isLeaf());
+        target.moveCells(source, mid + 1, source.size() - mid - 1);
+
+        parent.shift(place, 1);
+        parent.key(place, source.key(mid));
+        parent.value(place, source.value(mid));
+        source.size(mid);
+        parent.child(place, source.id());
+        parent.child(place + 1, target.id());
+
+        if (parent.isFull()) {
+            split(parent);
+        }
+    }
+
+    /**
+     * Fills a page by borrowing from or merging it with either page to its side.
+     *
+     * @param target the page to fill in, its ancestors must be held in the path.
+     * @throws IOException thrown by the Pager interface if any I/O errors occur.
+     */
+    void fill(LongLongPage target) throws IOException {
+        if (depth == 0) {
+            shrink();
+            return;
+        }
+
+        depth--;
+        var parent = pathPages[depth];
+        int place = pathIndexes[depth];
+
+        LongLongPage left = place > 0 ? pager.page(parent.child(place - 1)) : null;
+        if (left != null && left.canBorrow()) {
+            rotateRight(parent, place - 1, left, target);
+            return;
+        }
+
+        LongLongPage right = place < parent.size() ? pager.page(parent.child(place + 1)) : null;
+        if (right != null && right.canBorrow()) {
+            rotateLeft(parent, place, right, target);
+            return;
+        }
+
+        if (left != null) {
+            merge(parent, place - 1, target, left);
+        } else if (right != null) {
+            merge(parent, place, right, target);
+        } else {
+            throw new IllegalStateException("Could not fill the node.");
+        }
+
+        if (parent.isHalf()) {
+            fill(parent);
+        }
+    }
+
+    /**
+     * Grows the tree by adding a new root page.
+     *
+     * @return the new root page, which is the parent of the previous root.
+     * @throws IOException thrown by the Pager interface if any I/O errors occur.
+     */
+    LongLongPage grow() throws IOException {
+        var newRoot = pager.create(false);
+        newRoot.child(0, root);
+        root = newRoot.id();
+        pager.root(index, root);
+        return newRoot;
+    }
+
+    /**
+     * Shrinks the tree by removing the root page if it has become empty.
+     *
+     * @throws IOException if any I/O error occurs while removing the root page.
+     */
+    void shrink() throws IOException {
+        var oldRoot = pager.page(root);
+        if (oldRoot.size() == 0 && !oldRoot.isLeaf()) {
+            root = oldRoot.child(0);
+            pager.root(index, root);
+            pager.remove(oldRoot.id());
+        }
+    }
+
+    /**
+     * Merges two sibling pages by moving the parent element along with all the elements
+     * of the source page to the target page, the source page is removed from the pager.
+     *
+     * @param parent the parent page of both pages.
+     * @param place  the index of the parent element between both pages.
+     * @param source the page to the right of the parent element.
+     * @param target the page to the left of the parent element.
+     * @throws IOException if any I/O error occurs deleting the source page.
+     */
+    void merge(LongLongPage parent, int place, LongLongPage source, LongLongPage target) throws IOException {
+        int size = target.size();
+        target.size(size + 1);
+        target.key(size, parent.key(place));
+        target.value(size, parent.value(place));
+
+        parent.shift(place + 1, -1);
+        parent.child(place, target.id());
+
+        target.moveCells(source, 0, source.size());
+        pager.remove(source.id());
+    }
+
+    /**
+     * Performs a left rotation by inserting the parent element at the end of the target page
+     * and then moving the first element of the source page to the parent.
+     */
+    void rotateLeft(LongLongPage parent, int place, LongLongPage source, LongLongPage target) {
+        int size = target.size();
+        target.size(size + 1);
+        target.key(size, parent.key(place));
+        target.value(size, parent.value(place));
+        if (!target.isLeaf()) {
+            target.child(size + 1, source.child(0));
+        }
+
+        parent.key(place, source.key(0));
+        parent.value(place, source.value(0));
+        source.shift(1, -1);
+    }
+
+    /**
+     * Performs a right rotation by inserting the parent element at the beginning of the target page
+     * and then moving the last element of the source page to the parent.
+     */
+    void rotateRight(LongLongPage parent, int place, LongLongPage source, LongLongPage target) {
+        target.shift(0, 1);
+        target.key(0, parent.key(place));
+        target.value(0, parent.value(place));
+        if (!target.isLeaf()) {
+            target.child(0, source.child(source.size()));
+        }
+
+        int last = source.size() - 1;
+        parent.key(place, source.key(last));
+        parent.value(place, source.value(last));
+        source.size(last);
+    }
+
+    private void push(LongLongPage page, int place) {
+        if (depth == pathPages.length) {
+            pathPages = Arrays.copyOf(pathPages, depth * 2);
+            pathIndexes = Arrays.copyOf(pathIndexes, depth * 2);
+        }
+        pathPages[depth] = page;
+        pathIndexes[depth] = place;
+        depth++;
+    }
+
+    /**
+     * An in-order cursor over the tree, every frame of the stack holds a page and an index,
+     * for leaf pages the index is the next element to return, for non-leaf pages it is the
+     * child being visited, whose element is returned once the child is exhausted.
+     */
+    final class Cursor implements LongLongCursor {
+        private LongLongPage[] pages = new LongLongPage[16];
+
+        private int[] indexes = new int[16];
+
+        private int top = -1;
+
+        private final long to;
+
+        private long key;
+
+        private long value;
+
+        private boolean descend;
+
+        Cursor(long to) {
+            this.to = to;
+        }
+
+        void seek(long from) throws IOException {
+            var page = pager.page(root);
+            while (true) {
+                int result = page.search(from);
+                if (result >= 0 || page.isLeaf()) {
+                    push(page, result >= 0 ? result : -result - 1);
+                    return;
+                }
+                push(page, -result - 1);
+                page = pager.page(page.child(-result - 1));
+            }
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            if (descend) {
+                descend = false;
+                int child = ++indexes[top];
+                var page = pager.page(pages[top].child(child));
+                while (!page.isLeaf()) {
+                    push(page, 0);
+                    page = pager.page(page.child(0));
+                }
+                push(page, 0);
+            }
+
+            while (top >= 0) {
+                var page = pages[top];
+                int current = indexes[top];
+                if (current < page.size()) {
+                    key = page.key(current);
+                    value = page.value(current);
+                    if (page.isLeaf()) {
+                        indexes[top]++;
+                    } else {
+                        descend = true;
+                    }
+                    if (key > to) {
+                        top = -1;
+                        descend = false;
+                        return false;
+                    }
+                    return true;
+                }
+                top--;
+            }
+            return false;
+        }
+
+        @Override
+        public long key() {
+            return key;
+        }
+
+        @Override
+        public long value() {
+            return value;
+        }
+
+        private void push(LongLongPage page, int place) {
+            top++;
+            if (top == pages.length) {
+                pages = Arrays.copyOf(pages, top * 2);
+                indexes = Arrays.copyOf(indexes, top * 2);
+            }
+            pages[top] = page;
+            indexes[top] = place;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package me.gilbva.jambodb.storage.btrees;
+
+import java.io.IOException;
+
+/**
+ * A cursor over a range of entries of a LongLongBTree, the cursor starts before the
+ * first entry and exposes the key and value of the current entry as primitives.
+ */
+public interface LongLongCursor {
+    /**
+     * Moves the cursor to the next entry of the range.
+     *
+     * @return true if the cursor is positioned at an entry, false if the range is exhausted.
+     * @throws IOException thrown by the Pager interface if any I/O errors occur.
+     */
+    boolean next() throws IOException;
+
+    /**
+     * Gets the key of the current entry.
+     *
+     * @return the key of the entry the cursor is positioned at.
+     */
+    long key();
+
+    /**
+     * Gets the value of the current entry.
+     *
+     * @return the value of the entry the cursor is positioned at.
+     */
+    long value();
+}
@@ -0,0 +1,132 @@
+package me.gilbva.jambodb.storage.btrees;
+
+/**
+ * This interface represents a page of a LongLongBTree, keys and values are
+ * primitive longs so no element is ever boxed.
+ */
+public interface LongLongPage {
+    /**
+     * The numeric id of this page.
+     *
+     * @return an int value representing the id of this page.
+     */
+    int id();
+
+    /**
+     * Gets the current amount of elements present in this page.
+     *
+     * @return an int representing the amount of elements in this page.
+     */
+    int size();
+
+    /**
+     * Sets the current size of the page.
+     *
+     * @param value the size of the page, it must be less than its total capacity.
+     */
+    void size(int value);
+
+    /**
+     * Determines if this page is a leaf page or not.
+     *
+     * @return true if this page is a leaf page.
+     */
+    boolean isLeaf();
+
+    /**
+     * Determines if the page has reached its capacity for holding new elements.
+     *
+     * @return true the page is full, false otherwise.
+     */
+    boolean isFull();
+
+    /**
+     * Determines if the page has less than a quarter of its capacity.
+     *
+     * @return true the page is half empty, false otherwise.
+     */
+    boolean isHalf();
+
+    /**
+     * Determines if the page can borrow one element to a sibling page.
+     *
+     * @return true if at least one element can be borrowed, false otherwise.
+     */
+    boolean canBorrow();
+
+    /**
+     * Gets the key for the element at the given index.
+     *
+     * @param index the index of the element to look for.
+     * @return the key of the given element.
+     */
+    long key(int index);
+
+    /**
+     * Sets the key for the element at the given index.
+     *
+     * @param index the index of the element to set the key to.
+     * @param key the key of the given element.
+     */
+    void key(int index, long key);
+
+    /**
+     * Gets the value for the element at the given index.
+     *
+     * @param index the index of the element to look for.
+     * @return the value of the given element.
+     */
+    long value(int index);
+
+    /**
+     * Sets the value for the element at the given index.
+     *
+     * @param index the index of the element to set the value to.
+     * @param value the value of the given element.
+     */
+    void value(int index, long value);
+
+    /**
+     * Gets the id of the child page for the element at the given index.
+     *
+     * @param index the index of the element to look for.
+     * @return the id of the child page for the given element.
+     */
+    int child(int index);
+
+    /**
+     * Sets the id of the child page for the element at the given index.
+     *
+     * @param index the index of the element to look for.
+     * @param id the id of the child page for the given element.
+     */
+    void child(int index, int id);
+
+    /**
+     * Performs a binary search for the given key in this page.
+     *
+     * @param key the key to search for.
+     * @return the index of the key if found, otherwise (-(insertion point) - 1), where the
+     * insertion point is the index of the first key greater than the given key.
+     */
+    int search(long key);
+
+    /**
+     * Moves the elements from the given index to the end of the page by the given amount of places,
+     * along with their children, see {@link BTreePage#shift(int, int)}.
+     *
+     * @param index the index of the first element to move.
+     * @param delta the amount of places to move the elements.
+     */
+    void shift(int index, int delta);
+
+    /**
+     * Moves the given amount of elements of the source page, starting at the given index, to the end
+     * of this page along with their children, see {@link BTreePage#moveCells(BTreePage, int, int)}.
+     *
+     * @param source the page holding the elements to move.
+     * @param from the index of the first element to move.
+     * @param count the amount of elements to move.
+     */
+    void moveCells(LongLongPage source, int from, int count);
+}
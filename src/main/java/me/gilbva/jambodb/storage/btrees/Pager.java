@@ -53,6 +53,35 @@ public interface Pager<P> {
      */
     void remove(int id) throws IOException;
 
+    /**
+     * Pins the given page so it can't be evicted from memory until it is unpinned, this is
+     * required while holding views over the contents of the page. Pins are counted, so every
+     * call must be matched by a call to unpin. Pagers that never evict pages can ignore it.
+     *
+     * @param id the id of the page to pin.
+     * @throws IOException if any I/O exception occurs accessing the underlying external memory.
+     */
+    default void pin(int id) throws IOException {
+    }
+
+    /**
+     * Releases a pin previously acquired for the given page.
+     *
+     * @param id the id of the page to unpin.
+     */
+    default void unpin(int id) {
+    }
+
+    /**
+     * Hints that the pages with the given ids will be needed soon, so the pager can start loading
+     * them in the background. Pagers that load pages synchronously can ignore it.
+     *
+     * @param ids the ids of the pages.
+     * @throws IOException if any I/O exception occurs accessing the underlying external memory.
+     */
+    default void prefetch(int... ids) throws IOException {
+    }
+
     /**
      * Synchronizes the changes made to this repository to disk.
      *
@@ -39,4 +39,57 @@ public interface Serializer<T> {
      * @param value the value to write to the buffer.
      */
     void write(ByteBuffer buffer, T value);
+
+    /**
+     * writes the given value to the buffer at the current position and returns the amount of bytes written,
+     * callers that need the size of a value they are about to store should use this method instead of calling
+     * size(T) and then write, so the value is encoded a single time. serializers whose write method cannot
+     * produce the bytes straight into the buffer should override it.
+     *
+     * @param buffer the buffer to write the value to.
+     * @param value the value to write to the buffer.
+     * @return the amount of bytes written.
+     * @throws java.nio.BufferOverflowException if the value does not fit in the remaining bytes of the buffer.
+     */
+    default int encode(ByteBuffer buffer, T value) {
+        int start = buffer.position();
+        write(buffer, value);
+        return buffer.position() - start;
+    }
+
+    /**
+     * gets the amount of leading bytes of every serialized value that hold per value metadata, like its length.
+     * these bytes are kept in every cell when the keys of a page are prefix compressed, so size(ByteBuffer)
+     * must only depend on them. a negative value means that the values of this type cannot be prefix compressed.
+     *
+     * @return the size of the header of the serialized values, or -1 if prefix compression is not supported.
+     */
+    default int headerSize() {
+        return -1;
+    }
+
+    /**
+     * gets the width of the serialized values when they are fixed-width big-endian two's complement integers,
+     * like the ones written by ByteBuffer.putInt. pages can delta encode keys of such types against a base key.
+     *
+     * @return the size in bytes of every serialized value, or -1 if the values are not integers.
+     */
+    default int integerWidth() {
+        return -1;
+    }
+
+    /**
+     * compares the value stored at the current position in the buffer against the given value.
+     * the default implementation reads the stored value and uses its natural ordering, serializers
+     * should override it to compare the stored bytes directly without materializing a new object.
+     *
+     * @param buffer the buffer to read the stored value from.
+     * @param value the value to compare against, it must implement Comparable.
+     * @return a negative integer, zero, or a positive integer as the stored value is less than,
+     * equal to, or greater than the given value.
+     */
+    @SuppressWarnings("unchecked")
+    default int compare(ByteBuffer buffer, T value) {
+        return ((Comparable<T>) read(buffer)).compareTo(value);
+    }
 }
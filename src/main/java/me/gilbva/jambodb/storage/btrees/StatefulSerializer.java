@@ -0,0 +1,43 @@
+package me.gilbva.jambodb.storage.btrees;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This interface represents a serializer whose encoding depends on some state that must be stored
+ * along with the pages, like a dictionary. The pager loads the state when it is opened and stores it
+ * before the pages on every fsync, in its own blocks referenced by one of the root slots of the pager,
+ * so that slot must not be used by any tree. The state may only grow by appending bytes to it, which
+ * lets the pager rewrite just the blocks holding the new bytes. An instance holds the state of a single
+ * pager, so it must not be shared between pagers.
+ *
+ * @param <T> the type this serializer manages.
+ */
+public interface StatefulSerializer<T> extends Serializer<T> {
+    /**
+     * gets the index of the root slot of the pager where the state is stored.
+     *
+     * @return the index of the root slot.
+     */
+    int stateIndex();
+
+    /**
+     * gets the current size in bytes of the state, it is used to know if the state has changed.
+     *
+     * @return the amount of bytes of the state.
+     */
+    int stateSize();
+
+    /**
+     * gets the current state.
+     *
+     * @return a buffer holding the state from its position to its limit.
+     */
+    ByteBuffer state();
+
+    /**
+     * replaces the current state by the stored one, this is called once when the pager is opened.
+     *
+     * @param state the buffer holding the stored state from its position to its limit.
+     */
+    void loadState(ByteBuffer state);
+}
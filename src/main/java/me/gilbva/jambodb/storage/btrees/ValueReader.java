@@ -0,0 +1,22 @@
+package me.gilbva.jambodb.storage.btrees;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A callback that consumes the serialized form of a value while its page is pinned,
+ * see {@link BTree#view(Object, ValueReader)}.
+ *
+ * @param <R> the type of the result produced by the reader.
+ */
+@FunctionalInterface
+public interface ValueReader<R> {
+    /**
+     * Reads the given value, the buffer must not be used once this method returns.
+     *
+     * @param value a read-only buffer holding the serialized value between its position and its limit.
+     * @return the result of reading the value.
+     * @throws IOException if any I/O error occurs consuming the value.
+     */
+    R read(ByteBuffer value) throws IOException;
+}
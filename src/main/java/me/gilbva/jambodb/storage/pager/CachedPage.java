@@ -0,0 +1,28 @@
+package me.gilbva.jambodb.storage.pager;
+
+/**
+ * This interface represents a page that can be held by the LRUPagesCache.
+ */
+public interface CachedPage {
+    /**
+     * The numeric id of this page.
+     *
+     * @return an int value representing the id of this page.
+     */
+    int id();
+
+    /**
+     * Determines if the page has changes that have not been saved yet,
+     * modified pages are never evicted from the cache.
+     *
+     * @return true if the page has been modified.
+     */
+    boolean isModified();
+
+    /**
+     * Gets the weight of this page for the pages cache.
+     *
+     * @return the amount of cache slots this page takes.
+     */
+    int cacheWeight();
+}
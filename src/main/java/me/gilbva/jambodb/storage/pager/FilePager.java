@@ -1,16 +1,30 @@
 package me.gilbva.jambodb.storage.pager;
 
 import me.gilbva.jambodb.storage.blocks.BlockStorage;
+import me.gilbva.jambodb.storage.blocks.StorageOptions;
+import me.gilbva.jambodb.storage.blocks.ValueLog;
 import me.gilbva.jambodb.storage.btrees.BTreePage;
 import me.gilbva.jambodb.storage.btrees.Pager;
 import me.gilbva.jambodb.storage.btrees.Serializer;
+import me.gilbva.jambodb.storage.btrees.StatefulSerializer;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+public class FilePager<K, V> implements Pager<BTreePage<K, V>>, Closeable {
+    private static final double VALUE_LOG_GARBAGE_RATIO = 0.5;
 
-public class FilePager<K, V> implements Pager<BTreePage<K, V>> {
     public static <K, V> FilePagerBuilder<K, V> create(Serializer<K> keySer, Serializer<V> valueSer) {
         return new FilePagerOptions<>(true, keySer, valueSer);
     }
@@ -19,7 +33,7 @@ public class FilePager<K, V> implements Pager<BTreePage<K, V>> {
         return new FilePagerOptions<>(false, keySer, valueSer);
     }
 
-    private final LRUPagesCache<K, V> cache;
+    private final LRUPagesCache<SlottedBTreePage<K, V>> cache;
 
     private final Map<Integer, SlottedBTreePage<K, V>> txPages;
 
@@ -31,20 +45,114 @@ public class FilePager<K, V> implements Pager<BTreePage<K, V>> {
 
     private final Serializer<V> valueSer;
 
+    private final boolean keyCache;
+
+    private final boolean prefixCompression;
+
+    private final boolean deltaEncoding;
+
+    private final ByteBuffer keyBuffer;
+
+    private final ByteBuffer cellBuffer;
+
+    private final ByteBuffer compactBuffer;
+
+    private final int overflowDataSize;
+
+    private final List<SerializerState> states;
+
+    private final Executor commitExecutor;
+
+    private final Map<Integer, CompletableFuture<ByteBuffer>> prefetches;
+
+    private final Executor prefetchExecutor;
+
+    private final int readahead;
+
+    private int scanParent;
+
+    private int scanIndex;
+
+    private int scanRun;
+
+    private int prefetchedIndex;
+
+    private ValueLog valueLog;
+
     FilePager(FilePagerOptions<K, V> opts) throws IOException {
         this.keySer = opts.keySerializer();
         this.valueSer = opts.valueSerializer();
+        this.keyCache = opts.keyCache();
+        this.prefixCompression = opts.prefixCompression();
+        this.deltaEncoding = opts.deltaEncoding();
+        this.commitExecutor = opts.commitExecutor();
+        this.prefetchExecutor = opts.prefetchExecutor();
+        this.readahead = opts.readahead();
+        this.prefetches = new HashMap<>();
+        if(deltaEncoding && prefixCompression) {
+            throw new IllegalArgumentException("delta encoding and prefix compression cannot be combined");
+        }
+        if(deltaEncoding && keySer.integerWidth() <= 0) {
+            throw new IllegalArgumentException("delta encoding requires fixed-width integer keys");
+        }
+        if(readahead < 0) {
+            throw new IllegalArgumentException("invalid readahead " + readahead);
+        }
         this.cache = new LRUPagesCache<>(opts.cachePages());
         this.txPages = new HashMap<>();
         this.roots = ByteBuffer.allocate(BlockStorage.HEAD_SIZE);
+        this.states = new ArrayList<>();
+        if(keySer instanceof StatefulSerializer) {
+            states.add(new SerializerState(this, (StatefulSerializer<?>) keySer));
+        }
+        if(valueSer instanceof StatefulSerializer && valueSer != keySer) {
+            states.add(new SerializerState(this, (StatefulSerializer<?>) valueSer));
+        }
+        if(states.size() > 1 && states.get(0).index() == states.get(1).index()) {
+            throw new IllegalArgumentException("the key and value serializers cannot store their state in the same root");
+        }
 
+        Path logFile = opts.file().resolveSibling(opts.file().getFileName() + ".vlog");
         if(opts.init()) {
-            storage = BlockStorage.create(opts.file(), opts.security());
+            if(opts.valueLog() && opts.security() != null) {
+                throw new IllegalArgumentException("the value log is not supported on encrypted storages");
+            }
+            storage = BlockStorage.create(storageFiles(opts), new StorageOptions()
+                    .security(opts.security())
+                    .compression(opts.compression())
+                    .ctrEncryption(opts.ctrEncryption())
+                    .blockSize(opts.blockSize())
+                    .directIo(opts.directIo()));
+            if(opts.valueLog()) {
+                valueLog = ValueLog.create(logFile, ValueLog.DEFAULT_SEGMENT_SIZE);
+            }
         }
         else {
-            storage = BlockStorage.open(opts.file(), opts.security());
+            storage = BlockStorage.open(storageFiles(opts), opts.security(), opts.directIo());
             readRoots();
+            if(Files.exists(logFile)) {
+                valueLog = ValueLog.open(logFile);
+            }
+            for (var state : states) {
+                state.load();
+            }
         }
+
+        int blockSize = storage.blockSize();
+        this.overflowDataSize = blockSize - 4;
+        this.keyBuffer = ByteBuffer.allocate(blockSize);
+        this.cellBuffer = ByteBuffer.allocate(blockSize);
+        this.compactBuffer = ByteBuffer.allocate(SlottedBTreePage.maxPosition(blockSize));
+    }
+
+    /**
+     * Gets the files of the storage, the main file followed by the stripes, if any.
+     */
+    private static List<Path> storageFiles(FilePagerOptions<?, ?> opts) {
+        List<Path> files = new ArrayList<>();
+        files.add(opts.file());
+        files.addAll(opts.stripes());
+        return files;
     }
 
     @Override
@@ -65,17 +173,42 @@ public class FilePager<K, V> implements Pager<BTreePage<K, V>> {
         if(txPages.containsKey(id)) {
             return txPages.get(id);
         }
+
+        SlottedBTreePage<K, V> page;
         if(cache.contains(id)) {
-            return cache.get(id);
+            page = cache.get(id);
+        }
+        else {
+            page = load(id);
+            cache.put(page);
+        }
+        if(readahead > 0) {
+            readahead(page);
         }
-
-        var page = SlottedBTreePage.open(this, id);
-        cache.put(page);
         return page;
     }
 
+    /**
+     * Starts reading the given pages in the background on the prefetch executor, the pages are
+     * put in the cache once they are read, at the latest when they are requested. Pages that are
+     * already loaded or being read are skipped.
+     *
+     * @param ids the ids of the pages that will be needed soon.
+     */
+    @Override
+    public void prefetch(int... ids) {
+        collectPrefetches();
+        for (int id : ids) {
+            if(id == 0) {
+                throw new IllegalArgumentException("invalid id " + id);
+            }
+            prefetchPage(id);
+        }
+    }
+
     @Override
     public SlottedBTreePage<K, V> create(boolean leaf) throws IOException {
+        awaitPrefetches();
         var page = SlottedBTreePage.create(this, leaf);
         txPages.put(page.id(), page);
         return page;
@@ -87,21 +220,164 @@ public class FilePager<K, V> implements Pager<BTreePage<K, V>> {
             throw new IllegalArgumentException("invalid id " + id);
         }
         page(id).setDeleted(true);
+        resetScan();
+    }
+
+    @Override
+    public void pin(int id) {
+        if(id == 0) {
+            throw new IllegalArgumentException("invalid id " + id);
+        }
+        cache.pin(id);
+    }
+
+    @Override
+    public void unpin(int id) {
+        cache.unpin(id);
     }
 
     @Override
     public void fsync() throws IOException {
+        awaitPrefetches();
+        for (var state : states) {
+            state.save();
+        }
         writeRoots();
+        if(valueLog != null) {
+            int segment = valueLog.collectable(VALUE_LOG_GARBAGE_RATIO);
+            if(segment > 0) {
+                collect(segment);
+            }
+        }
+        List<SlottedBTreePage<K, V>> dirty = new ArrayList<>();
         for (var page : txPages.values()) {
             if(page.isModified()) {
-                page.save();
-                cache.put(page);
+                dirty.add(page);
             }
         }
+        dirty.sort((a, b) -> Integer.compareUnsigned(a.id(), b.id()));
+
+        int[] ids = new int[dirty.size()];
+        ByteBuffer[] buffers = new ByteBuffer[dirty.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = dirty.get(i).id();
+            buffers[i] = dirty.get(i).prepare();
+        }
+        if(valueLog != null) {
+            valueLog.force();
+        }
+        // collecting the value log looks up pages, which may have started new reads ahead
+        awaitPrefetches();
+        storage.write(ids, buffers, commitExecutor);
+        storage.force();
+        for (var page : dirty) {
+            page.setModified(false);
+            cache.put(page);
+        }
         txPages.clear();
+        if(valueLog != null) {
+            // the dropped segments are only deleted once no page on disk references them
+            valueLog.sync();
+        }
+        resetScan();
+    }
+
+    /**
+     * Closes the block storage and the value log of this pager, the changes that were not
+     * saved with fsync are lost.
+     *
+     * @throws IOException if any I/O error occurs closing the files.
+     */
+    @Override
+    public void close() throws IOException {
+        awaitPrefetches();
+        try {
+            if(valueLog != null) {
+                valueLog.close();
+            }
+        }
+        finally {
+            storage.close();
+        }
+    }
+
+    /**
+     * Reclaims the oldest segment of the value log regardless of its garbage, by sealing the head
+     * if needed and relocating the live values of the segment. The segment file is deleted by the
+     * next fsync, once the pages referencing the relocated values have been saved.
+     * Segments with enough garbage are already collected by fsync, one segment per call.
+     *
+     * @throws IOException if any I/O error occurs relocating the values.
+     */
+    public void collectGarbage() throws IOException {
+        if(valueLog == null) {
+            return;
+        }
+        valueLog.seal();
+        collect(valueLog.oldest());
+    }
+
+    /**
+     * Relocates the live values of the given segment of the value log and drops it, the records of
+     * the segment are scanned and the key of each one is looked up in the trees, so only the paths to
+     * those keys are visited instead of every page.
+     */
+    private void collect(int segment) throws IOException {
+        List<Integer> trees = new ArrayList<>();
+        for (int i = 0; i < BlockStorage.HEAD_SIZE / 4; i++) {
+            if(root(i) != 0 && !isStateRoot(i)) {
+                trees.add(root(i));
+            }
+        }
+        valueLog.scan(segment, (pointer, length, key) -> relocate(trees, keySer.read(key), pointer));
+        valueLog.drop(segment);
+    }
+
+    /**
+     * Searches the given key in the given trees and relocates its value if it is still the one stored
+     * in the record at the given pointer, otherwise the record is garbage.
+     */
+    private void relocate(List<Integer> trees, K key, long pointer) throws IOException {
+        for (int root : trees) {
+            var page = page(root);
+            while (true) {
+                int p = 0;
+                int r = page.size() - 1;
+                while (p <= r) {
+                    int q = (p + r) >>> 1;
+                    int cmp = page.compare(q, key);
+                    if(cmp == 0) {
+                        if(page.relocateValue(q, pointer)) {
+                            return;
+                        }
+                        break;
+                    }
+                    if(cmp < 0) {
+                        p = q + 1;
+                    }
+                    else {
+                        r = q - 1;
+                    }
+                }
+                if(p <= r || page.isLeaf()) {
+                    break;
+                }
+                page = page(page.child(p));
+            }
+        }
+    }
+
+    private boolean isStateRoot(int index) {
+        for (var state : states) {
+            if(state.index() == index) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public void writeRoots() throws IOException {
+        awaitPrefetches();
         storage.writeHead(roots);
     }
 
@@ -121,10 +397,241 @@ public class FilePager<K, V> implements Pager<BTreePage<K, V>> {
         return storage;
     }
 
+    public boolean hasKeyCache() {
+        return keyCache;
+    }
+
+    public boolean hasPrefixCompression() {
+        return prefixCompression;
+    }
+
+    public boolean hasDeltaEncoding() {
+        return deltaEncoding;
+    }
+
+    ValueLog valueLog() {
+        return valueLog;
+    }
+
+    ByteBuffer keyBuffer() {
+        return keyBuffer;
+    }
+
+    ByteBuffer cellBuffer() {
+        return cellBuffer;
+    }
+
+    ByteBuffer compactBuffer() {
+        return compactBuffer;
+    }
+
+    /**
+     * Writes the given data into a chain of new overflow blocks, every block starts with
+     * the id of the next block of the chain, or zero for the last one.
+     *
+     * @param data the data to write, from its position to its limit.
+     * @return the id of the first block of the chain.
+     * @throws IOException if any I/O error occurs writing the blocks.
+     */
+    int writeOverflow(ByteBuffer data) throws IOException {
+        awaitPrefetches();
+        int count = (data.remaining() + overflowDataSize - 1) / overflowDataSize;
+        int first = storage.count() + 1;
+        ByteBuffer block = ByteBuffer.allocate(storage.blockSize());
+        for (int i = 0; i < count; i++) {
+            int id = storage.increase() + 1;
+            int length = Math.min(overflowDataSize, data.remaining());
+
+            block.clear();
+            block.putInt(i + 1 < count ? id + 1 : 0);
+            block.put(data.array(), data.arrayOffset() + data.position(), length);
+            data.position(data.position() + length);
+            storage.write(id, block);
+        }
+        return first;
+    }
+
+    /**
+     * Reads the data stored in the chain of overflow blocks starting at the given block.
+     *
+     * @param id the id of the first block of the chain.
+     * @param length the amount of bytes stored in the chain.
+     * @return a buffer holding the data of the chain.
+     * @throws IOException if any I/O error occurs reading the blocks.
+     */
+    ByteBuffer readOverflow(int id, int length) throws IOException {
+        ByteBuffer data = ByteBuffer.allocate(length);
+        ByteBuffer block = ByteBuffer.allocate(storage.blockSize());
+        while (data.hasRemaining()) {
+            if(id == 0) {
+                throw new IOException("broken overflow chain");
+            }
+            storage.read(id, block);
+            id = block.getInt(0);
+            data.put(block.array(), 4, Math.min(overflowDataSize, data.remaining()));
+        }
+        data.flip();
+        return data;
+    }
+
     void pageModified(SlottedBTreePage<K, V> page) {
+        prefetches.remove(page.id());
         if(page.isModified()) {
             cache.remove(page);
             txPages.put(page.id(), page);
         }
     }
+
+    void pageWeightChanged(SlottedBTreePage<K, V> page) {
+        cache.update(page);
+    }
+
+    /**
+     * Waits for the pages being read in the background and puts them in the cache, the storage
+     * must not be written while it is being read.
+     */
+    void awaitPrefetches() {
+        for (var prefetch : prefetches.values()) {
+            prefetched(prefetch);
+        }
+        collectPrefetches();
+    }
+
+    private SlottedBTreePage<K, V> load(int id) throws IOException {
+        var prefetch = prefetches.remove(id);
+        if(prefetch != null) {
+            ByteBuffer buffer = prefetched(prefetch);
+            if(buffer != null) {
+                return SlottedBTreePage.open(this, id, buffer);
+            }
+        }
+        return SlottedBTreePage.open(this, id);
+    }
+
+    /**
+     * Detects scans over the children of the last internal page that was requested, once two of its
+     * children are requested one after the other the following children are read ahead, and when a
+     * scan that reached its last child moves on to another internal page, the first children of that
+     * page are read ahead right away.
+     */
+    private void readahead(SlottedBTreePage<K, V> page) {
+        var parent = scanParent();
+        boolean finished = parent != null && scanRun >= 2 && scanIndex == parent.size();
+        int index = childIndex(parent, page.id());
+        if(index >= 0) {
+            scanRun = index == scanIndex + 1 ? scanRun + 1 : 1;
+            scanIndex = index;
+            if(scanRun >= 2) {
+                prefetchChildren(parent, index + 1);
+            }
+        }
+        else {
+            scanRun = 0;
+        }
+
+        if(!page.isLeaf() && !page.isDeleted()) {
+            scanParent = page.id();
+            scanIndex = -1;
+            scanRun = 0;
+            prefetchedIndex = -1;
+            if(finished) {
+                scanRun = 1;
+                prefetchChildren(page, 0);
+            }
+        }
+    }
+
+    /**
+     * Gets the scanned page if it is still loaded and was not deleted, it is never read again from
+     * the storage, if it is gone the scan starts over.
+     */
+    private SlottedBTreePage<K, V> scanParent() {
+        SlottedBTreePage<K, V> page = null;
+        if(txPages.containsKey(scanParent)) {
+            page = txPages.get(scanParent);
+        }
+        else if(cache.contains(scanParent)) {
+            page = cache.get(scanParent);
+        }
+        if(page == null || page.isDeleted()) {
+            resetScan();
+            return null;
+        }
+        return page;
+    }
+
+    private void resetScan() {
+        scanParent = 0;
+        scanIndex = -1;
+        scanRun = 0;
+        prefetchedIndex = -1;
+    }
+
+    /**
+     * Gets the index of the given page among the children of the scanned page, only the next child
+     * is checked once the scan has found one of them.
+     */
+    private int childIndex(SlottedBTreePage<K, V> parent, int id) {
+        if(parent == null) {
+            return -1;
+        }
+        int next = scanIndex + 1;
+        if(next <= parent.size() && parent.child(next) == id) {
+            return next;
+        }
+        if(scanIndex >= 0) {
+            return -1;
+        }
+        for (int i = 0; i <= parent.size(); i++) {
+            if(parent.child(i) == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void prefetchChildren(SlottedBTreePage<K, V> parent, int from) {
+        int to = Math.min(from + readahead - 1, parent.size());
+        for (int i = Math.max(from, prefetchedIndex + 1); i <= to; i++) {
+            prefetchPage(parent.child(i));
+        }
+        prefetchedIndex = Math.max(prefetchedIndex, to);
+    }
+
+    private void prefetchPage(int id) {
+        if(txPages.containsKey(id) || cache.contains(id) || prefetches.containsKey(id)) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(storage.blockSize());
+        prefetches.put(id, storage.readAsync(id, buffer, prefetchExecutor));
+    }
+
+    /**
+     * Puts the pages that have already been read in the cache, pages that could not be read are
+     * dropped, so the error is thrown when they are requested.
+     */
+    private void collectPrefetches() {
+        var iterator = prefetches.entrySet().iterator();
+        while (iterator.hasNext()) {
+            var entry = iterator.next();
+            if(!entry.getValue().isDone()) {
+                continue;
+            }
+            iterator.remove();
+            ByteBuffer buffer = prefetched(entry.getValue());
+            int id = entry.getKey();
+            if(buffer != null && !txPages.containsKey(id) && !cache.contains(id)) {
+                cache.put(SlottedBTreePage.open(this, id, buffer));
+            }
+        }
+    }
+
+    private static ByteBuffer prefetched(CompletableFuture<ByteBuffer> prefetch) {
+        try {
+            return prefetch.join();
+        }
+        catch (CompletionException | CancellationException ex) {
+            return null;
+        }
+    }
 }
@@ -4,13 +4,39 @@ import me.gilbva.jambodb.storage.blocks.SecurityOptions;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 public interface FilePagerBuilder<K, V> {
     FilePagerBuilder<K, V> file(Path file);
 
     FilePagerBuilder<K, V> cachePages(int value);
 
+    FilePagerBuilder<K, V> keyCache(boolean value);
+
+    FilePagerBuilder<K, V> prefixCompression(boolean value);
+
+    FilePagerBuilder<K, V> deltaEncoding(boolean value);
+
+    FilePagerBuilder<K, V> valueLog(boolean value);
+
     FilePagerBuilder<K, V> security(SecurityOptions opts);
 
+    FilePagerBuilder<K, V> compression(boolean value);
+
+    FilePagerBuilder<K, V> ctrEncryption(boolean value);
+
+    FilePagerBuilder<K, V> blockSize(int value);
+
+    FilePagerBuilder<K, V> stripes(List<Path> files);
+
+    FilePagerBuilder<K, V> directIo(boolean value);
+
+    FilePagerBuilder<K, V> commitExecutor(Executor executor);
+
+    FilePagerBuilder<K, V> readahead(int pages);
+
+    FilePagerBuilder<K, V> prefetchExecutor(Executor executor);
+
     FilePager<K, V> build() throws IOException;
 }
@@ -1,16 +1,28 @@
 package me.gilbva.jambodb.storage.pager;
 
 import me.gilbva.jambodb.storage.blocks.SecurityOptions;
+import me.gilbva.jambodb.storage.blocks.StorageOptions;
 import me.gilbva.jambodb.storage.btrees.Serializer;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 class FilePagerOptions<K, V> implements FilePagerBuilder<K, V> {
     private Path file;
 
     private int cachePages;
 
+    private boolean keyCache;
+
+    private boolean prefixCompression;
+
+    private boolean deltaEncoding;
+
+    private boolean valueLog;
+
     private boolean init;
 
     private Serializer<K> keySer;
@@ -19,6 +31,22 @@ class FilePagerOptions<K, V> implements FilePagerBuilder<K, V> {
 
     private SecurityOptions security;
 
+    private boolean compression;
+
+    private boolean ctrEncryption;
+
+    private int blockSize = StorageOptions.DEFAULT_BLOCK_SIZE;
+
+    private List<Path> stripes = List.of();
+
+    private boolean directIo;
+
+    private Executor commitExecutor = ForkJoinPool.commonPool();
+
+    private int readahead;
+
+    private Executor prefetchExecutor = ForkJoinPool.commonPool();
+
     public FilePagerOptions(boolean init,
                             Serializer<K> keySer,
                             Serializer<V> valueSer) {
@@ -35,6 +63,22 @@ class FilePagerOptions<K, V> implements FilePagerBuilder<K, V> {
         return cachePages;
     }
 
+    public boolean keyCache() {
+        return keyCache;
+    }
+
+    public boolean prefixCompression() {
+        return prefixCompression;
+    }
+
+    public boolean deltaEncoding() {
+        return deltaEncoding;
+    }
+
+    public boolean valueLog() {
+        return valueLog;
+    }
+
     public boolean init() {
         return init;
     }
@@ -51,6 +95,38 @@ class FilePagerOptions<K, V> implements FilePagerBuilder<K, V> {
         return security;
     }
 
+    public boolean compression() {
+        return compression;
+    }
+
+    public boolean ctrEncryption() {
+        return ctrEncryption;
+    }
+
+    public int blockSize() {
+        return blockSize;
+    }
+
+    public List<Path> stripes() {
+        return stripes;
+    }
+
+    public boolean directIo() {
+        return directIo;
+    }
+
+    public Executor commitExecutor() {
+        return commitExecutor;
+    }
+
+    public int readahead() {
+        return readahead;
+    }
+
+    public Executor prefetchExecutor() {
+        return prefetchExecutor;
+    }
+
     @Override
     public FilePagerBuilder<K, V> file(Path file) {
         this.file = file;
@@ -63,12 +139,84 @@ class FilePagerOptions<K, V> implements FilePagerBuilder<K, V> {
         return this;
     }
 
+    @Override
+    public FilePagerBuilder<K, V> keyCache(boolean value) {
+        this.keyCache = value;
+        return this;
+    }
+
+    @Override
+    public FilePagerBuilder<K, V> prefixCompression(boolean value) {
+        this.prefixCompression = value;
+        return this;
+    }
+
+    @Override
+    public FilePagerBuilder<K, V> deltaEncoding(boolean value) {
+        this.deltaEncoding = value;
+        return this;
+    }
+
+    @Override
+    public FilePagerBuilder<K, V> valueLog(boolean value) {
+        this.valueLog = value;
+        return this;
+    }
+
     @Override
     public FilePagerBuilder<K, V> security(SecurityOptions opts) {
         this.security = opts;
         return this;
     }
 
+    @Override
+    public FilePagerBuilder<K, V> compression(boolean value) {
+        this.compression = value;
+        return this;
+    }
+
+    @Override
+    public FilePagerBuilder<K, V> ctrEncryption(boolean value) {
+        this.ctrEncryption = value;
+        return this;
+    }
+
+    @Override
+    public FilePagerBuilder<K, V> blockSize(int value) {
+        this.blockSize = value;
+        return this;
+    }
+
+    @Override
+    public FilePagerBuilder<K, V> stripes(List<Path> files) {
+        this.stripes = List.copyOf(files);
+        return this;
+    }
+
+    @Override
+    public FilePagerBuilder<K, V> directIo(boolean value) {
+        this.directIo = value;
+        return this;
+    }
+
+    @Override
+    public FilePagerBuilder<K, V> commitExecutor(Executor executor) {
+        this.commitExecutor = executor;
+        return this;
+    }
+
+    @Override
+    public FilePagerBuilder<K, V> readahead(int pages) {
+        this.readahead = pages;
+        return this;
+    }
+
+    @Override
+    public FilePagerBuilder<K, V> prefetchExecutor(Executor executor) {
+        this.prefetchExecutor = executor;
+        return this;
+    }
+
     @Override
     public FilePager<K, V> build() throws IOException {
         return new FilePager<K, V>(this);
@@ -3,27 +3,32 @@ package me.gilbva.jambodb.storage.pager;
 import java.util.HashMap;
 import java.util.Map;
 
-public class LRUPagesCache<K, V> {
+public class LRUPagesCache<P extends CachedPage> {
     private static class CacheEntry {
         CacheEntry next;
         CacheEntry prev;
         int id;
+        int weight;
 
         public CacheEntry(int id) {
             this.id = id;
         }
     }
 
-    private final Map<Integer, SlottedBTreePage<K, V>> pages = new HashMap<>();
+    private final Map<Integer, P> pages = new HashMap<>();
 
     private final Map<Integer, CacheEntry> entries = new HashMap<>();
 
+    private final Map<Integer, Integer> pins = new HashMap<>();
+
     private CacheEntry first;
 
     private CacheEntry last;
 
     private final int maxSize;
 
+    private int weight;
+
     public LRUPagesCache(int maxSize) {
         this.maxSize = maxSize;
     }
@@ -32,7 +37,7 @@ public class LRUPagesCache<K, V> {
         return entries.containsKey(id);
     }
 
-    public SlottedBTreePage<K, V> get(int id) {
+    public P get(int id) {
         if(entries.containsKey(id)) {
             if(first.id != id) {
                 addEntry(removeEntry(entries.get(id)));
@@ -42,7 +47,7 @@ public class LRUPagesCache<K, V> {
         return pages.get(id);
     }
 
-    public void put(SlottedBTreePage<K, V> page) {
+    public void put(P page) {
         if(entries.containsKey(page.id())) {
             if(first.id != page.id()) {
                 addEntry(removeEntry(entries.get(page.id())));
@@ -53,31 +58,81 @@ public class LRUPagesCache<K, V> {
         }
 
         pages.put(page.id(), page);
-        if(pages.size() > maxSize) {
+        setWeight(entries.get(page.id()), page.cacheWeight());
+        if(weight > maxSize) {
             evit();
         }
     }
 
-    public void remove(SlottedBTreePage<K, V> page) {
+    /**
+     * Updates the weight of the given page if it is present in the cache, this must be called
+     * whenever the memory held by a cached page changes, for example when its decoded keys are built.
+     *
+     * @param page the page whose weight has changed.
+     */
+    public void update(P page) {
+        var entry = entries.get(page.id());
+        if(entry != null && pages.get(page.id()) == page) {
+            setWeight(entry, page.cacheWeight());
+            if(weight > maxSize) {
+                evit();
+            }
+        }
+    }
+
+    /**
+     * Pins the page with the given id, a pinned page is never evicted even if it is not cached
+     * yet, this way the page stays pinned when it is put back after being modified.
+     *
+     * @param id the id of the page to pin.
+     */
+    public void pin(int id) {
+        pins.merge(id, 1, Integer::sum);
+    }
+
+    /**
+     * Releases one pin of the page with the given id, and evicts pages if the cache was
+     * kept over its size by the pinned page.
+     *
+     * @param id the id of the page to unpin.
+     */
+    public void unpin(int id) {
+        var count = pins.get(id);
+        if(count == null) {
+            throw new IllegalStateException("page " + id + " is not pinned");
+        }
+        if(count > 1) {
+            pins.put(id, count - 1);
+        }
+        else {
+            pins.remove(id);
+            if(weight > maxSize) {
+                evit();
+            }
+        }
+    }
+
+    public void remove(P page) {
         if(entries.containsKey(page.id())) {
-            removeEntry(entries.get(page.id()));
+            setWeight(removeEntry(entries.get(page.id())), 0);
             pages.remove(page.id());
         }
     }
 
-    public Iterable<SlottedBTreePage<K, V>> all() {
+    public Iterable<P> all() {
         return pages.values();
     }
 
     public void evit() {
         var current = last;
-        while(current != null && pages.size() > maxSize) {
-            if(!pages.get(current.id).isModified()) {
-                removeEntry(current);
+        while(current != null && weight > maxSize) {
+            var prev = current.prev;
+            if(!pages.get(current.id).isModified() && !pins.containsKey(current.id)) {
+                setWeight(removeEntry(current), 0);
                 pages.remove(current.id);
             }
 
-            current = current.prev;
+            current = prev;
         }
     }
 
@@ -86,8 +141,13 @@ public class LRUPagesCache<K, V> {
         entries.clear();
         first = null;
         last = null;
+        weight = 0;
     }
 
+    private void setWeight(CacheEntry entry, int value) {
+        weight += value - entry.weight;
+        entry.weight = value;
+    }
 
     private void addEntry(CacheEntry entry) {
         entries.put(entry.id, entry);
@@ -0,0 +1,309 @@
+package me.gilbva.jambodb.storage.pager;
+
+import me.gilbva.jambodb.storage.blocks.BlockStorage;
+import me.gilbva.jambodb.storage.btrees.LongLongPage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A page of a LongLongBTree stored in a single block with a fixed-width layout, there are no
+ * slots nor cells: the keys are stored contiguously right after the header, followed by the
+ * values and, for non-leaf pages, the children. Elements are located by arithmetic alone, so
+ * searching a page is a plain binary search over the keys area.
+ */
+public class LongLongFilePage implements LongLongPage, CachedPage {
+    private static final short FLAG_IS_LEAF = 1;
+
+    private static final short FLAG_IS_DELETED = 2;
+
+    private static final int FLAGS_POS = 0;
+
+    private static final int SIZE_POS = 2;
+
+    private static final int KEYS_POS = 4;
+
+    private static final int LEAF_CAPACITY = (BlockStorage.BLOCK_SIZE - KEYS_POS) / 16;
+
+    private static final int NODE_CAPACITY = (BlockStorage.BLOCK_SIZE - KEYS_POS - 4) / 20;
+
+    public static LongLongFilePage create(LongLongFilePager pager, boolean isLeaf) throws IOException {
+        return new LongLongFilePage(pager, isLeaf);
+    }
+
+    public static LongLongFilePage open(LongLongFilePager pager, int id) throws IOException {
+        return new LongLongFilePage(pager, id);
+    }
+
+    private final int id;
+
+    private final ByteBuffer buffer;
+
+    private final LongLongFilePager pager;
+
+    private final boolean leaf;
+
+    private final int capacity;
+
+    private final int valuesPos;
+
+    private final int childrenPos;
+
+    private boolean deleted;
+
+    private boolean modified;
+
+    private int size;
+
+    private LongLongFilePage(LongLongFilePager pager, int id) throws IOException {
+        this.id = id;
+        this.pager = pager;
+        this.buffer = ByteBuffer.allocate(BlockStorage.BLOCK_SIZE);
+        pager.getStorage().read(id, buffer);
+
+        short flags = buffer.getShort(FLAGS_POS);
+        leaf = (flags & FLAG_IS_LEAF) != 0;
+        deleted = (flags & FLAG_IS_DELETED) != 0;
+        size = buffer.getShort(SIZE_POS);
+
+        capacity = leaf ? LEAF_CAPACITY : NODE_CAPACITY;
+        valuesPos = KEYS_POS + capacity * 8;
+        childrenPos = valuesPos + capacity * 8;
+    }
+
+    private LongLongFilePage(LongLongFilePager pager, boolean isLeaf) throws IOException {
+        this.pager = pager;
+        this.id = pager.getStorage().increase() + 1;
+        this.buffer = ByteBuffer.allocate(BlockStorage.BLOCK_SIZE);
+        this.leaf = isLeaf;
+
+        capacity = leaf ? LEAF_CAPACITY : NODE_CAPACITY;
+        valuesPos = KEYS_POS + capacity * 8;
+        childrenPos = valuesPos + capacity * 8;
+        modified = true;
+    }
+
+    @Override
+    public int id() {
+        return id;
+    }
+
+    @Override
+    public int size() {
+        checkDeleted();
+        return size;
+    }
+
+    @Override
+    public void size(int value) {
+        checkDeleted();
+        if(value < 0 || value >= capacity) {
+            throw new IllegalArgumentException("invalid size=" + value + ", capacity=" + capacity);
+        }
+        if(value == size) {
+            return;
+        }
+
+        if(!leaf && value > size) {
+            for (int i = size + 1; i <= value; i++) {
+                buffer.putInt(childPos(i), 0);
+            }
+        }
+        size = value;
+        setModified(true);
+    }
+
+    @Override
+    public boolean isLeaf() {
+        return leaf;
+    }
+
+    @Override
+    public boolean isFull() {
+        checkDeleted();
+        return size >= capacity - 1;
+    }
+
+    @Override
+    public boolean isHalf() {
+        checkDeleted();
+        return size < capacity / 4;
+    }
+
+    @Override
+    public boolean canBorrow() {
+        checkDeleted();
+        return size > 2 && size > capacity / 2;
+    }
+
+    @Override
+    public long key(int index) {
+        checkIndex(index, size);
+        return buffer.getLong(KEYS_POS + (index << 3));
+    }
+
+    @Override
+    public void key(int index, long key) {
+        checkIndex(index, size);
+        buffer.putLong(KEYS_POS + (index << 3), key);
+        setModified(true);
+    }
+
+    @Override
+    public long value(int index) {
+        checkIndex(index, size);
+        return buffer.getLong(valuesPos + (index << 3));
+    }
+
+    @Override
+    public void value(int index, long value) {
+        checkIndex(index, size);
+        buffer.putLong(valuesPos + (index << 3), value);
+        setModified(true);
+    }
+
+    @Override
+    public int child(int index) {
+        checkChild(index);
+        return buffer.getInt(childPos(index));
+    }
+
+    @Override
+    public void child(int index, int id) {
+        checkChild(index);
+        buffer.putInt(childPos(index), id);
+        setModified(true);
+    }
+
+    /**
+     * Searches the keys area with a lower bound binary search, each step makes a single
+     * comparison that the compiler can turn into a conditional move.
+     */
+    @Override
+    public int search(long key) {
+        checkDeleted();
+        int low = 0;
+        int count = size;
+        while (count > 0) {
+            int half = count >>> 1;
+            boolean greater = buffer.getLong(KEYS_POS + ((low + half) << 3)) < key;
+            low = greater ? low + half + 1 : low;
+            count = greater ? count - half - 1 : half;
+        }
+
+        if(low < size && buffer.getLong(KEYS_POS + (low << 3)) == key) {
+            return low;
+        }
+        return -low - 1;
+    }
+
+    @Override
+    public void shift(int index, int delta) {
+        checkDeleted();
+        if(index < 0 || index > size || index + delta < 0 || size + delta >= capacity) {
+            throw new IllegalArgumentException("invalid index=" + index + ", delta=" + delta + ", size=" + size);
+        }
+        if(delta == 0) {
+            return;
+        }
+
+        byte[] array = buffer.array();
+        int count = size - index;
+        System.arraycopy(array, KEYS_POS + (index << 3), array, KEYS_POS + ((index + delta) << 3), count << 3);
+        System.arraycopy(array, valuesPos + (index << 3), array, valuesPos + ((index + delta) << 3), count << 3);
+        if(!leaf) {
+            System.arraycopy(array, childPos(index), array, childPos(index + delta), (count + 1) << 2);
+        }
+        size += delta;
+        setModified(true);
+    }
+
+    @Override
+    public void moveCells(LongLongPage source, int from, int count) {
+        checkDeleted();
+        var page = (LongLongFilePage) source;
+        page.checkDeleted();
+        if(from < 0 || count < 0 || from + count > page.size || size + count >= capacity) {
+            throw new IllegalArgumentException("invalid from=" + from + ", count=" + count + ", size=" + page.size);
+        }
+
+        byte[] array = buffer.array();
+        byte[] sourceArray = page.buffer.array();
+        System.arraycopy(sourceArray, KEYS_POS + (from << 3), array, KEYS_POS + (size << 3), count << 3);
+        System.arraycopy(sourceArray, page.valuesPos + (from << 3), array, valuesPos + (size << 3), count << 3);
+        if(!leaf) {
+            System.arraycopy(sourceArray, page.childPos(from), array, childPos(size), (count + 1) << 2);
+            page.buffer.putInt(page.childPos(from + count), page.buffer.getInt(page.childPos(from)));
+        }
+        size += count;
+        page.shift(from + count, -count);
+        setModified(true);
+    }
+
+    public boolean isModified() {
+        return modified;
+    }
+
+    public void setModified(boolean value) {
+        if(modified != value) {
+            modified = value;
+            pager.pageModified(this);
+        }
+    }
+
+    public boolean isDeleted() {
+        return deleted;
+    }
+
+    public void setDeleted(boolean value) {
+        deleted = value;
+        if(deleted) {
+            size = 0;
+        }
+        setModified(true);
+    }
+
+    @Override
+    public int cacheWeight() {
+        return 1;
+    }
+
+    public void save() throws IOException {
+        short flags = 0;
+        if(leaf) {
+            flags |= FLAG_IS_LEAF;
+        }
+        if(deleted) {
+            flags |= FLAG_IS_DELETED;
+        }
+        buffer.putShort(FLAGS_POS, flags);
+        buffer.putShort(SIZE_POS, (short) size);
+        buffer.position(0);
+        pager.getStorage().write(id, buffer);
+        setModified(false);
+    }
+
+    private int childPos(int index) {
+        return childrenPos + (index << 2);
+    }
+
+    private void checkIndex(int index, int limit) {
+        checkDeleted();
+        if(index < 0 || index >= limit) {
+            throw new IllegalArgumentException("invalid index=" + index + ", size=" + size);
+        }
+    }
+
+    private void checkChild(int index) {
+        if(leaf) {
+            throw new UnsupportedOperationException("child operations are not allowed on leaf pages");
+        }
+        checkIndex(index, size + 1);
+    }
+
+    private void checkDeleted() {
+        if(deleted) {
+            throw new IllegalStateException("page " + id + " is deleted");
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package me.gilbva.jambodb.storage.pager;
+
+import me.gilbva.jambodb.storage.blocks.BlockStorage;
+import me.gilbva.jambodb.storage.btrees.LongLongPage;
+import me.gilbva.jambodb.storage.btrees.Pager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A pager of fixed-width LongLongFilePage pages for LongLongBTree instances, it manages
+ * the pages of its storage the same way FilePager does for slotted pages.
+ */
+public class LongLongFilePager implements Pager<LongLongPage> {
+    public static LongLongFilePagerBuilder create() {
+        return new LongLongFilePagerOptions(true);
+    }
+
+    public static LongLongFilePagerBuilder open() {
+        return new LongLongFilePagerOptions(false);
+    }
+
+    private final LRUPagesCache<LongLongFilePage> cache;
+
+    private final Map<Integer, LongLongFilePage> txPages;
+
+    private final BlockStorage storage;
+
+    private final ByteBuffer roots;
+
+    LongLongFilePager(LongLongFilePagerOptions opts) throws IOException {
+        this.cache = new LRUPagesCache<>(opts.cachePages());
+        this.txPages = new HashMap<>();
+        this.roots = ByteBuffer.allocate(BlockStorage.HEAD_SIZE);
+
+        if(opts.init()) {
+            storage = BlockStorage.create(opts.file(), opts.security());
+        }
+        else {
+            storage = BlockStorage.open(opts.file(), opts.security());
+            if(storage.blockSize() != BlockStorage.BLOCK_SIZE) {
+                storage.close();
+                throw new IOException("unsupported block size " + storage.blockSize());
+            }
+            storage.readHead(roots);
+        }
+    }
+
+    @Override
+    public int root(int index) {
+        return roots.getInt(index * 4);
+    }
+
+    @Override
+    public void root(int index, int id) {
+        roots.putInt(index * 4, id);
+    }
+
+    @Override
+    public LongLongFilePage page(int id) throws IOException {
+        if(id == 0) {
+            throw new IllegalArgumentException("invalid id " + id);
+        }
+        var page = txPages.get(id);
+        if(page != null) {
+            return page;
+        }
+        if(cache.contains(id)) {
+            return cache.get(id);
+        }
+
+        page = LongLongFilePage.open(this, id);
+        cache.put(page);
+        return page;
+    }
+
+    @Override
+    public LongLongFilePage create(boolean leaf) throws IOException {
+        var page = LongLongFilePage.create(this, leaf);
+        txPages.put(page.id(), page);
+        return page;
+    }
+
+    @Override
+    public void remove(int id) throws IOException {
+        if(id == 0) {
+            throw new IllegalArgumentException("invalid id " + id);
+        }
+        page(id).setDeleted(true);
+    }
+
+    @Override
+    public void fsync() throws IOException {
+        storage.writeHead(roots);
+        for (var page : txPages.values()) {
+            if(page.isModified()) {
+                page.save();
+                cache.put(page);
+            }
+        }
+        txPages.clear();
+    }
+
+    public BlockStorage getStorage() {
+        return storage;
+    }
+
+    void pageModified(LongLongFilePage page) {
+        if(page.isModified()) {
+            cache.remove(page);
+            txPages.put(page.id(), page);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package me.gilbva.jambodb.storage.pager;
+
+import me.gilbva.jambodb.storage.blocks.SecurityOptions;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+public interface LongLongFilePagerBuilder {
+    LongLongFilePagerBuilder file(Path file);
+
+    LongLongFilePagerBuilder cachePages(int value);
+
+    LongLongFilePagerBuilder security(SecurityOptions opts);
+
+    LongLongFilePager build() throws IOException;
+}
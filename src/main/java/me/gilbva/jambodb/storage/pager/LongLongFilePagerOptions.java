@@ -0,0 +1,59 @@
+package me.gilbva.jambodb.storage.pager;
+
+import me.gilbva.jambodb.storage.blocks.SecurityOptions;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+class LongLongFilePagerOptions implements LongLongFilePagerBuilder {
+    private Path file;
+
+    private int cachePages;
+
+    private final boolean init;
+
+    private SecurityOptions security;
+
+    public LongLongFilePagerOptions(boolean init) {
+        this.init = init;
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    public int cachePages() {
+        return cachePages;
+    }
+
+    public boolean init() {
+        return init;
+    }
+
+    public SecurityOptions security() {
+        return security;
+    }
+
+    @Override
+    public LongLongFilePagerBuilder file(Path file) {
+        this.file = file;
+        return this;
+    }
+
+    @Override
+    public LongLongFilePagerBuilder cachePages(int value) {
+        this.cachePages = value;
+        return this;
+    }
+
+    @Override
+    public LongLongFilePagerBuilder security(SecurityOptions opts) {
+        this.security = opts;
+        return this;
+    }
+
+    @Override
+    public LongLongFilePager build() throws IOException {
+        return new LongLongFilePager(this);
+    }
+}
@@ -0,0 +1,102 @@
+package me.gilbva.jambodb.storage.pager;
+
+import me.gilbva.jambodb.storage.blocks.BlockStorage;
+import me.gilbva.jambodb.storage.btrees.StatefulSerializer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores the state of a StatefulSerializer in a chain of blocks referenced by the root slot of the
+ * serializer, every block starts with the id of the next block of the chain, and the first one is
+ * followed by the size of the state. Since the state only grows, the blocks of the chain are reused
+ * and only the first block and the blocks holding new bytes are written when it changes.
+ */
+class SerializerState {
+    private final FilePager<?, ?> pager;
+
+    private final StatefulSerializer<?> serializer;
+
+    private final List<Integer> blocks = new ArrayList<>();
+
+    private int savedSize;
+
+    SerializerState(FilePager<?, ?> pager, StatefulSerializer<?> serializer) {
+        this.pager = pager;
+        this.serializer = serializer;
+    }
+
+    int index() {
+        return serializer.stateIndex();
+    }
+
+    private int dataSize() {
+        return pager.getStorage().blockSize() - 4;
+    }
+
+    void load() throws IOException {
+        BlockStorage storage = pager.getStorage();
+        int dataSize = dataSize();
+        ByteBuffer block = ByteBuffer.allocate(dataSize + 4);
+        ByteBuffer data = null;
+        int id = pager.root(index());
+        while (id != 0) {
+            storage.read(id, block);
+            blocks.add(id);
+            if(data == null) {
+                data = ByteBuffer.allocate(block.getInt(4) + 4);
+            }
+            data.put(block.array(), 4, Math.min(dataSize, data.remaining()));
+            id = block.getInt(0);
+        }
+
+        if(data == null) {
+            // nothing was admitted to the state yet, so it was never saved
+            savedSize = 0;
+            serializer.loadState(ByteBuffer.allocate(0));
+            return;
+        }
+        if(data.hasRemaining()) {
+            throw new IOException("broken serializer state chain");
+        }
+        data.flip();
+        savedSize = data.getInt();
+        serializer.loadState(data);
+    }
+
+    void save() throws IOException {
+        int size = serializer.stateSize();
+        if(size == savedSize) {
+            return;
+        }
+
+        ByteBuffer data = ByteBuffer.allocate(size + 4);
+        data.putInt(size);
+        data.put(serializer.state());
+        data.flip();
+
+        BlockStorage storage = pager.getStorage();
+        int dataSize = dataSize();
+        int count = (data.remaining() + dataSize - 1) / dataSize;
+        while (blocks.size() < count) {
+            blocks.add(storage.increase() + 1);
+        }
+
+        int from = (savedSize + 4) / dataSize;
+        ByteBuffer block = ByteBuffer.allocate(dataSize + 4);
+        for (int i = 0; i < count; i++) {
+            if(i > 0 && i < from) {
+                continue;
+            }
+            int offset = i * dataSize;
+            block.clear();
+            block.putInt(i + 1 < count ? blocks.get(i + 1) : 0);
+            block.put(data.array(), offset, Math.min(dataSize, data.limit() - offset));
+            storage.write(blocks.get(i), block);
+        }
+        pager.root(index(), blocks.get(0));
+        savedSize = size;
+    }
+}
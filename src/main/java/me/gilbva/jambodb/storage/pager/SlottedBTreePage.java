@@ -1,21 +1,23 @@
 package me.gilbva.jambodb.storage.pager;
 
 import me.gilbva.jambodb.storage.blocks.BlockStorage;
+import me.gilbva.jambodb.storage.blocks.ValueLog;
 import me.gilbva.jambodb.storage.btrees.BTreePage;
 import me.gilbva.jambodb.storage.btrees.Serializer;
 
 import java.io.IOException;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 
-public class SlottedBTreePage<K, V> implements BTreePage<K, V> {
+public class SlottedBTreePage<K, V> implements BTreePage<K, V>, CachedPage {
     private static final short FLAG_IS_LEAF = 1;
 
     private static final short FLAG_IS_DELETED = 2;
 
+    private static final short FLAG_HAS_PREFIX = 4;
+
+    private static final short FLAG_HAS_BASE = 8;
+
     private static final int FLAGS_POS = 0;
 
     private static final int SIZE_POS = 2;
@@ -26,12 +28,66 @@ public class SlottedBTreePage<K, V> implements BTreePage<K, V> {
 
     private static final int ELEMENTS_POS = 8;
 
+    private static final int MAX_POSITION = 0x4000;
+
+    private static final int WIDE_EXTERNAL_VALUE = 0x40000000;
+
+    private static final byte EXTERNAL_OVERFLOW = 1;
+
+    private static final byte EXTERNAL_LOG = 2;
+
+    private static final int OVERFLOW_CELL_SIZE = 9;
+
+    private static final int LOG_CELL_SIZE = 13;
+
+    private static final int BASE_SIZE = 8;
+
+    /**
+     * The estimated memory taken by each decoded key besides its serialized bytes, for the
+     * headers of its objects and its reference in the array of decoded keys.
+     */
+    private static final int DECODED_KEY_OVERHEAD = 40;
+
     public static <K, V> SlottedBTreePage<K, V> create(FilePager<K, V> pager, boolean isLeaf) throws IOException {
         return new SlottedBTreePage<>(pager, isLeaf);
     }
 
     public static <K, V> SlottedBTreePage<K, V> open(FilePager<K, V> pager, int id) throws IOException {
-        return new SlottedBTreePage<>(pager, id);
+        ByteBuffer buffer = ByteBuffer.allocate(pager.getStorage().blockSize());
+        pager.getStorage().read(id, buffer);
+        return new SlottedBTreePage<>(pager, id, buffer);
+    }
+
+    /**
+     * Opens the page stored in the given block, from its contents already read into the given buffer,
+     * the buffer becomes the buffer of the page.
+     *
+     * @param pager the pager of the page.
+     * @param id the id of the block of the page.
+     * @param buffer the contents of the block.
+     * @return the page.
+     */
+    static <K, V> SlottedBTreePage<K, V> open(FilePager<K, V> pager, int id, ByteBuffer buffer) {
+        return new SlottedBTreePage<>(pager, id, buffer);
+    }
+
+    /**
+     * Gets the limit of the cell positions of the pages stored in blocks of the given size, the
+     * positions from the block size up to this limit belong to the spill area.
+     *
+     * @param blockSize the size of the blocks.
+     * @return the limit of the positions.
+     */
+    static int maxPosition(int blockSize) {
+        return isWide(blockSize) ? blockSize * 4 : MAX_POSITION;
+    }
+
+    /**
+     * Pages of blocks larger than BLOCK_SIZE have positions that do not fit in a short, so their
+     * slots hold four bytes positions, and external cells are flagged with a higher bit.
+     */
+    private static boolean isWide(int blockSize) {
+        return blockSize > BlockStorage.BLOCK_SIZE;
     }
 
     private final int id;
@@ -48,6 +104,22 @@ public class SlottedBTreePage<K, V> implements BTreePage<K, V> {
 
     private final boolean leaf;
 
+    private final boolean prefixCompression;
+
+    private final int deltaWidth;
+
+    private final int blockSize;
+
+    private final int positionWidth;
+
+    private final int maxPosition;
+
+    private final int externalValue;
+
+    private final int maxCellSize;
+
+    private final int basePos;
+
     private boolean deleted;
 
     private boolean modified;
@@ -58,25 +130,57 @@ public class SlottedBTreePage<K, V> implements BTreePage<K, V> {
 
     private int adPointer;
 
-    private Map<Short, ByteBuffer> overflowMap;
+    private int prefixLength;
+
+    private long base;
+
+    private ByteBuffer spill;
+
+    private int spillPointer;
+
+    private Object[] decodedKeys;
+
+    private long decodedBytes;
 
-    private SlottedBTreePage(FilePager<K, V> pager, int id) throws IOException {
+    private int decodedWeight;
+
+    private SlottedBTreePage(FilePager<K, V> pager, int id, ByteBuffer buffer) {
         this.id = id;
         this.storage = pager.getStorage();
         this.pager = pager;
         this.keySer = pager.getKeySer();
         this.valueSer = pager.getValueSer();
+        this.blockSize = storage.blockSize();
+        this.positionWidth = isWide(blockSize) ? 4 : 2;
+        this.maxPosition = maxPosition(blockSize);
+        this.externalValue = isWide(blockSize) ? WIDE_EXTERNAL_VALUE : MAX_POSITION;
+        this.maxCellSize = blockSize / 4;
+        this.basePos = blockSize - BASE_SIZE;
 
-        this.buffer = ByteBuffer.allocate(BlockStorage.BLOCK_SIZE);
-        this.storage.read(id, this.buffer);
+        this.buffer = buffer;
 
         short flags = buffer.getShort(FLAGS_POS);
         leaf = (flags & FLAG_IS_LEAF) != 0;
         deleted = (flags & FLAG_IS_DELETED) != 0;
+        if((flags & FLAG_HAS_BASE) != 0) {
+            deltaWidth = keySer.integerWidth();
+            if(deltaWidth <= 0) {
+                throw new IllegalStateException("page " + id + " has delta encoded keys but its keys are not integers");
+            }
+            base = buffer.getLong(basePos);
+        }
+        else {
+            deltaWidth = 0;
+        }
+        this.prefixCompression = pager.hasPrefixCompression() && keySer.headerSize() >= 0 && deltaWidth == 0;
 
         size = buffer.getShort(SIZE_POS);
-        adPointer = buffer.getShort(AD_POINTER_POS);
-        usedBytes = buffer.getShort(USED_BYTES_POS);
+        adPointer = buffer.getShort(AD_POINTER_POS) & 0xFFFF;
+        usedBytes = buffer.getShort(USED_BYTES_POS) & 0xFFFF;
+        spillPointer = blockSize;
+        if((flags & FLAG_HAS_PREFIX) != 0) {
+            prefixLength = buffer.getShort(blockSize - 2);
+        }
     }
 
     private SlottedBTreePage(FilePager<K, V> pager, boolean isLeaf) throws IOException {
@@ -84,13 +188,22 @@ public class SlottedBTreePage<K, V> implements BTreePage<K, V> {
         this.pager = pager;
         this.keySer = pager.getKeySer();
         this.valueSer = pager.getValueSer();
+        this.blockSize = storage.blockSize();
+        this.positionWidth = isWide(blockSize) ? 4 : 2;
+        this.maxPosition = maxPosition(blockSize);
+        this.externalValue = isWide(blockSize) ? WIDE_EXTERNAL_VALUE : MAX_POSITION;
+        this.maxCellSize = blockSize / 4;
+        this.basePos = blockSize - BASE_SIZE;
+        this.deltaWidth = pager.hasDeltaEncoding() ? keySer.integerWidth() : 0;
+        this.prefixCompression = pager.hasPrefixCompression() && keySer.headerSize() >= 0 && deltaWidth == 0;
 
         this.id = storage.increase()+1;
-        this.buffer = ByteBuffer.allocate(BlockStorage.BLOCK_SIZE);
+        this.buffer = ByteBuffer.allocate(blockSize);
         this.leaf = isLeaf;
 
-        adPointer = BlockStorage.BLOCK_SIZE;
-        usedBytes = 0;
+        adPointer = deltaWidth > 0 ? basePos : blockSize;
+        spillPointer = blockSize;
+        usedBytes = deltaWidth > 0 ? BASE_SIZE : 0;
         size = 0;
         modified = true;
     }
@@ -116,10 +229,11 @@ public class SlottedBTreePage<K, V> implements BTreePage<K, V> {
         }
 
         setModified(true);
+        clearDecodedKeys();
         if(prevSize < value) {
             size = value;
             if(headerSize() > adPointer) {
-                defragment(prevSize);
+                defragment(prevSize, Integer.MAX_VALUE);
             }
 
             for (int i = prevSize; i < value; i++) {
@@ -136,13 +250,13 @@ public class SlottedBTreePage<K, V> implements BTreePage<K, V> {
     }
 
     private void removeElement(int i) {
-        removeData(keyPos(i), keySer);
-        removeData(valuePos(i), valueSer);
+        removeKey(keyPos(i));
+        removeValue(valuePos(i));
     }
 
     private void resetElement(int i) {
-        keyPos(i, (short) 0);
-        valuePos(i, (short) 0);
+        keyPos(i, 0);
+        valuePos(i, 0);
         if (!leaf) {
             child(i + 1, 0);
         }
@@ -172,17 +286,33 @@ public class SlottedBTreePage<K, V> implements BTreePage<K, V> {
         deleted = value;
         if(deleted) {
             size = 0;
-            adPointer = (short)BlockStorage.BLOCK_SIZE;
-            usedBytes = (short)0;
-            overflowMap = null;
+            adPointer = blockSize;
+            usedBytes = 0;
+            prefixLength = 0;
+            spillPointer = blockSize;
+            spill = null;
+            clearDecodedKeys();
         }
         setModified(true);
     }
 
     public void save() throws IOException {
+        pager.awaitPrefetches();
+        storage.write(id, prepare());
+        setModified(false);
+    }
+
+    /**
+     * Writes the header of this page into its buffer, so the buffer holds the whole page as it
+     * must be written to its block. This is the first half of save, and it does not touch the storage.
+     *
+     * @return the buffer of this page.
+     * @throws IOException if the cells of the page do not fit its block.
+     */
+    ByteBuffer prepare() throws IOException {
         if(!deleted) {
             if (hasOverflow()) {
-                defragment(size);
+                defragment(size, Integer.MAX_VALUE);
             }
             if (hasOverflow()) {
                 throw new IOException("page overflow: usedBytes: " + usedBytes + ", bodySize: " + bodySize());
@@ -192,15 +322,27 @@ public class SlottedBTreePage<K, V> implements BTreePage<K, V> {
         buffer.putShort(SIZE_POS, (short)size);
         buffer.putShort(AD_POINTER_POS, (short)adPointer);
         buffer.putShort(USED_BYTES_POS, (short)usedBytes);
+        if(hasBase()) {
+            buffer.putLong(basePos, base);
+        }
         buffer.position(0);
-        storage.write(id, buffer);
-        setModified(false);
+        return buffer;
     }
 
     public int usedBytes() {
         return usedBytes;
     }
 
+    /**
+     * Gets the weight of this page for the pages cache, a page holding decoded keys counts
+     * one more page for every block size worth of memory estimated for the keys decoded so far.
+     *
+     * @return the amount of cache slots this page takes.
+     */
+    public int cacheWeight() {
+        return decodedKeys == null ? 1 : 1 + decodedWeight;
+    }
+
     private short calcFlags() {
         short flags = (short) 0;
         if(leaf) {
@@ -209,6 +351,12 @@ public class SlottedBTreePage<K, V> implements BTreePage<K, V> {
         if(deleted) {
             flags |= FLAG_IS_DELETED;
         }
+        if(prefixLength > 0) {
+            flags |= FLAG_HAS_PREFIX;
+        }
+        if(hasBase()) {
+            flags |= FLAG_HAS_BASE;
+        }
         return flags;
     }
 
@@ -230,13 +378,17 @@ public class SlottedBTreePage<K, V> implements BTreePage<K, V> {
         return size > 2 && usedBytes > (bodySize() / 2);
     }
 
+    @SuppressWarnings("unchecked")
     @Override
     public K key(int index) {
         checkDeleted();
         if(index < 0 || index >= size) {
             throw new IllegalArgumentException("invalid index=" + index + ", size=" + size);
         }
-        return readData(keyPos(index), keySer);
+        if(decodedKeys != null && decodedKeys[index] != null) {
+            return (K) decodedKeys[index];
+        }
+        return readKey(keyPos(index));
     }
 
     @Override
@@ -246,11 +398,29 @@ public class SlottedBTreePage<K, V> implements BTreePage<K, V> {
             throw new IllegalArgumentException("invalid index=" + index + ", size=" + size);
         }
 
-        removeData(keyPos(index), keySer);
-        keyPos(index, appendData(data, keySer));
+        clearDecodedKeys();
+        removeKey(keyPos(index));
+        keyPos(index, 0);
+        keyPos(index, appendKey(data));
         setModified(true);
     }
 
+    @SuppressWarnings("unchecked")
+    @Override
+    public int compare(int index, K key) {
+        checkDeleted();
+        if(index < 0 || index >= size) {
+            throw new IllegalArgumentException("invalid index=" + index + ", size=" + size);
+        }
+        if(decodedKeys == null && !leaf && pager.hasKeyCache()) {
+            decodedKeys = new Object[size];
+        }
+        if(decodedKeys != null) {
+            return ((Comparable<K>) decodedKey(index)).compareTo(key);
+        }
+        return keySer.compare(keyData(keyPos(index)), key);
+    }
+
     @Override
     public V value(int index) {
         checkDeleted();
@@ -258,7 +428,29 @@ public class SlottedBTreePage<K, V> implements BTreePage<K, V> {
             throw new IllegalArgumentException("invalid index=" + index + ", size=" + size);
         }
 
-        return readData(valuePos(index), valueSer);
+        return readValue(valuePos(index));
+    }
+
+    /**
+     * Values stored in the page are returned as a slice of the page buffer, values stored out of
+     * the page are read into a new buffer since they are not held in memory by the page.
+     */
+    @Override
+    public ByteBuffer valueBuffer(int index) {
+        checkDeleted();
+        if(index < 0 || index >= size) {
+            throw new IllegalArgumentException("invalid index=" + index + ", size=" + size);
+        }
+
+        int pointer = valuePos(index);
+        if(isExternal(pointer)) {
+            return externalData(pointer).asReadOnlyBuffer();
+        }
+
+        ByteBuffer data = dataBuffer(pointer);
+        int start = data.position();
+        int length = valueSer.size(data);
+        return data.duplicate().position(start).limit(start + length).slice().asReadOnlyBuffer();
     }
 
     @Override
@@ -268,17 +460,18 @@ public class SlottedBTreePage<K, V> implements BTreePage<K, V> {
             throw new IllegalArgumentException("invalid index=" + index + ", size=" + size);
         }
 
-        int pos = valuePos(index);
-        removeData(pos, valueSer);
-        valuePos(index, appendData(data, valueSer));
+        removeValue(valuePos(index));
+        valuePos(index, 0);
+        valuePos(index, appendValue(index, data));
         setModified(true);
     }
 
     @Override
     public void swap(int i, int j) {
         checkDeleted();
-        short key = keyPos(i);
-        short value = valuePos(i);
+        clearDecodedKeys();
+        int key = keyPos(i);
+        int value = valuePos(i);
 
         keyPos(i, keyPos(j));
         valuePos(i, valuePos(j));
@@ -288,6 +481,136 @@ public class SlottedBTreePage<K, V> implements BTreePage<K, V> {
         setModified(true);
     }
 
+    @Override
+    public void shift(int index, int delta) {
+        checkDeleted();
+        if(index < 0 || index > size || index + delta < 0) {
+            throw new IllegalArgumentException("invalid index=" + index + ", delta=" + delta + ", size=" + size);
+        }
+        for (int i = index + delta; i < index; i++) {
+            removeElement(i);
+        }
+        moveSlots(index, delta);
+        clearDecodedKeys();
+    }
+
+    @Override
+    public void moveCells(BTreePage<K, V> source, int from, int count) {
+        checkDeleted();
+        if(!(source instanceof SlottedBTreePage) || ((SlottedBTreePage<K, V>) source).pager != pager) {
+            BTreePage.super.moveCells(source, from, count);
+            return;
+        }
+
+        var page = (SlottedBTreePage<K, V>) source;
+        page.checkDeleted();
+        if(from < 0 || count < 0 || from + count > page.size) {
+            throw new IllegalArgumentException("invalid from=" + from + ", count=" + count + ", size=" + page.size);
+        }
+
+        int prevSize = size;
+        size(prevSize + count);
+        for (int i = 0; i < count; i++) {
+            keyPos(prevSize + i, copyKey(page, page.keyPos(from + i)));
+            valuePos(prevSize + i, copyValue(page, page.valuePos(from + i)));
+            page.detachElement(from + i);
+            if(!leaf) {
+                buffer.putInt(elementPos(prevSize + i), page.buffer.getInt(page.elementPos(from + i)));
+            }
+        }
+        if(!leaf) {
+            buffer.putInt(elementPos(prevSize + count), page.buffer.getInt(page.elementPos(from + count)));
+            page.buffer.putInt(page.elementPos(from + count), page.buffer.getInt(page.elementPos(from)));
+        }
+        page.moveSlots(from + count, -count);
+        clearDecodedKeys();
+        setModified(true);
+    }
+
+    /**
+     * Moves the slots of the elements from the given index to the end of the page by the given
+     * amount of places with a single copy of the page header, see {@link BTreePage#shift(int, int)}.
+     * The cells of the elements being overwritten by a negative delta must already be released.
+     */
+    private void moveSlots(int index, int delta) {
+        if(delta == 0) {
+            return;
+        }
+
+        int prevSize = size;
+        if(delta > 0) {
+            size(prevSize + delta);
+        }
+        clearDecodedKeys();
+
+        byte[] array = buffer.array();
+        int from = elementPos(index);
+        int length = elementPos(prevSize) - from + (leaf ? 0 : 4);
+        System.arraycopy(array, from, array, elementPos(index + delta), length);
+
+        if(delta > 0) {
+            for (int i = index; i < index + delta; i++) {
+                keyPos(i, 0);
+                valuePos(i, 0);
+            }
+        }
+        else {
+            size = prevSize + delta;
+        }
+        setModified(true);
+    }
+
+    /**
+     * Appends a copy of the raw key cell of the given page, the key is rebuilt with the prefix
+     * of the source page and stripped again with the prefix of this page.
+     */
+    private int copyKey(SlottedBTreePage<K, V> source, int position) {
+        if(position == 0) {
+            return 0;
+        }
+
+        ByteBuffer data = source.keyData(position);
+        int start = data.position();
+        int byteCount = keySer.size(data);
+        System.arraycopy(data.array(), start, pager.cellBuffer().array(), 0, byteCount);
+        return appendSerializedKey(byteCount);
+    }
+
+    /**
+     * Appends a copy of the raw value cell of the given page, external cells are copied as they
+     * are so the referenced data is not written again.
+     */
+    private int copyValue(SlottedBTreePage<K, V> source, int pointer) {
+        if(pointer == 0) {
+            return 0;
+        }
+
+        ByteBuffer data = source.dataBuffer(cellPos(pointer));
+        int start = data.position();
+        int length = isExternal(pointer) ? externalSize(data.get(start)) : valueSer.size(data);
+        byte[] bytes = pager.cellBuffer().array();
+        System.arraycopy(data.array(), start, bytes, 0, length);
+        int position = appendRaw(bytes, length);
+        return isExternal(pointer) ? position ^ externalValue : position;
+    }
+
+    /**
+     * Releases the cells of the element at the given index after they have been copied to another
+     * page, the external data they reference is kept since the copies still reference it.
+     */
+    private void detachElement(int index) {
+        removeKey(keyPos(index));
+        int pointer = valuePos(index);
+        if(isExternal(pointer)) {
+            releaseData(cellPos(pointer), externalSize(dataBuffer(cellPos(pointer)).get()));
+        }
+        else {
+            removeData(pointer, valueSer);
+        }
+        keyPos(index, 0);
+        valuePos(index, 0);
+    }
+
     @Override
     public int child(int index) {
         checkDeleted();
@@ -315,157 +638,746 @@ public class SlottedBTreePage<K, V> implements BTreePage<K, V> {
         setModified(true);
     }
 
-    private short keyPos(int index) {
+    private int keyPos(int index) {
         int pos = leaf ? 0 : 4;
-        return buffer.getShort(elementPos(index) + pos);
+        return position(elementPos(index) + pos);
     }
 
-    private void keyPos(int index, short value) {
-        if(value >= BlockStorage.BLOCK_SIZE) {
+    private void keyPos(int index, int value) {
+        if(value < 0 || value >= maxPosition) {
             throw new IllegalArgumentException("invalid key pointer: " + value + " index=" + index);
         }
         int pos = leaf ? 0 : 4;
-        buffer.putShort(elementPos(index) + pos, value);
+        position(elementPos(index) + pos, value);
     }
 
-    private short valuePos(int index) {
-        int relPos = leaf ? 2 : 6;
+    private int valuePos(int index) {
+        int relPos = leaf ? positionWidth : 4 + positionWidth;
         int bytePos = elementPos(index) + relPos;
-        return buffer.getShort(bytePos);
+        return position(bytePos);
     }
 
-    private void valuePos(int index, short value) {
-        if(value >= BlockStorage.BLOCK_SIZE) {
+    private void valuePos(int index, int value) {
+        if(value < 0) {
             throw new IllegalArgumentException("invalid value pointer: " + value + " index=" + index);
         }
-        int relPos = leaf ? 2 : 6;
+        int relPos = leaf ? positionWidth : 4 + positionWidth;
         int buffPos = elementPos(index) + relPos;
-        buffer.putShort(buffPos, value);
+        position(buffPos, value);
     }
 
-    private <T> short appendData(T value, Serializer<T> ser) {
-        int byteCount = ser.size(value);
-        if(byteCount > BlockStorage.BLOCK_SIZE / 4) {
-            throw new IllegalArgumentException("invalid data size");
+    private int position(int bytePos) {
+        return positionWidth == 2 ? buffer.getShort(bytePos) : buffer.getInt(bytePos);
+    }
+
+    private void position(int bytePos, int value) {
+        if(positionWidth == 2) {
+            buffer.putShort(bytePos, (short) value);
+        }
+        else {
+            buffer.putInt(bytePos, value);
         }
+    }
 
-        short position = (short)(adPointer - byteCount);
-        if(position <= headerSize()) {
-            position = overflow(value, ser);
+    /**
+     * Appends the value of the element at the given index to the page, when the pager has a value log
+     * every value larger than a log cell is appended to the log along with the key of the element,
+     * which must be set first, otherwise values larger than the maximum cell size are
+     * spilled into a chain of overflow blocks. In both cases the page only stores an external cell
+     * holding the kind of the cell, the reference to the data and the length of the value.
+     *
+     * @return the position of the cell, with the external flag toggled for external values.
+     */
+    private int appendValue(int index, V value) {
+        ByteBuffer data = pager.cellBuffer();
+        data.clear();
+        int byteCount = encode(data, value, valueSer);
+        ValueLog log = pager.valueLog();
+        if(byteCount >= 0 && byteCount <= (log == null ? maxCellSize : LOG_CELL_SIZE)) {
+            return appendRaw(data.array(), byteCount);
+        }
+
+        if(byteCount < 0) {
+            byteCount = valueSer.size(value);
+            data = ByteBuffer.allocate(byteCount);
+            valueSer.write(data, value);
+        }
+        data.flip();
+        try {
+            if(log != null) {
+                return appendExternal(EXTERNAL_LOG, log.append(data, serializedKey(index)), byteCount);
+            }
+            return appendExternal(EXTERNAL_OVERFLOW, pager.writeOverflow(data), byteCount);
+        }
+        catch (IOException ex) {
+            throw new IllegalStateException(ex.getMessage(), ex);
+        }
+    }
+
+    private int appendExternal(byte kind, long reference, int length) {
+        ByteBuffer cell = ByteBuffer.allocate(externalSize(kind));
+        cell.put(kind);
+        if(kind == EXTERNAL_LOG) {
+            cell.putLong(reference);
         }
         else {
-            buffer.position(position);
-            ser.write(buffer, value);
-            adPointer = position;
+            cell.putInt((int) reference);
         }
+        cell.putInt(length);
+        return appendExternal(cell.array());
+    }
 
-        usedBytes += byteCount;
-        return position;
+    private int appendExternal(byte[] cell) {
+        return appendRaw(cell, cell.length) ^ externalValue;
     }
 
-    private <T> T readData(int position, Serializer<T> ser) {
-        if(position == 0 || position >= BlockStorage.BLOCK_SIZE) {
-            throw new IllegalArgumentException("invalid position: " + position);
+    private byte[] externalCell(int pointer) {
+        ByteBuffer data = dataBuffer(cellPos(pointer));
+        int start = data.position();
+        byte[] cell = new byte[externalSize(data.get(start))];
+        System.arraycopy(data.array(), start, cell, 0, cell.length);
+        return cell;
+    }
+
+    private static int externalSize(byte kind) {
+        return kind == EXTERNAL_LOG ? LOG_CELL_SIZE : OVERFLOW_CELL_SIZE;
+    }
+
+    private V readValue(int pointer) {
+        if(!isExternal(pointer)) {
+            return readData(pointer, valueSer);
+        }
+
+        return read(externalData(pointer), valueSer);
+    }
+
+    private ByteBuffer externalData(int pointer) {
+        ByteBuffer cell = ByteBuffer.wrap(externalCell(pointer));
+        byte kind = cell.get();
+        try {
+            if(kind == EXTERNAL_LOG) {
+                long reference = cell.getLong();
+                return valueLog().read(reference, cell.getInt());
+            }
+            int block = cell.getInt();
+            return pager.readOverflow(block, cell.getInt());
+        }
+        catch (IOException ex) {
+            throw new IllegalStateException(ex.getMessage(), ex);
         }
+    }
 
-        T result;
-        if(position < 0) {
-            ByteBuffer buffer = overflowMap.get((short) position);
-            buffer.position(0);
-            result = ser.read(buffer);
+    /**
+     * Copies the complete serialized form of the key at the given index, without going through the
+     * key serializer, so serializers with state are not affected.
+     */
+    private ByteBuffer serializedKey(int index) {
+        ByteBuffer data = keyData(keyPos(index));
+        int start = data.position();
+        int length = keySer.size(data);
+        ByteBuffer key = ByteBuffer.allocate(length);
+        key.put(data.duplicate().position(start).limit(start + length));
+        key.flip();
+        return key;
+    }
+
+    private void removeValue(int pointer) {
+        if(isExternal(pointer)) {
+            ByteBuffer cell = ByteBuffer.wrap(externalCell(pointer));
+            if(cell.get() == EXTERNAL_LOG) {
+                long reference = cell.getLong();
+                try {
+                    valueLog().release(reference, cell.getInt());
+                }
+                catch (IOException ex) {
+                    throw new IllegalStateException(ex.getMessage(), ex);
+                }
+            }
+            releaseData(cellPos(pointer), cell.capacity());
         }
         else {
-            buffer.position(position);
-            result = ser.read(buffer);
+            removeData(pointer, valueSer);
+        }
+    }
+
+    private ValueLog valueLog() {
+        ValueLog log = pager.valueLog();
+        if(log == null) {
+            throw new IllegalStateException("the value log of the page is not open");
+        }
+        return log;
+    }
+
+    /**
+     * Copies the value at the given index to the head of the value log if it is stored in the
+     * record at the given pointer, and updates the external cell to reference the new copy.
+     *
+     * @param index the index of the element.
+     * @param reference the pointer to the record being relocated.
+     * @return true if the value was relocated, false if the element references another value.
+     * @throws IOException if any I/O error occurs copying the value.
+     */
+    boolean relocateValue(int index, long reference) throws IOException {
+        checkDeleted();
+        int pointer = valuePos(index);
+        if(!isExternal(pointer)) {
+            return false;
+        }
+
+        ByteBuffer cell = dataBuffer(cellPos(pointer));
+        int start = cell.position();
+        if(cell.get(start) != EXTERNAL_LOG || cell.getLong(start + 1) != reference) {
+            return false;
+        }
+        cell.putLong(start + 1, valueLog().relocate(reference, cell.getInt(start + 9)));
+        setModified(true);
+        return true;
+    }
+
+    /**
+     * Determines if the given value pointer references an external cell, external cells are
+     * flagged by setting the external bit of their position, cell positions are always
+     * below the max position so the bit is never set otherwise.
+     */
+    private boolean isExternal(int pointer) {
+        return (pointer & externalValue) != 0;
+    }
+
+    private int cellPos(int pointer) {
+        return pointer & ~externalValue;
+    }
+
+    /**
+     * Appends the given key to the page, the common prefix of the page is removed from the
+     * serialized key so the cell only holds the key header followed by the remaining suffix.
+     * If the key does not share the whole prefix, the prefix of the page is shortened first.
+     */
+    private int appendKey(K key) {
+        ByteBuffer cell = pager.cellBuffer();
+        cell.clear();
+        int byteCount = encode(cell, key, keySer);
+        if(byteCount < 0 || byteCount > maxCellSize) {
+            throw new IllegalArgumentException("invalid data size");
+        }
+        return appendSerializedKey(byteCount);
+    }
+
+    /**
+     * Encodes the given value at the start of the given buffer, each value is encoded a single
+     * time and then copied into the page, since its size is only known once it is encoded.
+     *
+     * @return the amount of bytes written, or -1 if the value does not fit in the buffer.
+     */
+    private static <T> int encode(ByteBuffer buffer, T value, Serializer<T> ser) {
+        try {
+            return ser.encode(buffer, value);
+        }
+        catch (BufferOverflowException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Appends the serialized key held at the start of the cell buffer of the pager, stripping the
+     * common prefix of the page.
+     */
+    private int appendSerializedKey(int byteCount) {
+        byte[] bytes = pager.cellBuffer().array();
+        if(deltaWidth > 0) {
+            return appendDeltaKey(bytes, byteCount);
+        }
+        if(prefixLength == 0 && !prefixCompression) {
+            return appendRaw(bytes, byteCount);
+        }
+
+        int header = keySer.headerSize();
+        boolean compacted = false;
+        while (true) {
+            int common = commonPrefix(bytes, header, byteCount);
+            if(common < prefixLength) {
+                defragment(size, common);
+            }
+
+            int cellSize = byteCount - prefixLength;
+            if(compacted || adPointer - cellSize > headerSize() || !canCompact(cellSize)) {
+                break;
+            }
+            compacted = true;
+            defragment(size, Integer.MAX_VALUE);
         }
 
+        int cellSize = byteCount - prefixLength;
+        System.arraycopy(bytes, header + prefixLength, bytes, header, cellSize - header);
+        int position = allocate(cellSize);
+        ByteBuffer data = dataBuffer(position);
+        System.arraycopy(bytes, 0, data.array(), data.position(), cellSize);
+        return position;
+    }
+
+    /**
+     * Appends the given serialized integer key as the zigzag varint of its difference with the base
+     * of the page. A page without cells takes the key as its base, and compactions may move the base
+     * to the middle key, so the delta is computed once the page has been compacted.
+     */
+    private int appendDeltaKey(byte[] bytes, int byteCount) {
+        if(byteCount != deltaWidth) {
+            throw new IllegalArgumentException("invalid integer key size: " + byteCount);
+        }
+
+        long key = integerKey(bytes, 0);
+        if(usedBytes == BASE_SIZE) {
+            base = key;
+        }
+        compactFor(deltaSize(key - base));
+
+        int length = writeDelta(bytes, 0, key - base);
+        int position = allocate(length);
+        ByteBuffer data = dataBuffer(position);
+        System.arraycopy(bytes, 0, data.array(), data.position(), length);
+        return position;
+    }
+
+    private int appendRaw(byte[] bytes, int length) {
+        compactFor(length);
+        int position = allocate(length);
+        ByteBuffer data = dataBuffer(position);
+        System.arraycopy(bytes, 0, data.array(), data.position(), length);
+        return position;
+    }
+
+    private K readKey(int position) {
+        return read(keyData(position), keySer);
+    }
+
+    private <T> T readData(int position, Serializer<T> ser) {
+        return read(dataBuffer(position), ser);
+    }
+
+    private <T> T read(ByteBuffer data, Serializer<T> ser) {
+        T result = ser.read(data);
         if(result == null) {
             throw new IllegalStateException("could not read correct value");
         }
         return result;
     }
 
+    private ByteBuffer dataBuffer(int position) {
+        if(position <= 0 || position >= spillPointer) {
+            throw new IllegalArgumentException("invalid position: " + position);
+        }
+
+        if(position >= blockSize) {
+            spill.position(position - blockSize);
+            return spill;
+        }
+        buffer.position(position);
+        return buffer;
+    }
+
+    /**
+     * Gets a buffer positioned at the complete serialized form of the key stored at the given
+     * position, if the page has a common prefix the key is rebuilt in the key buffer of the pager.
+     */
+    private ByteBuffer keyData(int position) {
+        ByteBuffer data = dataBuffer(position);
+        if(deltaWidth > 0) {
+            ByteBuffer key = pager.keyBuffer();
+            key.clear();
+            long value = base + readDelta(data.array(), data.position());
+            for (int shift = (deltaWidth - 1) * 8; shift >= 0; shift -= 8) {
+                key.put((byte) (value >>> shift));
+            }
+            key.flip();
+            return key;
+        }
+        if(prefixLength == 0) {
+            return data;
+        }
+
+        int start = data.position();
+        int header = keySer.headerSize();
+        int cellSize = keySer.size(data) - prefixLength;
+
+        ByteBuffer key = pager.keyBuffer();
+        key.clear();
+        key.put(data.array(), start, header);
+        key.put(buffer.array(), prefixPos(), prefixLength);
+        key.put(data.array(), start + header, cellSize - header);
+        key.flip();
+        return key;
+    }
+
+    private void removeKey(int position) {
+        if(position == 0) {
+            return;
+        }
+        ByteBuffer data = dataBuffer(position);
+        if(deltaWidth > 0) {
+            releaseData(position, deltaSize(data.array(), data.position()));
+        }
+        else {
+            releaseData(position, keySer.size(data) - prefixLength);
+        }
+    }
+
     private <T> void removeData(int position, Serializer<T> ser) {
+        if(position != 0) {
+            releaseData(position, ser.size(dataBuffer(position)));
+        }
+    }
+
+    private void releaseData(int position, int bytes) {
         if(position == 0) {
             return;
         }
+        if (position < adPointer || position >= spillPointer) {
+            throw new IllegalArgumentException("invalid position: write position=" + position + ", adpointer=" + adPointer);
+        }
+        usedBytes -= bytes;
+    }
+
+    /**
+     * Reserves the given amount of bytes for a new cell, cells are allocated downwards from the
+     * allocation pointer, when the block has no room left the cell is placed in the spill area
+     * instead, which is moved back into the block by the next compaction.
+     *
+     * @return the position of the new cell, positions of the spill area start at the block size.
+     */
+    private int allocate(int bytes) {
+        int position = adPointer - bytes;
+        if(position > headerSize()) {
+            adPointer = position;
+        }
+        else {
+            position = spillPointer;
+            ensureSpill(position + bytes);
+            spillPointer += bytes;
+        }
+        usedBytes += bytes;
+        return position;
+    }
+
+    private void ensureSpill(int end) {
+        if(end >= maxPosition) {
+            throw new IllegalStateException("page data overflow");
+        }
+
+        int capacity = end - blockSize;
+        if(spill == null || spill.capacity() < capacity) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(capacity, spill == null ? maxCellSize : spill.capacity() * 2));
+            if(spill != null) {
+                System.arraycopy(spill.array(), 0, bigger.array(), 0, spillPointer - blockSize);
+            }
+            spill = bigger;
+        }
+    }
+
+    /**
+     * Compacts the page if a cell of the given size does not fit in the block as is, but would
+     * fit once the space of the removed cells is reclaimed.
+     */
+    private void compactFor(int bytes) {
+        if(adPointer - bytes <= headerSize() && canCompact(bytes)) {
+            defragment(size, Integer.MAX_VALUE);
+        }
+    }
+
+    private boolean canCompact(int bytes) {
+        return usedBytes + bytes < bodySize();
+    }
+
+    /**
+     * Moves the raw bytes of every cell of the first elements of the page contiguously to the end
+     * of the block, through the compaction buffer of the pager. Cell lengths are taken from the
+     * serialized data, so nothing is deserialized. Cells that do not fit in the block are kept in
+     * the spill area. When prefix compression is enabled the common prefix of the keys is
+     * recalculated, it will not be longer than the given limit.
+     */
+    private void defragment(int size, int prefixLimit) {
+        byte[] scratch = pager.compactBuffer().array();
+        int header = keySer.headerSize();
+        int prefix = prefixCompression ? keysPrefix(size, prefixLimit, scratch) : 0;
+        long newBase = deltaWidth > 0 ? keysBase(size) : 0;
+        int limit = headerSize();
+        int top = blockSize;
+        int bottom = blockSize;
+        int used = 0;
+
+        if(deltaWidth > 0) {
+            top -= BASE_SIZE;
+            used = BASE_SIZE;
+        }
+
+        if(prefix > 0) {
+            top -= prefix + 2;
+            System.arraycopy(scratch, 0, scratch, top, prefix);
+            scratch[blockSize - 2] = (byte) (prefix >>> 8);
+            scratch[blockSize - 1] = (byte) prefix;
+            used = prefix + 2;
+        }
+
+        for(int i = 0; i < size; i++) {
+            int keyPointer = keyPos(i);
+            if(keyPointer != 0) {
+                ByteBuffer data = keyData(keyPointer);
+                int start = data.position();
+                long delta = deltaWidth > 0 ? integerKey(data.array(), start) - newBase : 0;
+                int length = deltaWidth > 0 ? deltaSize(delta) : keySer.size(data) - prefix;
+                int position = top - length > limit ? top - length : bottom;
+                if(deltaWidth > 0) {
+                    writeDelta(scratch, position, delta);
+                }
+                else if(prefix == 0) {
+                    System.arraycopy(data.array(), start, scratch, position, length);
+                }
+                else {
+                    System.arraycopy(data.array(), start, scratch, position, header);
+                    System.arraycopy(data.array(), start + header + prefix, scratch, position + header, length - header);
+                }
+                keyPos(i, position);
+                used += length;
+                if(position == bottom) {
+                    bottom = checkSpill(bottom + length);
+                }
+                else {
+                    top = position;
+                }
+            }
 
-        if(position > 0) {
-            if (position < adPointer || position >= BlockStorage.BLOCK_SIZE) {
-                throw new IllegalArgumentException("invalid position: write position=" + position + ", adpointer=" + adPointer);
+            int valuePointer = valuePos(i);
+            if(valuePointer != 0) {
+                ByteBuffer data = dataBuffer(cellPos(valuePointer));
+                int start = data.position();
+                int length = isExternal(valuePointer) ? externalSize(data.get(start)) : valueSer.size(data);
+                int position = top - length > limit ? top - length : bottom;
+                System.arraycopy(data.array(), start, scratch, position, length);
+                valuePos(i, isExternal(valuePointer) ? position ^ externalValue : position);
+                used += length;
+                if(position == bottom) {
+                    bottom = checkSpill(bottom + length);
+                }
+                else {
+                    top = position;
+                }
             }
         }
 
-        int bytes;
-        if(position < 0) {
-            bytes = overflowMap.get((short) position).capacity();
-            overflowMap.remove((short) position);
+        System.arraycopy(scratch, top, buffer.array(), top, blockSize - top);
+        if(bottom > blockSize) {
+            spillPointer = blockSize;
+            ensureSpill(bottom);
+            System.arraycopy(scratch, blockSize, spill.array(), 0, bottom - blockSize);
         }
         else {
-            buffer.position(position);
-            bytes = ser.size(buffer);
+            spill = null;
         }
-        usedBytes -= bytes;
+        spillPointer = bottom;
+        adPointer = top;
+        prefixLength = prefix;
+        base = newBase;
+        usedBytes = used;
     }
 
-    private void defragment(int size) {
-        List<K> keys = new ArrayList<>(size);
-        List<V> values = new ArrayList<>(size);
-        for(int i = 0; i < size; i++) {
-            keys.add(readData(keyPos(i), keySer));
-            values.add(readData(valuePos(i), valueSer));
+    private int checkSpill(int end) {
+        if(end >= maxPosition) {
+            throw new IllegalStateException("page data overflow");
         }
-        usedBytes = 0;
-        adPointer = BlockStorage.BLOCK_SIZE;
-        overflowMap = null;
-        for(int i = 0; i < size; i++) {
-            keyPos(i, appendData(keys.get(i), keySer));
-            valuePos(i, appendData(values.get(i), valueSer));
+        return end;
+    }
+
+    /**
+     * Calculates the longest common prefix of the first keys of the page, excluding their
+     * headers and not longer than the given limit, the prefix is left at the start of the
+     * given scratch array. Pages with less than two keys have no prefix.
+     */
+    private int keysPrefix(int size, int limit, byte[] scratch) {
+        int header = keySer.headerSize();
+        int length = 0;
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            int keyPointer = keyPos(i);
+            if(keyPointer == 0) {
+                continue;
+            }
+
+            ByteBuffer data = keyData(keyPointer);
+            int start = data.position() + header;
+            int bodyLength = keySer.size(data) - header;
+            byte[] bytes = data.array();
+            if(count == 0) {
+                length = Math.min(bodyLength, limit);
+                System.arraycopy(bytes, start, scratch, 0, length);
+            }
+            else {
+                int max = Math.min(length, bodyLength);
+                length = 0;
+                while (length < max && scratch[length] == bytes[start + length]) {
+                    length++;
+                }
+            }
+            count++;
         }
+        return count < 2 ? 0 : length;
     }
 
-    private <T> short overflow(T value, Serializer<T> ser) {
-        if(overflowMap == null) {
-            overflowMap = new HashMap<>();
+    /**
+     * Chooses the base for the delta encoded keys of the first elements of the page, the middle key
+     * is taken unless the keys would take more bytes than they do with the current base, this way
+     * an outlier key never makes the page grow when it is compacted.
+     */
+    private long keysBase(int size) {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if(keyPos(i) != 0) {
+                count++;
+            }
+        }
+        if(count == 0) {
+            return base;
         }
 
-        if(overflowMap.size() >= Short.MAX_VALUE) {
-            throw new IllegalStateException("page data overflow");
+        long middle = 0;
+        for (int i = 0, seen = 0; i < size; i++) {
+            int keyPointer = keyPos(i);
+            if(keyPointer != 0 && seen++ == count / 2) {
+                ByteBuffer data = keyData(keyPointer);
+                middle = integerKey(data.array(), data.position());
+                break;
+            }
         }
 
-        int size = ser.size(value);
-        ByteBuffer bb = ByteBuffer.allocate(size);
-        ser.write(bb, value);
-        var key = overflowMap.keySet()
-                .stream()
-                .min(Short::compareTo)
-                .orElse((short)0);
-        key--;
-        if(key >= BlockStorage.BLOCK_SIZE) {
-            throw new IllegalArgumentException("invalid appendData position generated: " + key);
+        int current = 0;
+        int candidate = 0;
+        for (int i = 0; i < size; i++) {
+            int keyPointer = keyPos(i);
+            if(keyPointer != 0) {
+                ByteBuffer data = keyData(keyPointer);
+                long key = integerKey(data.array(), data.position());
+                current += deltaSize(key - base);
+                candidate += deltaSize(key - middle);
+            }
+        }
+        return candidate < current ? middle : base;
+    }
+
+    private long integerKey(byte[] bytes, int position) {
+        long value = bytes[position];
+        for (int i = 1; i < deltaWidth; i++) {
+            value = (value << 8) | (bytes[position + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static int deltaSize(long delta) {
+        long zigzag = (delta << 1) ^ (delta >> 63);
+        return (70 - Long.numberOfLeadingZeros(zigzag | 1)) / 7;
+    }
+
+    private static int deltaSize(byte[] bytes, int position) {
+        int end = position;
+        while ((bytes[end] & 0x80) != 0) {
+            end++;
+        }
+        return end - position + 1;
+    }
+
+    private static int writeDelta(byte[] bytes, int position, long delta) {
+        long zigzag = (delta << 1) ^ (delta >> 63);
+        int end = position;
+        while ((zigzag & ~0x7FL) != 0) {
+            bytes[end++] = (byte) (zigzag | 0x80);
+            zigzag >>>= 7;
+        }
+        bytes[end++] = (byte) zigzag;
+        return end - position;
+    }
+
+    private static long readDelta(byte[] bytes, int position) {
+        long zigzag = 0;
+        int shift = 0;
+        byte current;
+        do {
+            current = bytes[position++];
+            zigzag |= (long) (current & 0x7F) << shift;
+            shift += 7;
+        } while (current < 0);
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    private boolean hasBase() {
+        return deltaWidth > 0 && !deleted;
+    }
+
+    private int commonPrefix(byte[] bytes, int from, int to) {
+        int max = Math.min(prefixLength, to - from);
+        int start = prefixPos();
+        byte[] page = buffer.array();
+        for (int i = 0; i < max; i++) {
+            if(page[start + i] != bytes[from + i]) {
+                return i;
+            }
+        }
+        return max;
+    }
+
+    private int prefixPos() {
+        return blockSize - 2 - prefixLength;
+    }
+
+    /**
+     * Gets the decoded key of the given element, decoding it the first time it is compared, so only
+     * the keys that were searched are held, and a slot is never decoded before it is written. The
+     * decoded keys are dropped whenever the slots of the page change.
+     */
+    private Object decodedKey(int index) {
+        Object key = decodedKeys[index];
+        if(key == null) {
+            ByteBuffer data = keyData(keyPos(index));
+            int start = data.position();
+            decodedBytes += keySer.size(data) + DECODED_KEY_OVERHEAD;
+            data.position(start);
+            key = read(data, keySer);
+            decodedKeys[index] = key;
+
+            int weight = (int) ((decodedBytes + blockSize - 1) / blockSize);
+            if(weight != decodedWeight) {
+                decodedWeight = weight;
+                pager.pageWeightChanged(this);
+            }
         }
-        overflowMap.put(key,  bb);
         return key;
     }
 
+    private void clearDecodedKeys() {
+        if(decodedKeys != null) {
+            decodedKeys = null;
+            decodedBytes = 0;
+            decodedWeight = 0;
+            pager.pageWeightChanged(this);
+        }
+    }
+
     private int elementPos(int index) {
-        int elementSize = leaf ? 4 : 8;
-        return ELEMENTS_POS + (index * elementSize);
+        return ELEMENTS_POS + (index * elementSize());
+    }
+
+    private int elementSize() {
+        return leaf ? 2 * positionWidth : 4 + 2 * positionWidth;
     }
 
     private int headerSize() {
         if(leaf) {
-            return ELEMENTS_POS + (size * 4);
+            return ELEMENTS_POS + (size * elementSize());
         }
-        return ELEMENTS_POS + (size * 8) + 4;
+        return ELEMENTS_POS + (size * elementSize()) + 4;
     }
 
     private int bodySize() {
-        return BlockStorage.BLOCK_SIZE - headerSize();
+        return blockSize - headerSize();
     }
 
     private boolean hasOverflow() {
-        return overflowMap != null;
+        return spillPointer > blockSize;
     }
 
     private void checkDeleted() {
@@ -11,14 +11,23 @@ import java.nio.ByteBuffer;
 public class BigIntegerSerializer implements Serializer<BigInteger> {
     public static final BigIntegerSerializer INSTANCE = new BigIntegerSerializer();
 
+    @Override
+    public int headerSize() {
+        return 1;
+    }
+
     @Override
     public int size(ByteBuffer buffer) {
         return buffer.get()+1;
     }
 
+    /**
+     * The length of the two's complement form is derived from the bit length, so the value
+     * is only converted to bytes when it is written.
+     */
     @Override
     public int size(BigInteger value) {
-        return value.toByteArray().length+1;
+        return value.bitLength() / 8 + 2;
     }
 
     @Override
@@ -10,6 +10,11 @@ import java.nio.ByteBuffer;
 public class BooleanSerializer implements Serializer<Boolean> {
     public static final BooleanSerializer INSTANCE = new BooleanSerializer();
 
+    @Override
+    public int headerSize() {
+        return 0;
+    }
+
     @Override
     public int size(ByteBuffer buffer) {
         return 1;
@@ -29,4 +34,9 @@ public class BooleanSerializer implements Serializer<Boolean> {
     public void write(ByteBuffer buffer, Boolean value) {
         buffer.put(value ? (byte) 1 : (byte) 0 );
     }
+
+    @Override
+    public int compare(ByteBuffer buffer, Boolean value) {
+        return Boolean.compare(buffer.get() == 1, value);
+    }
 }
@@ -10,6 +10,11 @@ import java.nio.ByteBuffer;
 public class ByteSerializer implements Serializer<Byte> {
     public static final ByteSerializer INSTANCE = new ByteSerializer();
 
+    @Override
+    public int headerSize() {
+        return 0;
+    }
+
     @Override
     public int size(ByteBuffer buffer) {
         return 1;
@@ -29,4 +34,9 @@ public class ByteSerializer implements Serializer<Byte> {
     public void write(ByteBuffer buffer, Byte value) {
         buffer.put(value);
     }
+
+    @Override
+    public int compare(ByteBuffer buffer, Byte value) {
+        return Byte.compare(buffer.get(), value);
+    }
 }
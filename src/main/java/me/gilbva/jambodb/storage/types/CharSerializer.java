@@ -10,6 +10,11 @@ import java.nio.ByteBuffer;
 public class CharSerializer implements Serializer<Character> {
     public static final CharSerializer INSTANCE = new CharSerializer();
 
+    @Override
+    public int headerSize() {
+        return 0;
+    }
+
     @Override
     public int size(ByteBuffer buffer) {
         return 2;
@@ -29,4 +34,9 @@ public class CharSerializer implements Serializer<Character> {
     public void write(ByteBuffer buffer, Character value) {
         buffer.putChar(value);
     }
+
+    @Override
+    public int compare(ByteBuffer buffer, Character value) {
+        return Character.compare(buffer.getChar(), value);
+    }
 }
@@ -0,0 +1,220 @@
+package me.gilbva.jambodb.storage.types;
+
+import me.gilbva.jambodb.storage.btrees.StatefulSerializer;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dictionary encoded serializer for java.lang.String, strings found in the dictionary are stored as
+ * their id in one byte for the first 128 entries and two bytes for the rest, other strings are stored
+ * inline with a three bytes header followed by their UTF-8 bytes.
+ * <p>
+ * The dictionary is bounded and only grows: a string is added the second time it is written, as long
+ * as it is not longer than the maximum entry length and the dictionary is not full, so values that are
+ * seen a single time do not take entries. The dictionary is stored by the pager, see {@link StatefulSerializer}.
+ */
+public class DictionaryStringSerializer implements StatefulSerializer<String> {
+    public static final int MAX_CAPACITY = 0x4000;
+
+    public static final int DEFAULT_MAX_ENTRY_LENGTH = 64;
+
+    private static final int SMALL_IDS = 0x80;
+
+    private static final int LONG_ID = 0x80;
+
+    private static final int INLINE = 0xC0;
+
+    private final int index;
+
+    private final int capacity;
+
+    private final int maxEntryLength;
+
+    private final Map<String, Integer> ids = new HashMap<>();
+
+    private final List<String> entries = new ArrayList<>();
+
+    private final Map<String, Boolean> candidates;
+
+    private ByteArrayOutputStream state = new ByteArrayOutputStream();
+
+    /**
+     * Creates a new serializer with an empty dictionary.
+     *
+     * @param index the index of the root slot of the pager where the dictionary is stored.
+     * @param capacity the maximum amount of entries of the dictionary, up to MAX_CAPACITY.
+     */
+    public DictionaryStringSerializer(int index, int capacity) {
+        this(index, capacity, DEFAULT_MAX_ENTRY_LENGTH);
+    }
+
+    /**
+     * Creates a new serializer with an empty dictionary.
+     *
+     * @param index the index of the root slot of the pager where the dictionary is stored.
+     * @param capacity the maximum amount of entries of the dictionary, up to MAX_CAPACITY.
+     * @param maxEntryLength the maximum length in bytes of the strings added to the dictionary.
+     */
+    public DictionaryStringSerializer(int index, int capacity, int maxEntryLength) {
+        if(capacity < 0 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("invalid capacity " + capacity);
+        }
+        this.index = index;
+        this.capacity = capacity;
+        this.maxEntryLength = Math.min(maxEntryLength, Short.MAX_VALUE);
+        this.candidates = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Gets the amount of entries of the dictionary.
+     *
+     * @return the amount of strings stored in the dictionary.
+     */
+    public int dictionarySize() {
+        return entries.size();
+    }
+
+    @Override
+    public int size(ByteBuffer buffer) {
+        int first = buffer.get(buffer.position()) & 0xFF;
+        if(first < SMALL_IDS) {
+            return 1;
+        }
+        if(first < INLINE) {
+            return 2;
+        }
+        return buffer.getShort(buffer.position() + 1) + 3;
+    }
+
+    @Override
+    public int size(String value) {
+        int id = id(value, false);
+        if(id >= 0) {
+            return id < SMALL_IDS ? 1 : 2;
+        }
+        return SmallStringSerializer.INSTANCE.size(value) + 1;
+    }
+
+    @Override
+    public String read(ByteBuffer buffer) {
+        int first = buffer.get() & 0xFF;
+        if(first < SMALL_IDS) {
+            return entry(first);
+        }
+        if(first < INLINE) {
+            return entry(((first & 0x3F) << 8) | (buffer.get() & 0xFF));
+        }
+        return SmallStringSerializer.INSTANCE.read(buffer);
+    }
+
+    @Override
+    public void write(ByteBuffer buffer, String value) {
+        int id = id(value, true);
+        if(id < 0) {
+            buffer.put((byte) INLINE);
+            SmallStringSerializer.INSTANCE.write(buffer, value);
+        }
+        else if(id < SMALL_IDS) {
+            buffer.put((byte) id);
+        }
+        else {
+            buffer.put((byte) (LONG_ID | (id >> 8)));
+            buffer.put((byte) id);
+        }
+    }
+
+    @Override
+    public int stateIndex() {
+        return index;
+    }
+
+    @Override
+    public int stateSize() {
+        return state.size();
+    }
+
+    @Override
+    public ByteBuffer state() {
+        return ByteBuffer.wrap(state.toByteArray());
+    }
+
+    @Override
+    public void loadState(ByteBuffer data) {
+        ids.clear();
+        entries.clear();
+        candidates.clear();
+        state = new ByteArrayOutputStream();
+        while (data.hasRemaining()) {
+            int length = data.getShort();
+            byte[] bytes = new byte[length];
+            data.get(bytes);
+            add(new String(bytes, StandardCharsets.UTF_8), bytes);
+        }
+    }
+
+    /**
+     * Gets the id of the given string, when adding is allowed the string is added to the dictionary
+     * if it was already a candidate, otherwise it becomes a candidate. The same decision is taken
+     * when adding is not allowed, so size(String) is consistent with write.
+     *
+     * @return the id of the string, or -1 if it must be stored inline.
+     */
+    private int id(String value, boolean add) {
+        Integer id = ids.get(value);
+        if(id != null) {
+            return id;
+        }
+        if(entries.size() >= capacity || value.length() > maxEntryLength) {
+            return -1;
+        }
+
+        boolean candidate = candidates.containsKey(value);
+        if(!add) {
+            return candidate && fits(value) ? entries.size() : -1;
+        }
+        if(!candidate) {
+            candidates.put(value, Boolean.TRUE);
+            return -1;
+        }
+
+        candidates.remove(value);
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if(bytes.length > maxEntryLength) {
+            return -1;
+        }
+        return add(value, bytes);
+    }
+
+    private boolean fits(String value) {
+        return SmallStringSerializer.INSTANCE.size(value) - 2 <= maxEntryLength;
+    }
+
+    private int add(String value, byte[] bytes) {
+        int id = entries.size();
+        entries.add(value);
+        ids.put(value, id);
+        state.write((byte) (bytes.length >> 8));
+        state.write((byte) bytes.length);
+        state.write(bytes, 0, bytes.length);
+        return id;
+    }
+
+    private String entry(int id) {
+        if(id >= entries.size()) {
+            throw new IllegalStateException("unknown dictionary id " + id);
+        }
+        return entries.get(id);
+    }
+}
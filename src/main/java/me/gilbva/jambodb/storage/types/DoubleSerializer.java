@@ -10,14 +10,19 @@ import java.nio.ByteBuffer;
 public class DoubleSerializer implements Serializer<Double> {
     public static final DoubleSerializer INSTANCE = new DoubleSerializer();
 
+    @Override
+    public int headerSize() {
+        return 0;
+    }
+
     @Override
     public int size(ByteBuffer buffer) {
-        return 4;
+        return Double.BYTES;
     }
 
     @Override
     public int size(Double value) {
-        return 4;
+        return Double.BYTES;
     }
 
     @Override
@@ -29,4 +34,9 @@ public class DoubleSerializer implements Serializer<Double> {
     public void write(ByteBuffer buffer, Double value) {
         buffer.putDouble(value);
     }
+
+    @Override
+    public int compare(ByteBuffer buffer, Double value) {
+        return Double.compare(buffer.getDouble(), value);
+    }
 }
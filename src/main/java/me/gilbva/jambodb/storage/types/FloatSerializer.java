@@ -10,6 +10,11 @@ import java.nio.ByteBuffer;
 public class FloatSerializer implements Serializer<Float> {
     public static final FloatSerializer INSTANCE = new FloatSerializer();
 
+    @Override
+    public int headerSize() {
+        return 0;
+    }
+
     @Override
     public int size(ByteBuffer buffer) {
         return 4;
@@ -29,4 +34,9 @@ public class FloatSerializer implements Serializer<Float> {
     public void write(ByteBuffer buffer, Float value) {
         buffer.putFloat(value);
     }
+
+    @Override
+    public int compare(ByteBuffer buffer, Float value) {
+        return Float.compare(buffer.getFloat(), value);
+    }
 }
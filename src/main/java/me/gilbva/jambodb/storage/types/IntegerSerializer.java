@@ -10,6 +10,16 @@ import java.nio.ByteBuffer;
 public class IntegerSerializer implements Serializer<Integer> {
     public static final IntegerSerializer INSTANCE = new IntegerSerializer();
 
+    @Override
+    public int headerSize() {
+        return 0;
+    }
+
+    @Override
+    public int integerWidth() {
+        return 4;
+    }
+
     @Override
     public int size(ByteBuffer buffer) {
         return 4;
@@ -29,4 +39,9 @@ public class IntegerSerializer implements Serializer<Integer> {
     public void write(ByteBuffer buffer, Integer value) {
         buffer.putInt(value);
     }
+
+    @Override
+    public int compare(ByteBuffer buffer, Integer value) {
+        return Integer.compare(buffer.getInt(), value);
+    }
 }
@@ -10,6 +10,16 @@ import java.nio.ByteBuffer;
 public class LongSerializer implements Serializer<Long> {
     public static final LongSerializer INSTANCE = new LongSerializer();
 
+    @Override
+    public int headerSize() {
+        return 0;
+    }
+
+    @Override
+    public int integerWidth() {
+        return 8;
+    }
+
     @Override
     public int size(ByteBuffer buffer) {
         return 8;
@@ -29,4 +39,9 @@ public class LongSerializer implements Serializer<Long> {
     public void write(ByteBuffer buffer, Long value) {
         buffer.putLong(value);
     }
+
+    @Override
+    public int compare(ByteBuffer buffer, Long value) {
+        return Long.compare(buffer.getLong(), value);
+    }
 }
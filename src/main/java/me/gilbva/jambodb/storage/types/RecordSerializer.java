@@ -0,0 +1,351 @@
+package me.gilbva.jambodb.storage.types;
+
+import me.gilbva.jambodb.storage.btrees.Serializer;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.RecordComponent;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Serializer for Java records, the record class is inspected once when the serializer is created, and
+ * method handles are bound to the accessors of its components and to its canonical constructor, so no
+ * reflection is performed while reading or writing values. Primitive components are written straight
+ * into the buffer without boxing, other components are written with the serializer for their type,
+ * preceded by a byte telling if they are null. Components that are records themselves are serialized
+ * with a nested record serializer.
+ * <p>
+ * Serialized records are preceded by a two bytes length header, so their size is known without
+ * walking their components. Records used as keys must implement Comparable.
+ *
+ * @param <T> the type of the record.
+ */
+public final class RecordSerializer<T extends Record> implements Serializer<T> {
+    private static final Map<Class<?>, Serializer<?>> DEFAULT_SERIALIZERS = Map.ofEntries(
+            Map.entry(String.class, SmallStringSerializer.INSTANCE),
+            Map.entry(BigInteger.class, BigIntegerSerializer.INSTANCE),
+            Map.entry(Tuple.class, TupleSerializer.INSTANCE),
+            Map.entry(Boolean.class, BooleanSerializer.INSTANCE),
+            Map.entry(Byte.class, ByteSerializer.INSTANCE),
+            Map.entry(Character.class, CharSerializer.INSTANCE),
+            Map.entry(Short.class, ShortSerializer.INSTANCE),
+            Map.entry(Integer.class, IntegerSerializer.INSTANCE),
+            Map.entry(Long.class, LongSerializer.INSTANCE),
+            Map.entry(Float.class, FloatSerializer.INSTANCE),
+            Map.entry(Double.class, DoubleSerializer.INSTANCE)
+    );
+
+    /**
+     * Creates a serializer for the given record class using the built-in serializers.
+     *
+     * @param type the record class.
+     * @param <T> the type of the record.
+     * @return a serializer for the record.
+     * @throws IllegalArgumentException if a component has a type without a serializer.
+     */
+    public static <T extends Record> RecordSerializer<T> of(Class<T> type) {
+        return of(type, Map.of());
+    }
+
+    /**
+     * Creates a serializer for the given record class, the given serializers take precedence over
+     * the built-in ones for the component types they are registered for.
+     *
+     * @param type the record class.
+     * @param serializers the serializers to use for the component types.
+     * @param <T> the type of the record.
+     * @return a serializer for the record.
+     * @throws IllegalArgumentException if a component has a type without a serializer.
+     */
+    public static <T extends Record> RecordSerializer<T> of(Class<T> type, Map<Class<?>, Serializer<?>> serializers) {
+        return new RecordSerializer<>(type, serializers, new HashSet<>());
+    }
+
+    private final Class<T> type;
+
+    private final Component[] components;
+
+    private final MethodHandle constructor;
+
+    private RecordSerializer(Class<T> type, Map<Class<?>, Serializer<?>> serializers, Set<Class<?>> visiting) {
+        if(!type.isRecord()) {
+            throw new IllegalArgumentException(type.getName() + " is not a record");
+        }
+        if(!visiting.add(type)) {
+            throw new IllegalArgumentException("recursive record " + type.getName() + " is not supported");
+        }
+
+        this.type = type;
+        RecordComponent[] recordComponents = type.getRecordComponents();
+        Class<?>[] types = new Class<?>[recordComponents.length];
+        components = new Component[recordComponents.length];
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            for (int i = 0; i < recordComponents.length; i++) {
+                RecordComponent component = recordComponents[i];
+                types[i] = component.getType();
+                component.getAccessor().trySetAccessible();
+                MethodHandle getter = lookup.unreflect(component.getAccessor());
+                components[i] = createComponent(component, getter, serializers, visiting);
+            }
+
+            var canonical = type.getDeclaredConstructor(types);
+            canonical.trySetAccessible();
+            constructor = lookup.unreflectConstructor(canonical)
+                    .asType(MethodType.methodType(Object.class, types))
+                    .asSpreader(Object[].class, types.length);
+        }
+        catch (ReflectiveOperationException ex) {
+            throw new IllegalArgumentException("cannot access the components of " + type.getName(), ex);
+        }
+        visiting.remove(type);
+    }
+
+    @Override
+    public int headerSize() {
+        return 2;
+    }
+
+    @Override
+    public int size(ByteBuffer buffer) {
+        return buffer.getShort() + 2;
+    }
+
+    @Override
+    public int size(T value) {
+        int size = 2;
+        for (Component component : components) {
+            size += component.size(value);
+        }
+        return size;
+    }
+
+    @Override
+    public T read(ByteBuffer buffer) {
+        int size = buffer.getShort();
+        if(size < 0) {
+            throw new IllegalArgumentException("invalid length");
+        }
+
+        Object[] args = new Object[components.length];
+        for (int i = 0; i < components.length; i++) {
+            args[i] = components[i].read(buffer);
+        }
+        try {
+            return type.cast((Object) constructor.invokeExact(args));
+        }
+        catch (RuntimeException | Error ex) {
+            throw ex;
+        }
+        catch (Throwable ex) {
+            throw new IllegalStateException("cannot create " + type.getName(), ex);
+        }
+    }
+
+    /**
+     * Writes the components one after the other and then the length header, so every component is
+     * encoded a single time.
+     */
+    @Override
+    public void write(ByteBuffer buffer, T value) {
+        int start = buffer.position();
+        buffer.putShort((short) 0);
+        for (Component component : components) {
+            component.write(buffer, value);
+        }
+
+        int len = buffer.position() - start - 2;
+        if(len > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("invalid length");
+        }
+        buffer.putShort(start, (short) len);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Component createComponent(RecordComponent component, MethodHandle getter,
+                                             Map<Class<?>, Serializer<?>> serializers, Set<Class<?>> visiting) {
+        Class<?> componentType = component.getType();
+        if(componentType.isPrimitive()) {
+            return new PrimitiveComponent(componentType, getter);
+        }
+
+        Serializer<?> serializer = serializers.get(componentType);
+        if(serializer == null) {
+            serializer = DEFAULT_SERIALIZERS.get(componentType);
+        }
+        if(serializer == null && componentType.isRecord()) {
+            serializer = new RecordSerializer<>((Class<? extends Record>) componentType, serializers, visiting);
+        }
+        if(serializer == null) {
+            throw new IllegalArgumentException("no serializer for component " + component.getName()
+                    + " of type " + componentType.getName());
+        }
+        return new ObjectComponent((Serializer<Object>) serializer, getter);
+    }
+
+    private static IllegalStateException invocationError(Throwable ex) {
+        if(ex instanceof RuntimeException) {
+            throw (RuntimeException) ex;
+        }
+        if(ex instanceof Error) {
+            throw (Error) ex;
+        }
+        return new IllegalStateException(ex.getMessage(), ex);
+    }
+
+    private interface Component {
+        int size(Object record);
+
+        void write(ByteBuffer buffer, Object record);
+
+        Object read(ByteBuffer buffer);
+    }
+
+    /**
+     * A component of a primitive type, its accessor handle returns the primitive value itself
+     * so the value is never boxed when it is written.
+     */
+    private static final class PrimitiveComponent implements Component {
+        private final Class<?> type;
+
+        private final MethodHandle getter;
+
+        private final int size;
+
+        PrimitiveComponent(Class<?> type, MethodHandle getter) {
+            this.type = type;
+            this.getter = getter.asType(MethodType.methodType(type, Object.class));
+            if(type == boolean.class || type == byte.class) {
+                size = 1;
+            }
+            else if(type == short.class || type == char.class) {
+                size = 2;
+            }
+            else if(type == int.class || type == float.class) {
+                size = 4;
+            }
+            else {
+                size = 8;
+            }
+        }
+
+        @Override
+        public int size(Object record) {
+            return size;
+        }
+
+        @Override
+        public void write(ByteBuffer buffer, Object record) {
+            try {
+                if(type == int.class) {
+                    buffer.putInt((int) getter.invokeExact(record));
+                }
+                else if(type == long.class) {
+                    buffer.putLong((long) getter.invokeExact(record));
+                }
+                else if(type == double.class) {
+                    buffer.putDouble((double) getter.invokeExact(record));
+                }
+                else if(type == boolean.class) {
+                    buffer.put((boolean) getter.invokeExact(record) ? (byte) 1 : (byte) 0);
+                }
+                else if(type == byte.class) {
+                    buffer.put((byte) getter.invokeExact(record));
+                }
+                else if(type == short.class) {
+                    buffer.putShort((short) getter.invokeExact(record));
+                }
+                else if(type == char.class) {
+                    buffer.putChar((char) getter.invokeExact(record));
+                }
+                else {
+                    buffer.putFloat((float) getter.invokeExact(record));
+                }
+            }
+            catch (Throwable ex) {
+                throw invocationError(ex);
+            }
+        }
+
+        @Override
+        public Object read(ByteBuffer buffer) {
+            if(type == int.class) {
+                return buffer.getInt();
+            }
+            if(type == long.class) {
+                return buffer.getLong();
+            }
+            if(type == double.class) {
+                return buffer.getDouble();
+            }
+            if(type == boolean.class) {
+                return buffer.get() == 1;
+            }
+            if(type == byte.class) {
+                return buffer.get();
+            }
+            if(type == short.class) {
+                return buffer.getShort();
+            }
+            if(type == char.class) {
+                return buffer.getChar();
+            }
+            return buffer.getFloat();
+        }
+    }
+
+    /**
+     * A component of a reference type, it is written with its serializer after a byte
+     * telling if the value is present.
+     */
+    private static final class ObjectComponent implements Component {
+        private final Serializer<Object> serializer;
+
+        private final MethodHandle getter;
+
+        ObjectComponent(Serializer<Object> serializer, MethodHandle getter) {
+            this.serializer = serializer;
+            this.getter = getter.asType(MethodType.methodType(Object.class, Object.class));
+        }
+
+        @Override
+        public int size(Object record) {
+            Object value = get(record);
+            return value == null ? 1 : serializer.size(value) + 1;
+        }
+
+        @Override
+        public void write(ByteBuffer buffer, Object record) {
+            Object value = get(record);
+            if(value == null) {
+                buffer.put((byte) 0);
+            }
+            else {
+                buffer.put((byte) 1);
+                serializer.write(buffer, value);
+            }
+        }
+
+        @Override
+        public Object read(ByteBuffer buffer) {
+            if(buffer.get() == 0) {
+                return null;
+            }
+            return serializer.read(buffer);
+        }
+
+        private Object get(Object record) {
+            try {
+                return (Object) getter.invokeExact(record);
+            }
+            catch (Throwable ex) {
+                throw invocationError(ex);
+            }
+        }
+    }
+}
@@ -10,6 +10,16 @@ import java.nio.ByteBuffer;
 public class ShortSerializer implements Serializer<Short> {
     public static final ShortSerializer INSTANCE = new ShortSerializer();
 
+    @Override
+    public int headerSize() {
+        return 0;
+    }
+
+    @Override
+    public int integerWidth() {
+        return 2;
+    }
+
     @Override
     public int size(ByteBuffer buffer) {
         return 2;
@@ -29,4 +39,9 @@ public class ShortSerializer implements Serializer<Short> {
     public void write(ByteBuffer buffer, Short value) {
         buffer.putShort(value);
     }
+
+    @Override
+    public int compare(ByteBuffer buffer, Short value) {
+        return Short.compare(buffer.getShort(), value);
+    }
 }
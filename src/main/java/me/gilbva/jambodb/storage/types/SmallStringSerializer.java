@@ -11,14 +11,41 @@ import java.nio.charset.StandardCharsets;
 public class SmallStringSerializer implements Serializer<String> {
     public static final SmallStringSerializer INSTANCE = new SmallStringSerializer();
 
+    @Override
+    public int headerSize() {
+        return 2;
+    }
+
     @Override
     public int size(ByteBuffer buffer) {
         return buffer.getShort() + 2;
     }
 
+    /**
+     * Computes the length of the UTF-8 form of the value from its characters, so the string
+     * is never encoded just to be measured.
+     */
     @Override
     public int size(String value) {
-        return value.getBytes(StandardCharsets.UTF_8).length + 2;
+        int length = value.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char current = value.charAt(i);
+            if(current < 0x80) {
+                continue;
+            }
+            if(current < 0x800) {
+                bytes++;
+            }
+            else if(isPair(value, i)) {
+                bytes += 2;
+                i++;
+            }
+            else if(!Character.isSurrogate(current)) {
+                bytes += 2;
+            }
+        }
+        return bytes + 2;
     }
 
     @Override
@@ -32,14 +59,109 @@ public class SmallStringSerializer implements Serializer<String> {
         return new String(bytes, StandardCharsets.UTF_8);
     }
 
+    /**
+     * Encodes the value straight into the buffer and writes the length once it is known, the
+     * bytes are the same produced by String.getBytes, unpaired surrogates are written as '?'.
+     */
     @Override
     public void write(ByteBuffer buffer, String value) {
-        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
-        short len = (short) (bytes.length);
-        if(len < 0) {
+        int start = buffer.position();
+        buffer.putShort((short) 0);
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char current = value.charAt(i);
+            if(current < 0x80) {
+                buffer.put((byte) current);
+            }
+            else if(current < 0x800) {
+                buffer.put((byte) (0xC0 | (current >> 6)));
+                buffer.put((byte) (0x80 | (current & 0x3F)));
+            }
+            else if(isPair(value, i)) {
+                int codePoint = Character.toCodePoint(current, value.charAt(++i));
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            }
+            else if(Character.isSurrogate(current)) {
+                buffer.put((byte) '?');
+            }
+            else {
+                buffer.put((byte) (0xE0 | (current >> 12)));
+                buffer.put((byte) (0x80 | ((current >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (current & 0x3F)));
+            }
+        }
+
+        int len = buffer.position() - start - 2;
+        if(len > Short.MAX_VALUE) {
             throw new IllegalArgumentException("invalid length");
         }
-        buffer.putShort(len);
-        buffer.put(bytes);
+        buffer.putShort(start, (short) len);
+    }
+
+    /**
+     * Compares the stored string against the given value by decoding the UTF-8 bytes one
+     * character at a time, the result is consistent with String.compareTo and no intermediate
+     * String or byte array is created.
+     */
+    @Override
+    public int compare(ByteBuffer buffer, String value) {
+        int size = buffer.getShort();
+        if(size < 0) {
+            throw new IllegalArgumentException("invalid length");
+        }
+
+        int end = buffer.position() + size;
+        int length = value.length();
+        int index = 0;
+        char low = 0;
+        while (low != 0 || buffer.position() < end) {
+            char current;
+            if(low != 0) {
+                current = low;
+                low = 0;
+            }
+            else {
+                int codePoint = decode(buffer);
+                if(Character.isSupplementaryCodePoint(codePoint)) {
+                    current = Character.highSurrogate(codePoint);
+                    low = Character.lowSurrogate(codePoint);
+                }
+                else {
+                    current = (char) codePoint;
+                }
+            }
+
+            if(index >= length) {
+                return 1;
+            }
+            char other = value.charAt(index++);
+            if(current != other) {
+                return current - other;
+            }
+        }
+        return index - length;
+    }
+
+    private static boolean isPair(String value, int index) {
+        return Character.isHighSurrogate(value.charAt(index))
+                && index + 1 < value.length()
+                && Character.isLowSurrogate(value.charAt(index + 1));
+    }
+
+    private static int decode(ByteBuffer buffer) {
+        int first = buffer.get() & 0xFF;
+        if(first < 0x80) {
+            return first;
+        }
+        if(first < 0xE0) {
+            return ((first & 0x1F) << 6) | (buffer.get() & 0x3F);
+        }
+        if(first < 0xF0) {
+            return ((first & 0x0F) << 12) | ((buffer.get() & 0x3F) << 6) | (buffer.get() & 0x3F);
+        }
+        return ((first & 0x07) << 18) | ((buffer.get() & 0x3F) << 12) | ((buffer.get() & 0x3F) << 6) | (buffer.get() & 0x3F);
     }
 }
@@ -0,0 +1,232 @@
+package me.gilbva.jambodb.storage.types;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An immutable composite key made of a list of elements, which may be null, Boolean, Integer, Long,
+ * Double, String or byte[] values. Tuples are ordered element by element, a tuple sorts before every
+ * longer tuple it is a prefix of, and elements of different types are ordered by type in the order
+ * listed above. Strings are ordered by code point.
+ * <p>
+ * The ordering is defined by the encoded form of the tuple, see {@link TupleSerializer}, so comparing
+ * two tuples is the same as comparing their serialized bytes as unsigned bytes.
+ */
+public final class Tuple implements Comparable<Tuple> {
+    static final Object MAX = new Object();
+
+    /**
+     * Creates a new tuple with the given elements.
+     *
+     * @param elements the elements of the tuple.
+     * @return the new tuple.
+     * @throws IllegalArgumentException if any of the elements has an unsupported type.
+     */
+    public static Tuple of(Object... elements) {
+        for (Object element : elements) {
+            TupleSerializer.checkElement(element);
+        }
+        return new Tuple(elements.clone(), null);
+    }
+
+    private final Object[] elements;
+
+    private byte[] encoded;
+
+    Tuple(Object[] elements, byte[] encoded) {
+        this.elements = elements;
+        this.encoded = encoded;
+    }
+
+    /**
+     * Gets the amount of elements of this tuple.
+     *
+     * @return the amount of elements.
+     */
+    public int size() {
+        return isUpperBound() ? elements.length - 1 : elements.length;
+    }
+
+    /**
+     * Gets the element at the given index.
+     *
+     * @param index the index of the element.
+     * @return the element, a copy is returned for byte[] elements.
+     */
+    public Object get(int index) {
+        Object element = elements[checkIndex(index)];
+        if(element instanceof byte[]) {
+            return ((byte[]) element).clone();
+        }
+        return element;
+    }
+
+    /**
+     * Gets the element at the given index.
+     *
+     * @param index the index of the element.
+     * @return the element as a String.
+     */
+    public String getString(int index) {
+        return (String) elements[checkIndex(index)];
+    }
+
+    /**
+     * Gets the element at the given index.
+     *
+     * @param index the index of the element.
+     * @return the element as a long, it must be a number.
+     */
+    public long getLong(int index) {
+        return ((Number) elements[checkIndex(index)]).longValue();
+    }
+
+    /**
+     * Gets the element at the given index.
+     *
+     * @param index the index of the element.
+     * @return the element as an int, it must be a number.
+     */
+    public int getInt(int index) {
+        return ((Number) elements[checkIndex(index)]).intValue();
+    }
+
+    /**
+     * Gets the element at the given index.
+     *
+     * @param index the index of the element.
+     * @return the element as a double, it must be a number.
+     */
+    public double getDouble(int index) {
+        return ((Number) elements[checkIndex(index)]).doubleValue();
+    }
+
+    /**
+     * Gets the element at the given index.
+     *
+     * @param index the index of the element.
+     * @return the element as a boolean.
+     */
+    public boolean getBoolean(int index) {
+        return (Boolean) elements[checkIndex(index)];
+    }
+
+    /**
+     * Gets the elements of this tuple as a list.
+     *
+     * @return a new list holding the elements.
+     */
+    public List<Object> toList() {
+        List<Object> result = new ArrayList<>(size());
+        for (int i = 0; i < size(); i++) {
+            result.add(get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Creates a new tuple with the elements of this tuple followed by the given elements.
+     *
+     * @param values the elements to append.
+     * @return the new tuple.
+     */
+    public Tuple append(Object... values) {
+        if(isUpperBound()) {
+            throw new IllegalStateException("cannot append elements to an upper bound");
+        }
+        for (Object value : values) {
+            TupleSerializer.checkElement(value);
+        }
+        Object[] result = Arrays.copyOf(elements, elements.length + values.length);
+        System.arraycopy(values, 0, result, elements.length, values.length);
+        return new Tuple(result, null);
+    }
+
+    /**
+     * Gets a tuple that sorts after every tuple starting with the elements of this tuple, and
+     * before any other greater tuple. Together with this tuple it can be used as the range of
+     * BTree.query to scan all the keys having this tuple as a prefix.
+     *
+     * @return the upper bound for the keys prefixed by this tuple, it can only be used as a bound.
+     */
+    public Tuple upperBound() {
+        if(isUpperBound()) {
+            return this;
+        }
+        Object[] result = Arrays.copyOf(elements, elements.length + 1);
+        result[elements.length] = MAX;
+        return new Tuple(result, null);
+    }
+
+    /**
+     * Determines if this tuple was created by {@link #upperBound()}.
+     *
+     * @return true if this tuple is an upper bound.
+     */
+    public boolean isUpperBound() {
+        return elements.length > 0 && elements[elements.length - 1] == MAX;
+    }
+
+    /**
+     * Gets the encoded form of this tuple, it is calculated once and shared, so it must not be modified.
+     */
+    byte[] encoded() {
+        if(encoded == null) {
+            encoded = TupleSerializer.encode(elements);
+        }
+        return encoded;
+    }
+
+    @Override
+    public int compareTo(Tuple other) {
+        return Arrays.compareUnsigned(encoded(), other.encoded());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(this == obj) {
+            return true;
+        }
+        if(!(obj instanceof Tuple)) {
+            return false;
+        }
+        return Arrays.equals(encoded(), ((Tuple) obj).encoded());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(encoded());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder("(");
+        for (int i = 0; i < elements.length; i++) {
+            if(i > 0) {
+                result.append(", ");
+            }
+            Object element = elements[i];
+            if(element == MAX) {
+                result.append("MAX");
+            }
+            else if(element instanceof byte[]) {
+                result.append(Arrays.toString((byte[]) element));
+            }
+            else if(element instanceof String) {
+                result.append('"').append(element).append('"');
+            }
+            else {
+                result.append(element);
+            }
+        }
+        return result.append(')').toString();
+    }
+
+    private int checkIndex(int index) {
+        if(index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("invalid index=" + index + ", size=" + size());
+        }
+        return index;
+    }
+}
@@ -0,0 +1,304 @@
+package me.gilbva.jambodb.storage.types;
+
+import me.gilbva.jambodb.storage.btrees.Serializer;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Serializer for Tuple, the encoded bytes of a tuple sort in the same order as the tuple itself,
+ * so stored keys are compared against a tuple with a plain unsigned byte comparison.
+ * <p>
+ * Every element is written as a type tag followed by its body: integers are written big-endian with
+ * the sign bit flipped, doubles have the sign bit flipped and, when negative, all the other bits too.
+ * Strings are written as UTF-8, unpaired surrogates included, and byte arrays as they are, in both
+ * cases every 0x00 byte is escaped as 0x00 0xFF and the body ends with 0x00 0x01. The encoded tuple
+ * is preceded by a two bytes length header, which is not part of the comparison.
+ */
+public class TupleSerializer implements Serializer<Tuple> {
+    public static final TupleSerializer INSTANCE = new TupleSerializer();
+
+    private static final byte TAG_NULL = 0x01;
+
+    private static final byte TAG_FALSE = 0x02;
+
+    private static final byte TAG_TRUE = 0x03;
+
+    private static final byte TAG_INT = 0x04;
+
+    private static final byte TAG_LONG = 0x05;
+
+    private static final byte TAG_DOUBLE = 0x06;
+
+    private static final byte TAG_STRING = 0x07;
+
+    private static final byte TAG_BYTES = 0x08;
+
+    private static final byte TAG_MAX = (byte) 0xFF;
+
+    private static final byte ESCAPE = (byte) 0xFF;
+
+    private static final byte TERMINATOR = 0x01;
+
+    @Override
+    public int headerSize() {
+        return 2;
+    }
+
+    @Override
+    public int size(ByteBuffer buffer) {
+        return buffer.getShort() + 2;
+    }
+
+    @Override
+    public int size(Tuple value) {
+        return value.encoded().length + 2;
+    }
+
+    @Override
+    public Tuple read(ByteBuffer buffer) {
+        int size = buffer.getShort();
+        if(size < 0) {
+            throw new IllegalArgumentException("invalid length");
+        }
+        byte[] bytes = new byte[size];
+        buffer.get(bytes);
+        return new Tuple(decode(bytes), bytes);
+    }
+
+    @Override
+    public void write(ByteBuffer buffer, Tuple value) {
+        byte[] bytes = value.encoded();
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    /**
+     * Compares the stored bytes with the encoded form of the given tuple, which is calculated
+     * once per tuple, so searching a page encodes the searched key a single time.
+     */
+    @Override
+    public int compare(ByteBuffer buffer, Tuple value) {
+        int size = buffer.getShort();
+        if(size < 0) {
+            throw new IllegalArgumentException("invalid length");
+        }
+        byte[] other = value.encoded();
+        int start = buffer.position();
+        if(buffer.hasArray()) {
+            int from = buffer.arrayOffset() + start;
+            return Arrays.compareUnsigned(buffer.array(), from, from + size, other, 0, other.length);
+        }
+
+        int length = Math.min(size, other.length);
+        for (int i = 0; i < length; i++) {
+            int result = Byte.compareUnsigned(buffer.get(start + i), other[i]);
+            if(result != 0) {
+                return result;
+            }
+        }
+        return size - other.length;
+    }
+
+    static void checkElement(Object element) {
+        if(element != null
+                && !(element instanceof Boolean)
+                && !(element instanceof Integer)
+                && !(element instanceof Long)
+                && !(element instanceof Double)
+                && !(element instanceof String)
+                && !(element instanceof byte[])) {
+            throw new IllegalArgumentException("unsupported tuple element type: " + element.getClass().getName());
+        }
+    }
+
+    static byte[] encode(Object[] elements) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Object element : elements) {
+            if(element == null) {
+                out.write(TAG_NULL);
+            }
+            else if(element == Tuple.MAX) {
+                out.write(TAG_MAX);
+            }
+            else if(element instanceof Boolean) {
+                out.write((Boolean) element ? TAG_TRUE : TAG_FALSE);
+            }
+            else if(element instanceof Integer) {
+                out.write(TAG_INT);
+                writeBits(out, (Integer) element ^ Integer.MIN_VALUE, 4);
+            }
+            else if(element instanceof Long) {
+                out.write(TAG_LONG);
+                writeBits(out, (Long) element ^ Long.MIN_VALUE, 8);
+            }
+            else if(element instanceof Double) {
+                long bits = Double.doubleToLongBits((Double) element);
+                out.write(TAG_DOUBLE);
+                writeBits(out, bits < 0 ? ~bits : bits ^ Long.MIN_VALUE, 8);
+            }
+            else if(element instanceof String) {
+                out.write(TAG_STRING);
+                writeString(out, (String) element);
+            }
+            else {
+                out.write(TAG_BYTES);
+                byte[] bytes = (byte[]) element;
+                for (byte current : bytes) {
+                    writeEscaped(out, current);
+                }
+                out.write(0);
+                out.write(TERMINATOR);
+            }
+        }
+
+        if(out.size() > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("invalid length");
+        }
+        return out.toByteArray();
+    }
+
+    static Object[] decode(byte[] bytes) {
+        List<Object> elements = new ArrayList<>();
+        int[] position = {0};
+        while (position[0] < bytes.length) {
+            byte tag = bytes[position[0]++];
+            switch (tag) {
+                case TAG_NULL:
+                    elements.add(null);
+                    break;
+                case TAG_MAX:
+                    elements.add(Tuple.MAX);
+                    break;
+                case TAG_FALSE:
+                    elements.add(Boolean.FALSE);
+                    break;
+                case TAG_TRUE:
+                    elements.add(Boolean.TRUE);
+                    break;
+                case TAG_INT:
+                    elements.add((int) readBits(bytes, position, 4) ^ Integer.MIN_VALUE);
+                    break;
+                case TAG_LONG:
+                    elements.add(readBits(bytes, position, 8) ^ Long.MIN_VALUE);
+                    break;
+                case TAG_DOUBLE:
+                    long bits = readBits(bytes, position, 8);
+                    elements.add(Double.longBitsToDouble(bits < 0 ? bits ^ Long.MIN_VALUE : ~bits));
+                    break;
+                case TAG_STRING:
+                    elements.add(readString(readEscaped(bytes, position)));
+                    break;
+                case TAG_BYTES:
+                    elements.add(readEscaped(bytes, position));
+                    break;
+                default:
+                    throw new IllegalArgumentException("invalid tuple element tag: " + tag);
+            }
+        }
+        return elements.toArray();
+    }
+
+    private static void writeBits(ByteArrayOutputStream out, long bits, int width) {
+        for (int shift = (width - 1) * 8; shift >= 0; shift -= 8) {
+            out.write((int) (bits >>> shift));
+        }
+    }
+
+    private static long readBits(byte[] bytes, int[] position, int width) {
+        if(position[0] + width > bytes.length) {
+            throw new IllegalArgumentException("truncated tuple element");
+        }
+        long bits = 0;
+        for (int i = 0; i < width; i++) {
+            bits = (bits << 8) | (bytes[position[0]++] & 0xFF);
+        }
+        return bits;
+    }
+
+    /**
+     * Writes the string as UTF-8, unpaired surrogates are written with the three bytes form of
+     * their code unit instead of being replaced, so the bytes keep the code point order.
+     */
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        int length = value.length();
+        for (int i = 0; i < length; ) {
+            int codePoint = value.codePointAt(i);
+            i += Character.charCount(codePoint);
+            if(codePoint < 0x80) {
+                writeEscaped(out, (byte) codePoint);
+            }
+            else if(codePoint < 0x800) {
+                out.write(0xC0 | (codePoint >> 6));
+                out.write(0x80 | (codePoint & 0x3F));
+            }
+            else if(codePoint < 0x10000) {
+                out.write(0xE0 | (codePoint >> 12));
+                out.write(0x80 | ((codePoint >> 6) & 0x3F));
+                out.write(0x80 | (codePoint & 0x3F));
+            }
+            else {
+                out.write(0xF0 | (codePoint >> 18));
+                out.write(0x80 | ((codePoint >> 12) & 0x3F));
+                out.write(0x80 | ((codePoint >> 6) & 0x3F));
+                out.write(0x80 | (codePoint & 0x3F));
+            }
+        }
+        out.write(0);
+        out.write(TERMINATOR);
+    }
+
+    private static String readString(byte[] bytes) {
+        StringBuilder result = new StringBuilder(bytes.length);
+        int i = 0;
+        while (i < bytes.length) {
+            int first = bytes[i++] & 0xFF;
+            if(first < 0x80) {
+                result.append((char) first);
+            }
+            else if(first < 0xE0) {
+                result.append((char) (((first & 0x1F) << 6) | (bytes[i++] & 0x3F)));
+            }
+            else if(first < 0xF0) {
+                result.append((char) (((first & 0x0F) << 12) | ((bytes[i++] & 0x3F) << 6) | (bytes[i++] & 0x3F)));
+            }
+            else {
+                result.appendCodePoint(((first & 0x07) << 18) | ((bytes[i++] & 0x3F) << 12)
+                        | ((bytes[i++] & 0x3F) << 6) | (bytes[i++] & 0x3F));
+            }
+        }
+        return result.toString();
+    }
+
+    private static void writeEscaped(ByteArrayOutputStream out, byte value) {
+        out.write(value);
+        if(value == 0) {
+            out.write(ESCAPE);
+        }
+    }
+
+    private static byte[] readEscaped(byte[] bytes, int[] position) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int i = position[0];
+        while (true) {
+            if(i + 1 >= bytes.length) {
+                throw new IllegalArgumentException("truncated tuple element");
+            }
+            byte current = bytes[i++];
+            if(current != 0) {
+                out.write(current);
+            }
+            else if(bytes[i++] == ESCAPE) {
+                out.write(0);
+            }
+            else {
+                break;
+            }
+        }
+        position[0] = i;
+        return out.toByteArray();
+    }
+}
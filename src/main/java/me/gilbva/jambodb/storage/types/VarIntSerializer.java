@@ -0,0 +1,65 @@
+package me.gilbva.jambodb.storage.types;
+
+import me.gilbva.jambodb.storage.btrees.Serializer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Variable length serializer for java.lang.Integer, values are zigzag encoded so small negative
+ * numbers are small too, and then written 7 bits per byte with the high bit of every byte but
+ * the last one set, taking from 1 to 5 bytes.
+ */
+public class VarIntSerializer implements Serializer<Integer> {
+    public static final VarIntSerializer INSTANCE = new VarIntSerializer();
+
+    private static final int MAX_SIZE = 5;
+
+    @Override
+    public int size(ByteBuffer buffer) {
+        int size = 1;
+        while ((buffer.get() & 0x80) != 0) {
+            if(++size > MAX_SIZE) {
+                throw new IllegalArgumentException("invalid varint");
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public int size(Integer value) {
+        int zigzag = (value << 1) ^ (value >> 31);
+        return (38 - Integer.numberOfLeadingZeros(zigzag | 1)) / 7;
+    }
+
+    @Override
+    public Integer read(ByteBuffer buffer) {
+        return decode(buffer);
+    }
+
+    @Override
+    public void write(ByteBuffer buffer, Integer value) {
+        int zigzag = (value << 1) ^ (value >> 31);
+        while ((zigzag & ~0x7F) != 0) {
+            buffer.put((byte) (zigzag | 0x80));
+            zigzag >>>= 7;
+        }
+        buffer.put((byte) zigzag);
+    }
+
+    @Override
+    public int compare(ByteBuffer buffer, Integer value) {
+        return Integer.compare(decode(buffer), value);
+    }
+
+    private static int decode(ByteBuffer buffer) {
+        int zigzag = 0;
+        for (int shift = 0; shift < MAX_SIZE * 7; shift += 7) {
+            byte current = buffer.get();
+            zigzag |= (current & 0x7F) << shift;
+            if(current >= 0) {
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+        throw new IllegalArgumentException("invalid varint");
+    }
+}
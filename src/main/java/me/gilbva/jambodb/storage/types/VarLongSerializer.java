@@ -0,0 +1,65 @@
+package me.gilbva.jambodb.storage.types;
+
+import me.gilbva.jambodb.storage.btrees.Serializer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Variable length serializer for java.lang.Long, values are zigzag encoded so small negative
+ * numbers are small too, and then written 7 bits per byte with the high bit of every byte but
+ * the last one set, taking from 1 to 10 bytes.
+ */
+public class VarLongSerializer implements Serializer<Long> {
+    public static final VarLongSerializer INSTANCE = new VarLongSerializer();
+
+    private static final int MAX_SIZE = 10;
+
+    @Override
+    public int size(ByteBuffer buffer) {
+        int size = 1;
+        while ((buffer.get() & 0x80) != 0) {
+            if(++size > MAX_SIZE) {
+                throw new IllegalArgumentException("invalid varint");
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public int size(Long value) {
+        long zigzag = (value << 1) ^ (value >> 63);
+        return (70 - Long.numberOfLeadingZeros(zigzag | 1)) / 7;
+    }
+
+    @Override
+    public Long read(ByteBuffer buffer) {
+        return decode(buffer);
+    }
+
+    @Override
+    public void write(ByteBuffer buffer, Long value) {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            buffer.put((byte) (zigzag | 0x80));
+            zigzag >>>= 7;
+        }
+        buffer.put((byte) zigzag);
+    }
+
+    @Override
+    public int compare(ByteBuffer buffer, Long value) {
+        return Long.compare(decode(buffer), value);
+    }
+
+    private static long decode(ByteBuffer buffer) {
+        long zigzag = 0;
+        for (int shift = 0; shift < MAX_SIZE * 7; shift += 7) {
+            byte current = buffer.get();
+            zigzag |= (long) (current & 0x7F) << shift;
+            if(current >= 0) {
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+        throw new IllegalArgumentException("invalid varint");
+    }
+}
@@ -2,12 +2,18 @@ package me.gilbva.jambodb.storage.blocks;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
@@ -18,13 +24,104 @@ public class FileBlockStorageTest {
     @Test
     public void testFileBlockStorage() throws IOException {
         SecurityOptions options = new SecurityOptions(UUID.randomUUID().toString(), "asd");
-        testFileBlockStorage(options);
-        testFileBlockStorage(null);
+        testFileBlockStorage(new StorageOptions().security(options));
+        testFileBlockStorage(new StorageOptions());
     }
 
-    public void testFileBlockStorage(SecurityOptions opts) throws IOException {
+    @Test
+    public void testCtrEncryptedBlockStorage() throws IOException {
+        SecurityOptions options = new SecurityOptions(UUID.randomUUID().toString(), "asd");
+        testFileBlockStorage(new StorageOptions().security(options).ctrEncryption(true));
+        testFileBlockStorage(new StorageOptions().security(options).ctrEncryption(true).compression(true));
+        testFileBlockStorage(new StorageOptions().ctrEncryption(true));
+
         var raf = createFile();
-        try(var storage = BlockStorage.create(raf, opts)) {
+        var block = randomBlock();
+        try(var storage = BlockStorage.create(raf, new StorageOptions().security(options).ctrEncryption(true))) {
+            storage.increase();
+            storage.write(1, block);
+            byte[] first = Files.readAllBytes(raf);
+            storage.write(1, block);
+            byte[] second = Files.readAllBytes(raf);
+            Assertions.assertEquals(4 * 4096 - 1, first.length);
+            Assertions.assertEquals(first.length, second.length);
+            Assertions.assertFalse(Arrays.equals(first, second));
+        }
+
+        Assertions.assertThrows(IOException.class, () -> BlockStorage.open(raf, new SecurityOptions("wrong", "asd")));
+        Assertions.assertThrows(IOException.class, () -> BlockStorage.open(raf, null));
+        try(var storage = BlockStorage.open(raf, options)) {
+            var toRead = ByteBuffer.allocate(BlockStorage.BLOCK_SIZE);
+            storage.read(1, toRead);
+            Assertions.assertArrayEquals(block.array(), toRead.array());
+        }
+    }
+
+    @Test
+    public void testTamperedEncryptedBlocks() throws IOException {
+        SecurityOptions options = new SecurityOptions(UUID.randomUUID().toString(), "asd");
+        for (var storageOpts : List.of(new StorageOptions().security(options).ctrEncryption(true),
+                new StorageOptions().security(options).ctrEncryption(true).compression(true))) {
+            var raf = createFile();
+            var block = randomBlock();
+            try(var storage = BlockStorage.create(raf, storageOpts)) {
+                storage.increase();
+                storage.write(1, block);
+            }
+            flipByte(raf, Files.size(raf) - 1);
+            try(var storage = BlockStorage.open(raf, options)) {
+                Assertions.assertThrows(IOException.class, () -> storage.read(1, ByteBuffer.allocate(BlockStorage.BLOCK_SIZE)));
+            }
+
+            flipByte(raf, 100);
+            Assertions.assertThrows(IOException.class, () -> BlockStorage.open(raf, options));
+        }
+    }
+
+    @Test
+    public void testEncryptedCompressedRewrites() throws IOException {
+        SecurityOptions options = new SecurityOptions(UUID.randomUUID().toString(), "asd");
+        var raf = createFile();
+        List<ByteBuffer> buffers = new ArrayList<>();
+        try(var storage = BlockStorage.create(raf, new StorageOptions().security(options).ctrEncryption(true).compression(true))) {
+            for (int i = 1; i <= 100; i++) {
+                var toWrite = partlyRandomBlock(i * 40);
+                buffers.add(toWrite);
+                storage.increase();
+                storage.write(i, toWrite);
+            }
+            for (int round = 1; round <= 6; round++) {
+                for (int i = 1; i <= 100; i++) {
+                    var toWrite = partlyRandomBlock(Math.max(0, i * 40 - round * 150));
+                    buffers.set(i - 1, toWrite);
+                    storage.write(i, toWrite);
+                }
+            }
+        }
+
+        try(var storage = BlockStorage.open(raf, options)) {
+            var toRead = ByteBuffer.allocate(BlockStorage.BLOCK_SIZE);
+            for (int i = 1; i <= 100; i++) {
+                storage.read(i, toRead);
+                Assertions.assertArrayEquals(buffers.get(i - 1).array(), toRead.array());
+            }
+        }
+    }
+
+    private void flipByte(Path path, long position) throws IOException {
+        try(var channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var value = ByteBuffer.allocate(1);
+            channel.read(value, position);
+            value.put(0, (byte) ~value.get(0));
+            value.clear();
+            channel.write(value, position);
+        }
+    }
+
+    public void testFileBlockStorage(StorageOptions storageOpts) throws IOException {
+        var opts = storageOpts.security();
+        var raf = createFile();
+        try(var storage = BlockStorage.create(raf, storageOpts)) {
             Assertions.assertThrows(Exception.class, () -> storage.read(1, ByteBuffer.allocate(storage.BLOCK_SIZE)));
             Assertions.assertThrows(Exception.class, () -> storage.write(1, ByteBuffer.allocate(storage.BLOCK_SIZE)));
             List<ByteBuffer> buffers = new ArrayList<>();
@@ -84,8 +181,427 @@ public class FileBlockStorageTest {
         }
     }
 
-    private ByteBuffer randomBlock() {
+    @Test
+    public void testCompressedBlockStorage() throws IOException {
+        var plainFile = createFile();
+        var compressedFile = createFile();
+        List<ByteBuffer> buffers = new ArrayList<>();
+        try(var plain = BlockStorage.create(plainFile, new StorageOptions());
+            var storage = BlockStorage.create(compressedFile, new StorageOptions().compression(true))) {
+            for (int i = 1; i <= 1200; i++) {
+                var toWrite = i % 10 == 0 ? randomBlock() : repetitiveBlock(i);
+                buffers.add(toWrite);
+                plain.increase();
+                plain.write(i, toWrite);
+                storage.increase();
+                storage.write(i, toWrite);
+            }
+            for (int i = 1; i <= 1200; i += 3) {
+                var toWrite = i % 2 == 0 ? randomBlock() : repetitiveBlock(i * 7);
+                buffers.set(i - 1, toWrite);
+                storage.write(i, toWrite);
+            }
+            storage.increase();
+
+            var toRead = ByteBuffer.allocate(BlockStorage.BLOCK_SIZE);
+            storage.read(1201, toRead);
+            Assertions.assertArrayEquals(new byte[BlockStorage.BLOCK_SIZE], toRead.array());
+            for (int i = 1; i <= 1200; i++) {
+                storage.read(i, toRead);
+                Assertions.assertArrayEquals(buffers.get(i - 1).array(), toRead.array());
+            }
+        }
+        Assertions.assertTrue(Files.size(compressedFile) * 2 < Files.size(plainFile));
+
+        try(var storage = BlockStorage.open(compressedFile, null)) {
+            Assertions.assertEquals(1201, storage.count());
+            var toRead = ByteBuffer.allocate(BlockStorage.BLOCK_SIZE);
+            for (int i = 1; i <= 1200; i++) {
+                storage.read(i, toRead);
+                Assertions.assertArrayEquals(buffers.get(i - 1).array(), toRead.array());
+            }
+
+            long size = Files.size(compressedFile);
+            for (int i = 1; i <= 1200; i += 2) {
+                var toWrite = repetitiveBlock(i * 13);
+                buffers.set(i - 1, toWrite);
+                storage.write(i, toWrite);
+            }
+            Assertions.assertEquals(size, Files.size(compressedFile));
+        }
+
+        try(var storage = BlockStorage.open(compressedFile, null)) {
+            var toRead = ByteBuffer.allocate(BlockStorage.BLOCK_SIZE);
+            for (int i = 1; i <= 1200; i++) {
+                storage.read(i, toRead);
+                Assertions.assertArrayEquals(buffers.get(i - 1).array(), toRead.array());
+            }
+        }
+    }
+
+    @Test
+    public void testDerivedKeys() throws IOException {
+        String password = UUID.randomUUID().toString();
+        var key = SecurityOptions.deriveKey(password, "asd");
+        Assertions.assertSame(key, SecurityOptions.deriveKey(password, "asd"));
+        Assertions.assertNotSame(key, SecurityOptions.deriveKey(password, "other"));
+        SecurityOptions.clearKeyCache();
+        Assertions.assertArrayEquals(key.getEncoded(), SecurityOptions.deriveKey(password, "asd").getEncoded());
+
+        var block = randomBlock();
+        for (var storageOpts : List.of(new StorageOptions(), new StorageOptions().ctrEncryption(true))) {
+            var raf = createFile();
+            try(var storage = BlockStorage.create(raf, storageOpts.security(new SecurityOptions(password, "asd")))) {
+                storage.increase();
+                storage.write(1, block);
+            }
+
+            try(var storage = BlockStorage.open(raf, new SecurityOptions(key))) {
+                var toRead = ByteBuffer.allocate(BlockStorage.BLOCK_SIZE);
+                storage.read(1, toRead);
+                Assertions.assertArrayEquals(block.array(), toRead.array());
+            }
+        }
+
+        var raf = createFile();
+        try(var storage = BlockStorage.create(raf, new StorageOptions().security(new SecurityOptions(key)).ctrEncryption(true))) {
+            storage.increase();
+        }
+        var otherKey = SecurityOptions.deriveKey(password, "other");
+        Assertions.assertThrows(IOException.class, () -> BlockStorage.open(raf, new SecurityOptions(otherKey)));
+        BlockStorage.open(raf, new SecurityOptions(password, "asd")).close();
+    }
+
+    @Test
+    public void testBatchWrite() throws IOException {
+        SecurityOptions options = new SecurityOptions(UUID.randomUUID().toString(), "asd");
+        var executor = Executors.newFixedThreadPool(4);
+        try {
+            for (var storageOpts : List.of(new StorageOptions(),
+                    new StorageOptions().security(options),
+                    new StorageOptions().compression(true),
+                    new StorageOptions().security(options).ctrEncryption(true),
+                    new StorageOptions().security(options).ctrEncryption(true).compression(true))) {
+                testBatchWrite(storageOpts, executor);
+                testBatchWrite(storageOpts, null);
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    private void testBatchWrite(StorageOptions storageOpts, Executor executor) throws IOException {
+        var raf = createFile();
+        int[] ids = new int[300];
+        ByteBuffer[] buffers = new ByteBuffer[ids.length];
+        try(var storage = BlockStorage.create(raf, storageOpts)) {
+            for (int i = 0; i < ids.length; i++) {
+                storage.increase();
+                ids[i] = i + 1;
+                buffers[i] = i % 3 == 0 ? randomBlock() : repetitiveBlock(i);
+            }
+            storage.write(ids, buffers, executor);
+            for (int i = 0; i < ids.length; i += 2) {
+                buffers[i] = repetitiveBlock(-i);
+            }
+            storage.write(ids, buffers, executor);
+
+            int[] subset = {250, 120, 121, 122, 7, 299, 300, 8};
+            ByteBuffer[] subsetBuffers = new ByteBuffer[subset.length];
+            for (int i = 0; i < subset.length; i++) {
+                buffers[subset[i] - 1] = i % 2 == 0 ? randomBlock() : repetitiveBlock(subset[i] * 7);
+                subsetBuffers[i] = buffers[subset[i] - 1];
+            }
+            storage.write(subset, subsetBuffers, executor);
+        }
+
+        try(var storage = BlockStorage.open(raf, storageOpts.security())) {
+            var toRead = ByteBuffer.allocate(BlockStorage.BLOCK_SIZE);
+            for (int i = 0; i < ids.length; i++) {
+                storage.read(ids[i], toRead);
+                Assertions.assertArrayEquals(buffers[i].array(), toRead.array());
+            }
+            Assertions.assertThrows(IllegalArgumentException.class, () -> storage.write(new int[] {301},
+                    new ByteBuffer[] {randomBlock()}, executor));
+        }
+    }
+
+    @Test
+    public void testBlockSizes() throws IOException {
+        SecurityOptions options = new SecurityOptions(UUID.randomUUID().toString(), "asd");
+        for (int blockSize : new int[] {16384, 65536}) {
+            testBlockSize(new StorageOptions().blockSize(blockSize));
+            testBlockSize(new StorageOptions().blockSize(blockSize).compression(true));
+            testBlockSize(new StorageOptions().blockSize(blockSize).security(options).ctrEncryption(true));
+            testBlockSize(new StorageOptions().blockSize(blockSize).security(options).compression(true));
+        }
+
+        var raf = createFile();
+        try(var storage = BlockStorage.create(raf, new StorageOptions().blockSize(16384))) {
+            for (int i = 1; i <= 3; i++) {
+                storage.increase();
+                storage.write(i, randomBlock(storage.blockSize()));
+            }
+        }
+        Assertions.assertEquals(5 * 16384 - 1, Files.size(raf));
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new StorageOptions().blockSize(2048));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new StorageOptions().blockSize(10000));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new StorageOptions().blockSize(131072));
+    }
+
+    private void testBlockSize(StorageOptions storageOpts) throws IOException {
+        var raf = createFile();
+        int dataSize = storageOpts.blockSize() - 1;
+        List<ByteBuffer> buffers = new ArrayList<>();
+        try(var storage = BlockStorage.create(raf, storageOpts)) {
+            Assertions.assertEquals(dataSize, storage.blockSize());
+            var toRead = ByteBuffer.allocate(dataSize);
+            for (int i = 1; i <= 200; i++) {
+                var toWrite = i % 4 == 0 ? randomBlock(dataSize) : repetitiveBlock(i, dataSize);
+                buffers.add(toWrite);
+                storage.increase();
+                storage.write(i, toWrite);
+                storage.read(i, toRead);
+                Assertions.assertArrayEquals(toWrite.array(), toRead.array());
+            }
+            for (int i = 1; i <= 200; i += 3) {
+                var toWrite = repetitiveBlock(-i, dataSize);
+                buffers.set(i - 1, toWrite);
+                storage.write(i, toWrite);
+            }
+            Assertions.assertThrows(IllegalArgumentException.class, () -> storage.write(1, ByteBuffer.allocate(dataSize + 1)));
+        }
+
+        try(var storage = BlockStorage.open(raf, storageOpts.security(), storageOpts.directIo())) {
+            Assertions.assertEquals(dataSize, storage.blockSize());
+            Assertions.assertEquals(200, storage.count());
+            var toRead = ByteBuffer.allocate(dataSize);
+            for (int i = 1; i <= 200; i++) {
+                storage.read(i, toRead);
+                Assertions.assertArrayEquals(buffers.get(i - 1).array(), toRead.array());
+            }
+        }
+    }
+
+    @Test
+    public void testDirectIo() throws IOException {
+        var raf = createFile();
+        try {
+            BlockStorage.create(raf, new StorageOptions().directIo(true)).close();
+        }
+        catch (IOException ex) {
+            Assertions.assertTrue(ex.getMessage().startsWith("direct I/O is not supported"));
+            return;
+        }
+
+        SecurityOptions options = new SecurityOptions(UUID.randomUUID().toString(), "asd");
+        testBlockSize(new StorageOptions().directIo(true));
+        testBlockSize(new StorageOptions().directIo(true).security(options));
+        testBlockSize(new StorageOptions().directIo(true).compression(true));
+        testBlockSize(new StorageOptions().directIo(true).security(options).ctrEncryption(true));
+        testBlockSize(new StorageOptions().directIo(true).blockSize(16384).security(options).compression(true));
+        testBatchWrite(new StorageOptions().directIo(true), null);
+        testBatchWrite(new StorageOptions().directIo(true).compression(true), null);
+
+        var block = randomBlock();
+        try(var storage = BlockStorage.create(raf, new StorageOptions())) {
+            storage.increase();
+            storage.write(1, block);
+        }
+        try(var storage = BlockStorage.open(raf, null, true)) {
+            var toRead = ByteBuffer.allocate(BlockStorage.BLOCK_SIZE);
+            storage.read(1, toRead);
+            Assertions.assertArrayEquals(block.array(), toRead.array());
+            storage.increase();
+            storage.write(2, block);
+        }
+        try(var storage = BlockStorage.open(raf, null)) {
+            Assertions.assertEquals(2, storage.count());
+            var toRead = ByteBuffer.allocate(BlockStorage.BLOCK_SIZE);
+            storage.read(2, toRead);
+            Assertions.assertArrayEquals(block.array(), toRead.array());
+        }
+    }
+
+    @Test
+    public void testUnsignedBlockIds() throws IOException {
+        var raf = createFile();
+        try(var storage = BlockStorage.create(raf, new StorageOptions())) {
+            storage.increase();
+        }
+        setCount(raf, Integer.MAX_VALUE);
+
+        var block = randomBlock();
+        try(var storage = BlockStorage.open(raf, null)) {
+            int id = storage.increase() + 1;
+            Assertions.assertEquals(Integer.MIN_VALUE, id);
+            Assertions.assertEquals(1L << 31, storage.blockCount());
+            storage.write(id, block);
+            Assertions.assertEquals((1L << 31) * 4096 + 4095, Files.size(raf));
+            Assertions.assertThrows(IllegalArgumentException.class, () -> storage.write(id + 1, randomBlock()));
+        }
+
+        try(var storage = BlockStorage.open(raf, null)) {
+            var toRead = ByteBuffer.allocate(BlockStorage.BLOCK_SIZE);
+            storage.read(Integer.MIN_VALUE, toRead);
+            Assertions.assertArrayEquals(block.array(), toRead.array());
+        }
+        Files.delete(raf);
+
+        raf = createFile();
+        BlockStorage.create(raf, new StorageOptions()).close();
+        setCount(raf, -1);
+        try(var storage = BlockStorage.open(raf, null)) {
+            Assertions.assertEquals(0xFFFFFFFFL, storage.blockCount());
+            Assertions.assertThrows(IOException.class, storage::increase);
+        }
+    }
+
+    @Test
+    public void testStripedBlockStorage() throws IOException {
+        SecurityOptions options = new SecurityOptions(UUID.randomUUID().toString(), "asd");
+        testStripedBlockStorage(new StorageOptions());
+        testStripedBlockStorage(new StorageOptions().security(options));
+        testStripedBlockStorage(new StorageOptions().compression(true).blockSize(16384));
+    }
+
+    private void testStripedBlockStorage(StorageOptions storageOpts) throws IOException {
+        var files = List.of(createFile(), createFile(), createFile());
+        int dataSize = storageOpts.blockSize() - 1;
+        var head = ByteBuffer.allocate(BlockStorage.HEAD_SIZE);
+        head.putInt(0, 42);
+        ByteBuffer[] buffers = new ByteBuffer[100];
+        int[] ids = new int[buffers.length];
+        var executor = Executors.newFixedThreadPool(4);
+        try(var storage = BlockStorage.create(files, storageOpts)) {
+            storage.writeHead(head);
+            for (int i = 0; i < buffers.length; i++) {
+                ids[i] = storage.increase() + 1;
+                buffers[i] = i % 2 == 0 ? randomBlock(dataSize) : repetitiveBlock(i, dataSize);
+                if(i < 10) {
+                    storage.write(ids[i], buffers[i]);
+                }
+            }
+            storage.write(Arrays.copyOfRange(ids, 10, ids.length), Arrays.copyOfRange(buffers, 10, ids.length), executor);
+            Assertions.assertEquals(100, storage.count());
+            Assertions.assertEquals(dataSize, storage.blockSize());
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        for (var file : files) {
+            try(var stripe = BlockStorage.open(file, storageOpts.security())) {
+                Assertions.assertTrue(stripe.count() == 33 || stripe.count() == 34);
+            }
+        }
+
+        try(var storage = BlockStorage.open(files, storageOpts.security())) {
+            Assertions.assertEquals(100, storage.count());
+            var toRead = ByteBuffer.allocate(BlockStorage.HEAD_SIZE);
+            storage.readHead(toRead);
+            Assertions.assertEquals(42, toRead.getInt(0));
+            toRead = ByteBuffer.allocate(dataSize);
+            for (int i = 0; i < ids.length; i++) {
+                storage.read(ids[i], toRead);
+                Assertions.assertArrayEquals(buffers[i].array(), toRead.array());
+            }
+            Assertions.assertThrows(IllegalArgumentException.class, () -> storage.read(101, ByteBuffer.allocate(dataSize)));
+        }
+
+        var opts = storageOpts.security();
+        Assertions.assertThrows(IOException.class, () -> BlockStorage.open(List.of(files.get(0), files.get(2), files.get(1)), opts));
+        Assertions.assertThrows(IOException.class, () -> BlockStorage.open(List.of(files.get(0), files.get(1)), opts));
+        var otherFiles = List.of(createFile(), createFile(), createFile());
+        BlockStorage.create(otherFiles, storageOpts).close();
+        Assertions.assertThrows(IOException.class, () -> BlockStorage.open(List.of(files.get(0), files.get(1), otherFiles.get(2)), opts));
+    }
+
+    @Test
+    public void testAsyncReads() throws Exception {
+        SecurityOptions options = new SecurityOptions(UUID.randomUUID().toString(), "asd");
+        var executor = Executors.newFixedThreadPool(8);
+        try {
+            for (var storageOpts : List.of(new StorageOptions(),
+                    new StorageOptions().security(options),
+                    new StorageOptions().compression(true),
+                    new StorageOptions().security(options).ctrEncryption(true),
+                    new StorageOptions().security(options).ctrEncryption(true).compression(true))) {
+                try(var storage = BlockStorage.create(createFile(), storageOpts)) {
+                    testAsyncReads(storage, executor);
+                }
+                try(var storage = BlockStorage.create(List.of(createFile(), createFile()), storageOpts)) {
+                    testAsyncReads(storage, executor);
+                }
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    private void testAsyncReads(BlockStorage storage, Executor executor) throws Exception {
+        int[] ids = new int[300];
+        ByteBuffer[] buffers = new ByteBuffer[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = storage.increase() + 1;
+            buffers[i] = i % 3 == 0 ? randomBlock() : repetitiveBlock(i);
+            storage.write(ids[i], buffers[i]);
+        }
+
+        for (int round = 0; round < 3; round++) {
+            ByteBuffer[] toRead = new ByteBuffer[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                toRead[i] = ByteBuffer.allocate(BlockStorage.BLOCK_SIZE);
+            }
+            storage.readAsync(ids, toRead, executor).get();
+            for (int i = 0; i < ids.length; i++) {
+                Assertions.assertArrayEquals(buffers[i].array(), toRead[i].array());
+            }
+        }
+
+        var error = Assertions.assertThrows(ExecutionException.class,
+                () -> storage.readAsync(ids.length + 1, ByteBuffer.allocate(BlockStorage.BLOCK_SIZE), executor).get());
+        Assertions.assertTrue(error.getCause() instanceof IllegalArgumentException);
+    }
+
+    private void setCount(Path file, int count) throws IOException {
+        try(var channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ByteBuffer data = ByteBuffer.allocate(4);
+            data.putInt(0, count);
+            channel.write(data, 16);
+        }
+    }
+
+    private ByteBuffer repetitiveBlock(int seed) {
+        return repetitiveBlock(seed, BlockStorage.BLOCK_SIZE);
+    }
+
+    private ByteBuffer repetitiveBlock(int seed, int size) {
+        byte[] arr = new byte[size];
+        var local = new Random(seed);
+        for (int i = 0; i < arr.length; i += 16) {
+            arr[i] = (byte) local.nextInt(4);
+        }
+        return ByteBuffer.wrap(arr);
+    }
+
+    private ByteBuffer partlyRandomBlock(int randomBytes) {
         byte[] arr = new byte[BlockStorage.BLOCK_SIZE];
+        var part = new byte[randomBytes];
+        random.nextBytes(part);
+        System.arraycopy(part, 0, arr, 0, randomBytes);
+        return ByteBuffer.wrap(arr);
+    }
+
+    private ByteBuffer randomBlock() {
+        return randomBlock(BlockStorage.BLOCK_SIZE);
+    }
+
+    private ByteBuffer randomBlock(int size) {
+        byte[] arr = new byte[size];
         random.nextBytes(arr);
         return ByteBuffer.wrap(arr);
     }
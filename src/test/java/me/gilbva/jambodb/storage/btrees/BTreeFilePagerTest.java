@@ -6,6 +6,7 @@ import me.gilbva.jambodb.storage.types.IntegerSerializer;
 import me.gilbva.jambodb.storage.types.SmallStringSerializer;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestFactory;
 
 import java.io.IOException;
@@ -17,43 +18,104 @@ public class BTreeFilePagerTest extends BTreeTestBase {
     public Collection<DynamicTest> testBTree() {
         List<DynamicTest> lst = new ArrayList<>();
         var opts = new SecurityOptions(UUID.randomUUID().toString(), UUID.randomUUID().toString());
-        createBTreeTests(null, "raw", lst);
-        createBTreeTests(opts, "encrypted", lst);
+        createBTreeTests(null, false, false, 4096, "raw", lst);
+        createBTreeTests(opts, false, false, 4096, "encrypted", lst);
+        createBTreeTests(null, true, false, 4096, "compressed", lst);
+        createBTreeTests(opts, false, true, 4096, "ctr encrypted", lst);
+        createBTreeTests(opts, true, true, 4096, "compressed ctr encrypted", lst);
+        createBTreeTests(null, false, false, 65536, "64K blocks", lst);
+        createBTreeTests(opts, true, true, 16384, "16K blocks compressed ctr encrypted", lst);
         return lst;
     }
 
-    public void createBTreeTests(SecurityOptions options, String prefix, List<DynamicTest> tests) {
+    public void createBTreeTests(SecurityOptions options, boolean compression, boolean ctr, int blockSize, String prefix, List<DynamicTest> tests) {
         for (int i = 0; i < 10; i++) {
             final int size = i;
-            tests.add(DynamicTest.dynamicTest("testing " + prefix + " btree size=" + size + " cache: 0", () -> doTest(size, 0, options)));
-            tests.add(DynamicTest.dynamicTest("testing " + prefix + " btree size=" + size + " cache: 1", () -> doTest(size, 1, options)));
-            tests.add(DynamicTest.dynamicTest("testing " + prefix + " btree size=" + size + " cache: 10_000", () -> doTest(size, 1000, options)));
+            tests.add(DynamicTest.dynamicTest("testing " + prefix + " btree size=" + size + " cache: 0", () -> doTest(size, 0, options, compression, ctr, blockSize)));
+            tests.add(DynamicTest.dynamicTest("testing " + prefix + " btree size=" + size + " cache: 1", () -> doTest(size, 1, options, compression, ctr, blockSize)));
+            tests.add(DynamicTest.dynamicTest("testing " + prefix + " btree size=" + size + " cache: 10_000", () -> doTest(size, 1000, options, compression, ctr, blockSize)));
         }
 
         for (int i = 0; i < 100; i+=30) {
             final int size = i;
-            tests.add(DynamicTest.dynamicTest("testing " + prefix + " btree size=" + size + " cache: 1", () -> doTest(size, 1000, options)));
-            tests.add(DynamicTest.dynamicTest("testing " + prefix + " btree size=" + size + " cache: 100", () -> doTest(size, 1000, options)));
+            tests.add(DynamicTest.dynamicTest("testing " + prefix + " btree size=" + size + " cache: 1", () -> doTest(size, 1000, options, compression, ctr, blockSize)));
+            tests.add(DynamicTest.dynamicTest("testing " + prefix + " btree size=" + size + " cache: 100", () -> doTest(size, 1000, options, compression, ctr, blockSize)));
         }
 
         for (int i = 10_000; i < 100_000; i += 30_000) {
             final int size = i;
-            tests.add(DynamicTest.dynamicTest("testing " + prefix + " btree size=" + size + " cache: 10", () -> doTest(size, 10, options)));
-            tests.add(DynamicTest.dynamicTest("testing " + prefix + " btree size=" + size + " cache: 100_000", () -> doTest(size, 100_000, options)));
+            tests.add(DynamicTest.dynamicTest("testing " + prefix + " btree size=" + size + " cache: 10", () -> doTest(size, 10, options, compression, ctr, blockSize)));
+            tests.add(DynamicTest.dynamicTest("testing " + prefix + " btree size=" + size + " cache: 100_000", () -> doTest(size, 100_000, options, compression, ctr, blockSize)));
         }
     }
 
-    private void doTest(int size, int cachePages, SecurityOptions opts) throws IOException {
+    @Test
+    public void testRemoveWithLongerReplacement() throws IOException {
+        var file = Files.createTempFile("test", "jambodb");
+        var pager = FilePager
+                .create(SmallStringSerializer.INSTANCE, IntegerSerializer.INSTANCE)
+                .file(file).cachePages(100)
+                .build();
+        var btree = new BTree<>(pager, 0);
+        for (int i = 0; i < 2500; i++) {
+            btree.put(shortKey(i), i);
+        }
+        for (int i = 0; i < 2500; i++) {
+            btree.put(longKey(i), -i);
+        }
+        for (int i = 0; i < 2500; i++) {
+            btree.remove(shortKey(i));
+            if(i % 100 == 0) {
+                assertNotFull(pager, pager.root(0));
+            }
+        }
+        assertNotFull(pager, pager.root(0));
+        pager.fsync();
+
+        pager = FilePager
+                .open(SmallStringSerializer.INSTANCE, IntegerSerializer.INSTANCE)
+                .file(file).cachePages(100)
+                .build();
+        btree = new BTree<>(pager, 0);
+        for (int i = 0; i < 2500; i++) {
+            Assertions.assertNull(btree.get(shortKey(i)));
+            Assertions.assertEquals(-i, btree.get(longKey(i)));
+        }
+    }
+
+    private String shortKey(int i) {
+        return String.format("%06d-a", i);
+    }
+
+    /**
+     * Gets a long key that goes right before the short key of the same number, so it replaces the
+     * short key when that one is removed from an internal page.
+     */
+    private String longKey(int i) {
+        return String.format("%06d-", i) + "-".repeat(150);
+    }
+
+    private void assertNotFull(FilePager<String, Integer> pager, int id) throws IOException {
+        var page = pager.page(id);
+        Assertions.assertFalse(page.isFull(), "page " + id + " is full");
+        if(!page.isLeaf()) {
+            for (int i = 0; i <= page.size(); i++) {
+                assertNotFull(pager, page.child(i));
+            }
+        }
+    }
+
+    private void doTest(int size, int cachePages, SecurityOptions opts, boolean compression, boolean ctr, int blockSize) throws IOException {
         var strToIntFile = Files.createTempFile("test", "jambodb");
         var intToStrFile = Files.createTempFile("test", "jambodb");
 
         var strToIntPager = FilePager
                 .create(SmallStringSerializer.INSTANCE, IntegerSerializer.INSTANCE)
-                .file(strToIntFile).cachePages(cachePages).security(opts)
+                .file(strToIntFile).cachePages(cachePages).security(opts).compression(compression).ctrEncryption(ctr).blockSize(blockSize)
                 .build();
         var intToStrPager = FilePager
                 .create(IntegerSerializer.INSTANCE, SmallStringSerializer.INSTANCE)
-                .file(intToStrFile).cachePages(cachePages).security(opts)
+                .file(intToStrFile).cachePages(cachePages).security(opts).compression(compression).ctrEncryption(ctr).blockSize(blockSize)
                 .build();
         performTest(size, strToIntPager, intToStrPager);
         int strToIntRoot = strToIntPager.root(0);
@@ -428,6 +428,41 @@ public class BTreeUnitTest {
         }
     }
 
+    @TestFactory
+    public Collection<DynamicTest> testRemoveInternal() {
+        List<DynamicTest> lst = new ArrayList<>();
+        for (int md = 2; md <= 32; md += 3) {
+            final int maxDegree = md;
+            for (int size = 10; size <= 1000; size *= 10) {
+                final int count = size;
+                lst.add(DynamicTest.dynamicTest("testing remove internal md=" + md + " size=" + size, () -> testRemoveInternal(maxDegree, count)));
+            }
+        }
+        return lst;
+    }
+
+    public void testRemoveInternal(int md, int size) throws IOException {
+        MockPager<Integer, Integer> pager = new MockPager<>(md);
+        BTree<Integer, Integer> btree = new BTree<>(pager, 0);
+        for (int i = 0; i < size; i++) {
+            btree.put(i, i);
+        }
+
+        for (int i = 0; i < size; i += 2) {
+            btree.remove(i);
+        }
+        for (int i = 0; i < size; i++) {
+            assertEquals(i % 2 == 0 ? null : i, btree.get(i), "key " + i);
+        }
+
+        for (int i = 0; i < size; i += 2) {
+            btree.put(i, -i);
+        }
+        for (int i = 0; i < size; i++) {
+            assertEquals(i % 2 == 0 ? -i : i, btree.get(i), "key " + i);
+        }
+    }
+
     @Test
     public void testGetChildPage() throws IOException {
         Pager<BTreePage<String, Object>> pager = new MockPager<>(3);
@@ -0,0 +1,93 @@
+package me.gilbva.jambodb.storage.btrees;
+
+import me.gilbva.jambodb.storage.pager.LongLongFilePager;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.TestFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+public class LongLongBTreeTest {
+    @TestFactory
+    public Collection<DynamicTest> testLongLongBTree() {
+        List<DynamicTest> lst = new ArrayList<>();
+        for (int size : new int[] {0, 1, 10, 1000, 50_000}) {
+            lst.add(DynamicTest.dynamicTest("testing long btree size=" + size + " cache: 0", () -> doTest(size, 0)));
+            lst.add(DynamicTest.dynamicTest("testing long btree size=" + size + " cache: 1000", () -> doTest(size, 1000)));
+        }
+        return lst;
+    }
+
+    private void doTest(int size, int cachePages) throws IOException {
+        var file = Files.createTempFile("test", "jambodb");
+        var random = new Random(size);
+        var expected = new TreeMap<Long, Long>();
+        while (expected.size() < size) {
+            expected.put(random.nextLong(), random.nextLong());
+        }
+
+        var pager = LongLongFilePager.create().file(file).cachePages(cachePages).build();
+        var btree = new LongLongBTree(pager, 0);
+        var keys = new ArrayList<>(expected.keySet());
+        Collections.shuffle(keys, random);
+        for (long key : keys) {
+            btree.put(key, expected.get(key));
+            Assertions.assertEquals((long) expected.get(key), btree.get(key, 0));
+        }
+        pager.fsync();
+        assertTree(expected, btree);
+
+        pager = LongLongFilePager.open().file(file).cachePages(cachePages).build();
+        btree = new LongLongBTree(pager, 0);
+        assertTree(expected, btree);
+
+        Collections.shuffle(keys, random);
+        for (int i = 0; i < keys.size(); i += 2) {
+            btree.remove(keys.get(i));
+            expected.remove(keys.get(i));
+            Assertions.assertFalse(btree.exists(keys.get(i)));
+        }
+        for (int i = 1; i < keys.size(); i += 4) {
+            btree.put(keys.get(i), i);
+            expected.put(keys.get(i), (long) i);
+        }
+        assertTree(expected, btree);
+        pager.fsync();
+
+        for (long key : new ArrayList<>(expected.keySet())) {
+            btree.remove(key);
+            expected.remove(key);
+        }
+        var empty = btree;
+        Assertions.assertThrows(IOException.class, () -> empty.remove(1));
+        assertTree(expected, btree);
+    }
+
+    private void assertTree(TreeMap<Long, Long> expected, LongLongBTree btree) throws IOException {
+        for (var entry : expected.entrySet()) {
+            Assertions.assertTrue(btree.exists(entry.getKey()));
+            Assertions.assertEquals((long) entry.getValue(), btree.get(entry.getKey(), 0));
+        }
+        Assertions.assertEquals(-1, btree.get(expected.isEmpty() ? 0 : expected.lastKey() + 1, -1));
+
+        assertQuery(expected, btree.query(Long.MIN_VALUE, Long.MAX_VALUE));
+        if (!expected.isEmpty()) {
+            long from = expected.firstKey() / 2 + expected.lastKey() / 2;
+            long to = from / 2 + expected.lastKey() / 2;
+            assertQuery(expected.subMap(from, true, to, true), btree.query(from, to));
+            assertQuery(expected.subMap(from, true, from, true), btree.query(from, from));
+        }
+        assertQuery(Collections.emptyNavigableMap(), btree.query(1, 0));
+    }
+
+    private void assertQuery(NavigableMap<Long, Long> expected, LongLongCursor cursor) throws IOException {
+        for (var entry : expected.entrySet()) {
+            Assertions.assertTrue(cursor.next());
+            Assertions.assertEquals((long) entry.getKey(), cursor.key());
+            Assertions.assertEquals((long) entry.getValue(), cursor.value());
+        }
+        Assertions.assertFalse(cursor.next());
+    }
+}
@@ -1,11 +1,22 @@
 package me.gilbva.jambodb.storage.pager;
 
+import me.gilbva.jambodb.storage.blocks.BlockStorage;
+import me.gilbva.jambodb.storage.btrees.BTree;
+import me.gilbva.jambodb.storage.btrees.Serializer;
+import me.gilbva.jambodb.storage.types.DictionaryStringSerializer;
+import me.gilbva.jambodb.storage.types.DoubleSerializer;
 import me.gilbva.jambodb.storage.types.IntegerSerializer;
+import me.gilbva.jambodb.storage.types.LongSerializer;
 import me.gilbva.jambodb.storage.types.SmallStringSerializer;
+import me.gilbva.jambodb.storage.types.VarLongSerializer;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class FilePagerTest {
     @Test
@@ -37,4 +48,734 @@ public class FilePagerTest {
         }
         pager.fsync();
     }
+
+    @Test
+    public void testKeyCache() throws IOException {
+        var tmpFile = Files.createTempFile("test", "jambodb");
+        var pager = FilePager
+                .create(SmallStringSerializer.INSTANCE, IntegerSerializer.INSTANCE)
+                .file(tmpFile).cachePages(10).keyCache(true)
+                .build();
+        var btree = new BTree<>(pager, 0);
+        for (int i = 0; i < 5000; i++) {
+            btree.put("key-" + i, i);
+        }
+        pager.fsync();
+
+        for (int i = 0; i < 5000; i++) {
+            Assertions.assertEquals(i, btree.get("key-" + i));
+        }
+        var root = pager.page(pager.root(0));
+        Assertions.assertFalse(root.isLeaf());
+        Assertions.assertEquals(2, root.cacheWeight());
+
+        btree.put("key-new", -1);
+        Assertions.assertEquals(-1, btree.get("key-new"));
+        for (int i = 0; i < 5000; i++) {
+            Assertions.assertEquals(i, btree.get("key-" + i));
+        }
+    }
+
+    @Test
+    public void testKeyCacheWeight() throws IOException {
+        var tmpFile = Files.createTempFile("test", "jambodb");
+        var pager = FilePager
+                .create(IntegerSerializer.INSTANCE, IntegerSerializer.INSTANCE)
+                .file(tmpFile).cachePages(10).keyCache(true)
+                .build();
+        var btree = new BTree<>(pager, 0);
+        for (int i = 0; i < 200_000; i++) {
+            btree.put(i, i);
+        }
+        pager.fsync();
+
+        int maxWeight = 0;
+        for (int id = 1; id <= pager.getStorage().count(); id++) {
+            var page = pager.page(id);
+            if(page.isLeaf()) {
+                continue;
+            }
+            for (int i = 0; i < page.size(); i++) {
+                page.compare(i, 0);
+            }
+            long keyBytes = (long) page.size() * Integer.BYTES;
+            Assertions.assertTrue(page.cacheWeight() > 1 + keyBytes / BlockStorage.BLOCK_SIZE, "weight " + page.cacheWeight());
+            maxWeight = Math.max(maxWeight, page.cacheWeight());
+        }
+        Assertions.assertTrue(maxWeight > 2, "max weight " + maxWeight);
+    }
+
+    @Test
+    public void testKeyCacheWithMovedKeys() throws IOException {
+        var tmpFile = Files.createTempFile("test", "jambodb");
+        var pager = FilePager
+                .create(SmallStringSerializer.INSTANCE, IntegerSerializer.INSTANCE)
+                .file(tmpFile).cachePages(10).keyCache(true)
+                .build();
+        var btree = new BTree<>(pager, 0);
+        for (int i = 0; i < 20_000; i++) {
+            btree.put(String.format("key-%06d", i), i);
+        }
+        for (int i = 0; i < 20_000; i += 2) {
+            btree.remove(String.format("key-%06d", i));
+            Assertions.assertEquals(i + 1, btree.get(String.format("key-%06d", i + 1)));
+        }
+        for (int i = 0; i < 20_000; i += 2) {
+            btree.put(String.format("key-%06d", i), -i);
+            Assertions.assertEquals(-i, btree.get(String.format("key-%06d", i)));
+        }
+        pager.fsync();
+
+        for (int i = 0; i < 20_000; i++) {
+            Assertions.assertEquals(i % 2 == 0 ? -i : i, btree.get(String.format("key-%06d", i)));
+        }
+    }
+
+    @Test
+    public void testPrefixCompression() throws IOException {
+        int plainBlocks = fillPrefixedKeys(false);
+        int compressedBlocks = fillPrefixedKeys(true);
+        Assertions.assertTrue(compressedBlocks < plainBlocks, compressedBlocks + " >= " + plainBlocks);
+    }
+
+    private int fillPrefixedKeys(boolean prefixCompression) throws IOException {
+        var tmpFile = Files.createTempFile("test", "jambodb");
+        var pager = FilePager
+                .create(SmallStringSerializer.INSTANCE, IntegerSerializer.INSTANCE)
+                .file(tmpFile).cachePages(10).prefixCompression(prefixCompression)
+                .build();
+        var btree = new BTree<>(pager, 0);
+        for (int i = 0; i < 5000; i++) {
+            btree.put("tenant-0001:region-eu-west:device-" + (i * 7919 % 5000), i);
+        }
+        pager.fsync();
+
+        pager = FilePager
+                .open(SmallStringSerializer.INSTANCE, IntegerSerializer.INSTANCE)
+                .file(tmpFile).cachePages(10).prefixCompression(prefixCompression)
+                .build();
+        btree = new BTree<>(pager, 0);
+        for (int i = 0; i < 5000; i++) {
+            Assertions.assertEquals(i, btree.get("tenant-0001:region-eu-west:device-" + (i * 7919 % 5000)));
+        }
+        return pager.getStorage().count();
+    }
+
+    @Test
+    public void testDeltaEncoding() throws IOException {
+        int plainBlocks = fillClusteredKeys(false);
+        int deltaBlocks = fillClusteredKeys(true);
+        Assertions.assertTrue(deltaBlocks < plainBlocks, deltaBlocks + " >= " + plainBlocks);
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> FilePager
+                .create(SmallStringSerializer.INSTANCE, IntegerSerializer.INSTANCE)
+                .file(Files.createTempFile("test", "jambodb")).deltaEncoding(true)
+                .build());
+    }
+
+    private int fillClusteredKeys(boolean deltaEncoding) throws IOException {
+        long first = 1L << 40;
+        var tmpFile = Files.createTempFile("test", "jambodb");
+        var pager = FilePager
+                .create(LongSerializer.INSTANCE, VarLongSerializer.INSTANCE)
+                .file(tmpFile).cachePages(10).deltaEncoding(deltaEncoding)
+                .build();
+        var btree = new BTree<>(pager, 0);
+        for (int i = 0; i < 20000; i++) {
+            long id = i * 7919 % 20000;
+            btree.put(first + id * 3, id - 10000);
+        }
+        pager.fsync();
+
+        pager = FilePager
+                .open(LongSerializer.INSTANCE, VarLongSerializer.INSTANCE)
+                .file(tmpFile).cachePages(10)
+                .build();
+        btree = new BTree<>(pager, 0);
+        for (long id = 0; id < 20000; id++) {
+            Assertions.assertEquals(id - 10000, btree.get(first + id * 3));
+        }
+        Assertions.assertNull(btree.get(first + 1));
+        Assertions.assertNull(btree.get(first - 3));
+
+        int blocks = pager.getStorage().count();
+        for (long id = 0; id < 10000; id++) {
+            btree.remove(first + id * 3);
+        }
+        btree.put(first - 3, 7L);
+        btree.put(Long.MIN_VALUE, 8L);
+        pager.fsync();
+        for (long id = 0; id < 20000; id++) {
+            Assertions.assertEquals(id < 10000 ? null : id - 10000, btree.get(first + id * 3));
+        }
+        Assertions.assertEquals(7L, btree.get(first - 3));
+        Assertions.assertEquals(8L, btree.get(Long.MIN_VALUE));
+        return blocks;
+    }
+
+    @Test
+    public void testDictionaryStrings() throws IOException {
+        int plainBlocks = fillStatuses(false);
+        int dictionaryBlocks = fillStatuses(true);
+        Assertions.assertTrue(dictionaryBlocks < plainBlocks, dictionaryBlocks + " >= " + plainBlocks);
+
+        var tmpFile = Files.createTempFile("test", "jambodb");
+        var values = new DictionaryStringSerializer(1, DictionaryStringSerializer.MAX_CAPACITY);
+        var pager = FilePager.create(IntegerSerializer.INSTANCE, values).file(tmpFile).cachePages(10).build();
+        var btree = new BTree<>(pager, 0);
+        for (int i = 0; i < 12000; i++) {
+            btree.put(i, customerGroup(i));
+        }
+        pager.fsync();
+        Assertions.assertEquals(5000, values.dictionarySize());
+
+        for (int round = 0; round < 2; round++) {
+            values = new DictionaryStringSerializer(1, DictionaryStringSerializer.MAX_CAPACITY);
+            pager = FilePager.open(IntegerSerializer.INSTANCE, values).file(tmpFile).cachePages(10).build();
+            btree = new BTree<>(pager, 0);
+            Assertions.assertEquals(5000 + round * 1000, values.dictionarySize());
+            for (int i = 0; i < 12000 + round * 2000; i++) {
+                Assertions.assertEquals(customerGroup(i), btree.get(i));
+            }
+            for (int i = 12000 + round * 2000; i < 14000 + round * 2000; i++) {
+                btree.put(i, customerGroup(i));
+            }
+            pager.fsync();
+        }
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> FilePager
+                .create(new DictionaryStringSerializer(1, 16), new DictionaryStringSerializer(1, 16))
+                .file(Files.createTempFile("test", "jambodb"))
+                .build());
+    }
+
+    @Test
+    public void testUnsavedDictionary() throws IOException {
+        var tmpFile = Files.createTempFile("test", "jambodb");
+        var values = new DictionaryStringSerializer(1, 16);
+        var pager = FilePager.create(IntegerSerializer.INSTANCE, values).file(tmpFile).cachePages(10).build();
+        var btree = new BTree<>(pager, 0);
+        btree.put(1, "unique value");
+        pager.fsync();
+        Assertions.assertEquals(0, values.dictionarySize());
+
+        values = new DictionaryStringSerializer(1, 16);
+        pager = FilePager.open(IntegerSerializer.INSTANCE, values).file(tmpFile).cachePages(10).build();
+        btree = new BTree<>(pager, 0);
+        Assertions.assertEquals("unique value", btree.get(1));
+        for (int i = 2; i < 100; i++) {
+            btree.put(i, "status");
+        }
+        pager.fsync();
+
+        values = new DictionaryStringSerializer(1, 16);
+        pager = FilePager.open(IntegerSerializer.INSTANCE, values).file(tmpFile).cachePages(10).build();
+        btree = new BTree<>(pager, 0);
+        Assertions.assertEquals(1, values.dictionarySize());
+        Assertions.assertEquals("unique value", btree.get(1));
+        for (int i = 2; i < 100; i++) {
+            Assertions.assertEquals("status", btree.get(i));
+        }
+    }
+
+    private String customerGroup(int key) {
+        if(key < 12000) {
+            return "customer group " + key % 5000;
+        }
+        return "customer group " + (5000 + (key - 12000) / 2000 * 1000 + key % 1000);
+    }
+
+    private int fillStatuses(boolean dictionary) throws IOException {
+        String[] statuses = new String[20];
+        for (int i = 0; i < statuses.length; i++) {
+            statuses[i] = "status-" + i;
+        }
+
+        var tmpFile = Files.createTempFile("test", "jambodb");
+        Serializer<String> values = dictionary ? new DictionaryStringSerializer(1, 16) : SmallStringSerializer.INSTANCE;
+        var pager = FilePager.create(SmallStringSerializer.INSTANCE, values).file(tmpFile).cachePages(10).build();
+        var btree = new BTree<>(pager, 0);
+        for (int i = 0; i < 5000; i++) {
+            String status = statuses[i % statuses.length];
+            btree.put(status + "/" + i, i % 50 == 0 ? "unique value " + i : status);
+        }
+        pager.fsync();
+
+        values = dictionary ? new DictionaryStringSerializer(1, 16) : SmallStringSerializer.INSTANCE;
+        pager = FilePager.open(SmallStringSerializer.INSTANCE, values).file(tmpFile).cachePages(10).build();
+        btree = new BTree<>(pager, 0);
+        for (int i = 0; i < 5000; i++) {
+            String status = statuses[i % statuses.length];
+            Assertions.assertEquals(i % 50 == 0 ? "unique value " + i : status, btree.get(status + "/" + i));
+        }
+        return pager.getStorage().count();
+    }
+
+    @Test
+    public void testOverflowValues() throws IOException {
+        var tmpFile = Files.createTempFile("test", "jambodb");
+        var pager = FilePager
+                .create(IntegerSerializer.INSTANCE, SmallStringSerializer.INSTANCE)
+                .file(tmpFile).cachePages(10)
+                .build();
+        var btree = new BTree<>(pager, 0);
+        for (int i = 0; i < 200; i++) {
+            btree.put(i, largeValue(i));
+        }
+        pager.fsync();
+
+        pager = FilePager
+                .open(IntegerSerializer.INSTANCE, SmallStringSerializer.INSTANCE)
+                .file(tmpFile).cachePages(10)
+                .build();
+        btree = new BTree<>(pager, 0);
+        for (int i = 0; i < 200; i++) {
+            Assertions.assertEquals(largeValue(i), btree.get(i));
+        }
+
+        btree.put(7, "small");
+        Assertions.assertEquals("small", btree.get(7));
+        btree.put(8, largeValue(1000));
+        Assertions.assertEquals(largeValue(1000), btree.get(8));
+    }
+
+    @Test
+    public void testLargeBlocks() throws IOException {
+        var tmpFile = Files.createTempFile("test", "jambodb");
+        var pager = FilePager
+                .create(IntegerSerializer.INSTANCE, SmallStringSerializer.INSTANCE)
+                .file(tmpFile).cachePages(10).blockSize(65536)
+                .build();
+        Assertions.assertEquals(65535, pager.getStorage().blockSize());
+        var btree = new BTree<>(pager, 0);
+        for (int i = 0; i < 500; i++) {
+            btree.put(i, i % 3 == 0 ? largeValue(i) : "value " + i);
+        }
+        pager.fsync();
+
+        pager = FilePager
+                .open(IntegerSerializer.INSTANCE, SmallStringSerializer.INSTANCE)
+                .file(tmpFile).cachePages(10)
+                .build();
+        Assertions.assertEquals(65535, pager.getStorage().blockSize());
+        btree = new BTree<>(pager, 0);
+        for (int i = 0; i < 500; i++) {
+            Assertions.assertEquals(i % 3 == 0 ? largeValue(i) : "value " + i, btree.get(i));
+        }
+        for (int i = 500; i < 5000; i++) {
+            btree.put(i, "value " + i);
+        }
+        pager.fsync();
+        Assertions.assertEquals("value 4999", btree.get(4999));
+        Assertions.assertEquals(largeValue(498), btree.get(498));
+    }
+
+    @Test
+    public void testDoubleValues() throws IOException {
+        var tmpFile = Files.createTempFile("test", "jambodb");
+        var pager = FilePager
+                .create(IntegerSerializer.INSTANCE, DoubleSerializer.INSTANCE)
+                .file(tmpFile).cachePages(10)
+                .build();
+        var btree = new BTree<>(pager, 0);
+        for (int i = 0; i < 5_000; i++) {
+            btree.put(i, i * 1.5);
+        }
+        for (int i = 0; i < 5_000; i += 2) {
+            btree.remove(i);
+        }
+        for (int i = 0; i < 5_000; i += 2) {
+            btree.put(i, -i * 0.5);
+        }
+        pager.fsync();
+        pager.getStorage().close();
+
+        pager = FilePager
+                .open(IntegerSerializer.INSTANCE, DoubleSerializer.INSTANCE)
+                .file(tmpFile).cachePages(10)
+                .build();
+        btree = new BTree<>(pager, 0);
+        for (int i = 0; i < 5_000; i++) {
+            Assertions.assertEquals(i % 2 == 0 ? -i * 0.5 : i * 1.5, btree.get(i));
+        }
+        pager.getStorage().close();
+    }
+
+    @Test
+    public void testDoubleKeys() throws IOException {
+        var tmpFile = Files.createTempFile("test", "jambodb");
+        var pager = FilePager
+                .create(DoubleSerializer.INSTANCE, DoubleSerializer.INSTANCE)
+                .file(tmpFile).cachePages(10)
+                .build();
+        var btree = new BTree<>(pager, 0);
+        for (int i = 0; i < 5_000; i++) {
+            btree.put(i / 4.0, i * 2.0);
+        }
+        for (int i = 0; i < 5_000; i += 3) {
+            btree.put(i / 4.0, -i * 2.0);
+        }
+        pager.fsync();
+        pager.getStorage().close();
+
+        pager = FilePager
+                .open(DoubleSerializer.INSTANCE, DoubleSerializer.INSTANCE)
+                .file(tmpFile).cachePages(10)
+                .build();
+        btree = new BTree<>(pager, 0);
+        for (int i = 0; i < 5_000; i++) {
+            Assertions.assertEquals(i % 3 == 0 ? -i * 2.0 : i * 2.0, btree.get(i / 4.0));
+        }
+        pager.getStorage().close();
+    }
+
+    @Test
+    public void testStripes() throws IOException {
+        var tmpFile = Files.createTempFile("test", "jambodb");
+        var stripes = List.of(Files.createTempFile("test", "jambodb"), Files.createTempFile("test", "jambodb"));
+        var pager = FilePager
+                .create(IntegerSerializer.INSTANCE, SmallStringSerializer.INSTANCE)
+                .file(tmpFile).cachePages(10).stripes(stripes)
+                .build();
+        var btree = new BTree<>(pager, 0);
+        for (int i = 0; i < 20_000; i++) {
+            btree.put(i, "value " + i);
+        }
+        btree.put(20_000, largeValue(3));
+        pager.fsync();
+        int count = pager.getStorage().count();
+        pager.getStorage().close();
+
+        long stripeBlocks = Files.size(stripes.get(1)) / 4096;
+        Assertions.assertTrue(stripeBlocks >= count / 3);
+
+        pager = FilePager
+                .open(IntegerSerializer.INSTANCE, SmallStringSerializer.INSTANCE)
+                .file(tmpFile).cachePages(10).stripes(stripes)
+                .build();
+        btree = new BTree<>(pager, 0);
+        for (int i = 0; i < 20_000; i++) {
+            Assertions.assertEquals("value " + i, btree.get(i));
+        }
+        Assertions.assertEquals(largeValue(3), btree.get(20_000));
+        pager.getStorage().close();
+
+        Assertions.assertThrows(IOException.class, () -> FilePager
+                .open(IntegerSerializer.INSTANCE, SmallStringSerializer.INSTANCE)
+                .file(tmpFile).cachePages(10).stripes(List.of(stripes.get(1), stripes.get(0)))
+                .build());
+    }
+
+    @Test
+    public void testDirectIo() throws IOException {
+        var tmpFile = Files.createTempFile("test", "jambodb");
+        FilePager<Integer, String> pager;
+        try {
+            pager = FilePager
+                    .create(IntegerSerializer.INSTANCE, SmallStringSerializer.INSTANCE)
+                    .file(tmpFile).cachePages(10).directIo(true)
+                    .build();
+        }
+        catch (IOException ex) {
+            Assertions.assertTrue(ex.getMessage().startsWith("direct I/O is not supported"));
+            return;
+        }
+        var btree = new BTree<>(pager, 0);
+        for (int i = 0; i < 5_000; i++) {
+            btree.put(i, "value " + i);
+        }
+        btree.put(5_000, largeValue(3));
+        pager.fsync();
+        pager.getStorage().close();
+
+        pager = FilePager
+                .open(IntegerSerializer.INSTANCE, SmallStringSerializer.INSTANCE)
+                .file(tmpFile).cachePages(10).directIo(true)
+                .build();
+        btree = new BTree<>(pager, 0);
+        for (int i = 0; i < 5_000; i++) {
+            Assertions.assertEquals("value " + i, btree.get(i));
+        }
+        Assertions.assertEquals(largeValue(3), btree.get(5_000));
+        pager.getStorage().close();
+    }
+
+    @Test
+    public void testReadahead() throws IOException {
+        var tmpFile = Files.createTempFile("test", "jambodb");
+        var pager = FilePager
+                .create(IntegerSerializer.INSTANCE, SmallStringSerializer.INSTANCE)
+                .file(tmpFile).cachePages(10)
+                .build();
+        var btree = new BTree<>(pager, 0);
+        for (int i = 0; i < 50_000; i++) {
+            btree.put(i, "value " + i);
+        }
+        pager.fsync();
+        pager.getStorage().close();
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        AtomicInteger reads = new AtomicInteger();
+        try {
+            pager = FilePager
+                    .open(IntegerSerializer.INSTANCE, SmallStringSerializer.INSTANCE)
+                    .file(tmpFile).cachePages(10).readahead(8)
+                    .prefetchExecutor(task -> {
+                        reads.incrementAndGet();
+                        pool.execute(task);
+                    })
+                    .build();
+            btree = new BTree<>(pager, 0);
+            int expected = 0;
+            var iterator = btree.query(null, null);
+            while (iterator.hasNext()) {
+                var entry = iterator.next();
+                Assertions.assertEquals(expected, entry.key());
+                Assertions.assertEquals("value " + expected, entry.value());
+                expected++;
+            }
+            Assertions.assertEquals(50_000, expected);
+            Assertions.assertTrue(reads.get() > 0);
+
+            for (int i = 0; i < 1_000; i++) {
+                btree.put(50_000 + i, "value " + i);
+                Assertions.assertEquals("value " + (i * 37 % 50_000), btree.get(i * 37 % 50_000));
+            }
+            pager.fsync();
+            pager.getStorage().close();
+        }
+        finally {
+            pool.shutdown();
+        }
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> FilePager
+                .open(IntegerSerializer.INSTANCE, SmallStringSerializer.INSTANCE)
+                .file(tmpFile).readahead(-1)
+                .build());
+    }
+
+    @Test
+    public void testReadaheadDeletedParent() throws IOException {
+        var tmpFile = Files.createTempFile("test", "jambodb");
+        var pager = FilePager
+                .create(IntegerSerializer.INSTANCE, IntegerSerializer.INSTANCE)
+                .file(tmpFile).cachePages(10).readahead(4)
+                .build();
+        var btree = new BTree<>(pager, 0);
+        for (int i = 0; i < 20_000; i++) {
+            btree.put(i, i);
+        }
+        pager.fsync();
+        for (int i = 0; i < 19_990; i++) {
+            btree.remove(i);
+        }
+        pager.fsync();
+        for (int i = 19_990; i < 20_000; i++) {
+            Assertions.assertEquals(i, btree.get(i));
+        }
+        Assertions.assertNull(btree.get(0));
+    }
+
+    @Test
+    public void testPrefetch() throws IOException {
+        var tmpFile = Files.createTempFile("test", "jambodb");
+        var pager = FilePager
+                .create(IntegerSerializer.INSTANCE, SmallStringSerializer.INSTANCE)
+                .file(tmpFile).cachePages(10)
+                .build();
+        var btree = new BTree<>(pager, 0);
+        for (int i = 0; i < 20_000; i++) {
+            btree.put(i, "value " + i);
+        }
+        pager.fsync();
+        int count = pager.getStorage().count();
+        pager.getStorage().close();
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            pager = FilePager
+                    .open(IntegerSerializer.INSTANCE, SmallStringSerializer.INSTANCE)
+                    .file(tmpFile).cachePages(1_000).prefetchExecutor(pool)
+                    .build();
+            int[] ids = new int[count];
+            for (int i = 0; i < count; i++) {
+                ids[i] = i + 1;
+            }
+            pager.prefetch(ids);
+            pager.prefetch(ids);
+            btree = new BTree<>(pager, 0);
+            for (int i = 0; i < 20_000; i++) {
+                Assertions.assertEquals("value " + i, btree.get(i));
+            }
+
+            pager.prefetch(ids);
+            btree.put(20_000, "value");
+            pager.fsync();
+            for (int i = 0; i <= 20_000; i += 7) {
+                Assertions.assertEquals(i == 20_000 ? "value" : "value " + i, btree.get(i));
+            }
+            pager.prefetch(count + 100);
+            var current = pager;
+            Assertions.assertThrows(IllegalArgumentException.class, () -> current.prefetch(0));
+            pager.getStorage().close();
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testValueLog() throws IOException {
+        var tmpFile = Files.createTempFile("test", "jambodb");
+        var pager = FilePager
+                .create(IntegerSerializer.INSTANCE, SmallStringSerializer.INSTANCE)
+                .file(tmpFile).cachePages(10).valueLog(true)
+                .build();
+        var btree = new BTree<>(pager, 0);
+        for (int i = 0; i < 200; i++) {
+            btree.put(i, largeValue(i));
+        }
+        pager.fsync();
+        pager.close();
+
+        pager = FilePager
+                .open(IntegerSerializer.INSTANCE, SmallStringSerializer.INSTANCE)
+                .file(tmpFile).cachePages(10)
+                .build();
+        btree = new BTree<>(pager, 0);
+        for (int i = 0; i < 200; i++) {
+            Assertions.assertEquals(largeValue(i), btree.get(i));
+        }
+
+        for (int i = 199; i >= 100; i--) {
+            btree.remove(i);
+        }
+        pager.collectGarbage();
+        pager.fsync();
+        Assertions.assertFalse(Files.exists(tmpFile.resolveSibling(tmpFile.getFileName() + ".vlog.1")));
+        pager.close();
+
+        pager = FilePager
+                .open(IntegerSerializer.INSTANCE, SmallStringSerializer.INSTANCE)
+                .file(tmpFile).cachePages(10)
+                .build();
+        btree = new BTree<>(pager, 0);
+        for (int i = 0; i < 100; i++) {
+            Assertions.assertEquals(largeValue(i), btree.get(i));
+        }
+        Assertions.assertNull(btree.get(150));
+        pager.close();
+    }
+
+    @Test
+    public void testValueLogCollection() throws IOException {
+        var tmpFile = Files.createTempFile("test", "jambodb");
+        var pager = FilePager
+                .create(IntegerSerializer.INSTANCE, SmallStringSerializer.INSTANCE)
+                .file(tmpFile).cachePages(10).valueLog(true)
+                .build();
+        var first = new BTree<>(pager, 0);
+        var second = new BTree<>(pager, 1);
+        for (int i = 0; i < 200; i++) {
+            first.put(i, largeValue(i));
+            second.put(i, largeValue(i + 1000));
+        }
+        pager.fsync();
+
+        for (int i = 0; i < 50; i++) {
+            first.put(i, largeValue(i + 2000));
+        }
+        for (int i = 100; i < 200; i++) {
+            second.remove(i);
+        }
+        pager.collectGarbage();
+        pager.fsync();
+        Assertions.assertFalse(Files.exists(tmpFile.resolveSibling(tmpFile.getFileName() + ".vlog.1")));
+        pager.close();
+
+        pager = FilePager
+                .open(IntegerSerializer.INSTANCE, SmallStringSerializer.INSTANCE)
+                .file(tmpFile).cachePages(10)
+                .build();
+        first = new BTree<>(pager, 0);
+        second = new BTree<>(pager, 1);
+        for (int i = 0; i < 200; i++) {
+            Assertions.assertEquals(largeValue(i < 50 ? i + 2000 : i), first.get(i));
+            Assertions.assertEquals(i < 100 ? largeValue(i + 1000) : null, second.get(i));
+        }
+        pager.close();
+    }
+
+    @Test
+    public void testValueLogStringKeys() throws IOException {
+        var tmpFile = Files.createTempFile("test", "jambodb");
+        var pager = FilePager
+                .create(SmallStringSerializer.INSTANCE, SmallStringSerializer.INSTANCE)
+                .file(tmpFile).cachePages(10).valueLog(true).prefixCompression(true)
+                .build();
+        var btree = new BTree<>(pager, 0);
+        for (int i = 0; i < 500; i++) {
+            btree.put("key-" + i, largeValue(i));
+        }
+        for (int i = 0; i < 500; i += 2) {
+            btree.remove("key-" + i);
+        }
+        pager.collectGarbage();
+        pager.fsync();
+        Assertions.assertFalse(Files.exists(tmpFile.resolveSibling(tmpFile.getFileName() + ".vlog.1")));
+        pager.close();
+
+        pager = FilePager
+                .open(SmallStringSerializer.INSTANCE, SmallStringSerializer.INSTANCE)
+                .file(tmpFile).cachePages(10).prefixCompression(true)
+                .build();
+        btree = new BTree<>(pager, 0);
+        for (int i = 0; i < 500; i++) {
+            Assertions.assertEquals(i % 2 == 0 ? null : largeValue(i), btree.get("key-" + i));
+        }
+        pager.close();
+    }
+
+    @Test
+    public void testValueView() throws IOException {
+        var tmpFile = Files.createTempFile("test", "jambodb");
+        var pager = FilePager
+                .create(IntegerSerializer.INSTANCE, SmallStringSerializer.INSTANCE)
+                .file(tmpFile).cachePages(1)
+                .build();
+        var btree = new BTree<>(pager, 0);
+        for (int i = 0; i < 1000; i++) {
+            btree.put(i, i % 100 == 0 ? largeValue(i) : "value" + i);
+        }
+        pager.fsync();
+
+        var leaf = pager.page(pager.root(0));
+        while (!leaf.isLeaf()) {
+            leaf = pager.page(leaf.child(0));
+        }
+        int leafId = leaf.id();
+        int leafSize = leaf.size();
+
+        for (int i = 0; i < 1000; i++) {
+            String expected = i % 100 == 0 ? largeValue(i) : "value" + i;
+            boolean pinned = i < leafSize;
+            String actual = btree.view(i, value -> {
+                Assertions.assertTrue(value.isReadOnly());
+                if (pinned) {
+                    var page = pager.page(leafId);
+                    for (int j = 999; j >= 0; j -= 10) {
+                        btree.get(j);
+                    }
+                    Assertions.assertSame(page, pager.page(leafId));
+                }
+                return SmallStringSerializer.INSTANCE.read(value);
+            });
+            Assertions.assertEquals(expected, actual);
+        }
+        Assertions.assertNull(btree.view(1000, value -> "missing"));
+    }
+
+    private String largeValue(int seed) {
+        return String.valueOf(seed).repeat(1000 + (seed * 37) % 5000);
+    }
 }
@@ -21,6 +21,10 @@ public class SlottedBTreePageTest {
 
         lst.add(DynamicTest.dynamicTest("testing FileBTreePage leaf", () -> testPage(true)));
         lst.add(DynamicTest.dynamicTest("testing FileBTreePage non-leaf", () -> testPage(false)));
+        lst.add(DynamicTest.dynamicTest("testing FileBTreePage compare", this::testCompare));
+        lst.add(DynamicTest.dynamicTest("testing FileBTreePage compaction", this::testCompaction));
+        lst.add(DynamicTest.dynamicTest("testing FileBTreePage shift and move leaf", () -> testShiftAndMove(true)));
+        lst.add(DynamicTest.dynamicTest("testing FileBTreePage shift and move non-leaf", () -> testShiftAndMove(false)));
 
         return lst;
     }
@@ -99,4 +103,135 @@ public class SlottedBTreePageTest {
             Assertions.assertEquals(i*2, page.value(i));
         }
     }
+
+    public void testCompare() throws IOException {
+        var tmpFile = Files.createTempFile("test", "jambodb");
+        var pager = FilePager
+                    .create(SmallStringSerializer.INSTANCE, IntegerSerializer.INSTANCE)
+                    .file(tmpFile)
+                    .cachePages(10)
+                    .build();
+        var page = SlottedBTreePage.create(pager, true);
+        String[] keys = {"", "a", "ab", "abc", "b", "\u00e9t\u00e9", "\u4e2d\u6587", "\uD83D\uDE00", "\uFFFD", "z"};
+        page.size(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            page.key(i, keys[i]);
+            page.value(i, i);
+        }
+
+        for (int i = 0; i < keys.length; i++) {
+            for (String other : keys) {
+                Assertions.assertEquals(Integer.signum(keys[i].compareTo(other)), Integer.signum(page.compare(i, other)));
+            }
+        }
+    }
+
+    public void testCompaction() throws IOException {
+        var tmpFile = Files.createTempFile("test", "jambodb");
+        var pager = FilePager
+                    .create(SmallStringSerializer.INSTANCE, IntegerSerializer.INSTANCE)
+                    .file(tmpFile)
+                    .cachePages(10)
+                    .build();
+        var page = SlottedBTreePage.create(pager, true);
+        String[] keys = new String[50];
+        page.size(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = UUID.randomUUID().toString();
+            page.key(i, keys[i]);
+            page.value(i, i);
+        }
+        int usedBytes = page.usedBytes();
+
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = UUID.randomUUID().toString();
+                page.key(i, keys[i]);
+                page.value(i, i * round);
+            }
+            Assertions.assertEquals(usedBytes, page.usedBytes());
+        }
+        page.save();
+
+        pager = FilePager
+                    .open(SmallStringSerializer.INSTANCE, IntegerSerializer.INSTANCE)
+                    .file(tmpFile).cachePages(10)
+                    .build();
+        page = SlottedBTreePage.open(pager, page.id());
+        for (int i = 0; i < keys.length; i++) {
+            Assertions.assertEquals(keys[i], page.key(i));
+            Assertions.assertEquals(i * 19, page.value(i));
+        }
+    }
+
+    public void testShiftAndMove(boolean leaf) throws IOException {
+        var tmpFile = Files.createTempFile("test", "jambodb");
+        var pager = FilePager
+                    .create(SmallStringSerializer.INSTANCE, IntegerSerializer.INSTANCE)
+                    .file(tmpFile)
+                    .cachePages(10)
+                    .build();
+        var source = SlottedBTreePage.create(pager, leaf);
+        List<String> keys = new ArrayList<>();
+        List<Integer> children = new ArrayList<>();
+        source.size(20);
+        for (int i = 0; i < 20; i++) {
+            keys.add("key" + i);
+            source.key(i, keys.get(i));
+            source.value(i, i);
+        }
+        if(!leaf) {
+            for (int i = 0; i <= 20; i++) {
+                children.add(100 + i);
+                source.child(i, children.get(i));
+            }
+        }
+
+        source.shift(5, 2);
+        keys.add(5, "new5");
+        keys.add(6, "new6");
+        source.key(5, "new5");
+        source.value(5, -5);
+        source.key(6, "new6");
+        source.value(6, -6);
+        if(!leaf) {
+            children.addAll(5, new ArrayList<>(children.subList(5, 7)));
+        }
+        assertPage(source, keys, children);
+
+        source.shift(8, -3);
+        keys.subList(5, 8).clear();
+        if(!leaf) {
+            children.subList(5, 8).clear();
+        }
+        assertPage(source, keys, children);
+
+        var target = SlottedBTreePage.create(pager, leaf);
+        target.moveCells(source, 10, keys.size() - 10);
+        var moved = keys.subList(10, keys.size());
+        var targetKeys = new ArrayList<>(moved);
+        moved.clear();
+        List<Integer> targetChildren = new ArrayList<>();
+        if(!leaf) {
+            var movedChildren = children.subList(11, children.size());
+            targetChildren.add(children.get(10));
+            targetChildren.addAll(movedChildren);
+            movedChildren.clear();
+        }
+        assertPage(source, keys, children);
+        assertPage(target, targetKeys, targetChildren);
+    }
+
+    private void assertPage(SlottedBTreePage<String, Integer> page, List<String> keys, List<Integer> children) {
+        Assertions.assertEquals(keys.size(), page.size());
+        for (int i = 0; i < keys.size(); i++) {
+            Assertions.assertEquals(keys.get(i), page.key(i));
+            String key = keys.get(i);
+            int expected = key.startsWith("new") ? -Integer.parseInt(key.substring(3)) : Integer.parseInt(key.substring(3));
+            Assertions.assertEquals(expected, page.value(i));
+        }
+        for (int i = 0; i < children.size(); i++) {
+            Assertions.assertEquals(children.get(i), page.child(i));
+        }
+    }
 }
@@ -0,0 +1,81 @@
+package me.gilbva.jambodb.storage.types;
+
+import me.gilbva.jambodb.storage.btrees.BTree;
+import me.gilbva.jambodb.storage.btrees.Serializer;
+import me.gilbva.jambodb.storage.pager.FilePager;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Map;
+
+public class RecordSerializerTest {
+    record Point(int x, long y, double z, boolean flag, char c, short s, byte b, float f) {
+    }
+
+    record Person(String name, Integer age, Long visits, BigInteger balance, Point location, Tuple tags) {
+    }
+
+    record Invalid(Object value) {
+    }
+
+    @Test
+    public void testReadWrite() {
+        var serializer = RecordSerializer.of(Person.class);
+        var point = new Point(-7, Long.MAX_VALUE, 2.5, true, 'z', (short) -3, (byte) 9, 1.25f);
+        assertRoundTrip(serializer, new Person("alice", 31, 1000L, BigInteger.TEN.pow(30), point, Tuple.of("a", 1L)));
+        assertRoundTrip(serializer, new Person(null, null, null, null, null, null));
+        assertRoundTrip(RecordSerializer.of(Point.class), point);
+
+        Map<Class<?>, Serializer<?>> overrides = Map.of(Long.class, VarLongSerializer.INSTANCE);
+        var compact = RecordSerializer.of(Person.class, overrides);
+        var person = new Person("bob", 40, 3L, BigInteger.ONE, null, null);
+        assertRoundTrip(compact, person);
+        Assertions.assertEquals(serializer.size(person) - 7, compact.size(person));
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> RecordSerializer.of(Invalid.class));
+    }
+
+    @Test
+    public void testRecordValues() throws IOException {
+        var tmpFile = Files.createTempFile("test", "jambodb");
+        var serializer = RecordSerializer.of(Person.class);
+        var pager = FilePager
+                .create(IntegerSerializer.INSTANCE, serializer)
+                .file(tmpFile).cachePages(10)
+                .build();
+        var btree = new BTree<>(pager, 0);
+        for (int i = 0; i < 2000; i++) {
+            btree.put(i, person(i));
+        }
+        pager.fsync();
+
+        pager = FilePager
+                .open(IntegerSerializer.INSTANCE, serializer)
+                .file(tmpFile).cachePages(10)
+                .build();
+        btree = new BTree<>(pager, 0);
+        for (int i = 0; i < 2000; i++) {
+            Assertions.assertEquals(person(i), btree.get(i));
+        }
+    }
+
+    private Person person(int i) {
+        var location = new Point(i, -i, i / 3.0, i % 2 == 0, (char) ('a' + i % 26), (short) i, (byte) i, i / 7f);
+        return new Person("person-" + i, i % 90, i % 5 == 0 ? null : (long) i * i, BigInteger.valueOf(i).shiftLeft(i % 100),
+                location, Tuple.of("tag", i));
+    }
+
+    private <T extends Record> void assertRoundTrip(RecordSerializer<T> serializer, T value) {
+        var buffer = ByteBuffer.allocate(256);
+        serializer.write(buffer, value);
+        Assertions.assertEquals(serializer.size(value), buffer.position());
+        buffer.flip();
+        Assertions.assertEquals(serializer.size(value), serializer.size(buffer.duplicate()));
+        Assertions.assertEquals(value, serializer.read(buffer));
+        Assertions.assertFalse(buffer.hasRemaining());
+    }
+}
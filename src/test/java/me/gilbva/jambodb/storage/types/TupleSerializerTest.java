@@ -0,0 +1,147 @@
+package me.gilbva.jambodb.storage.types;
+
+import me.gilbva.jambodb.storage.btrees.BTree;
+import me.gilbva.jambodb.storage.pager.FilePager;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.*;
+
+public class TupleSerializerTest {
+    @Test
+    public void testOrdering() {
+        var tuples = new ArrayList<>(List.of(
+                Tuple.of(),
+                Tuple.of((Object) null),
+                Tuple.of(false),
+                Tuple.of(true),
+                Tuple.of(Integer.MIN_VALUE),
+                Tuple.of(-1),
+                Tuple.of(0),
+                Tuple.of(Integer.MAX_VALUE),
+                Tuple.of(Long.MIN_VALUE),
+                Tuple.of(-1L),
+                Tuple.of(0L),
+                Tuple.of(Long.MAX_VALUE),
+                Tuple.of(Double.NEGATIVE_INFINITY),
+                Tuple.of(-1.5),
+                Tuple.of(-0.0),
+                Tuple.of(0.0),
+                Tuple.of(1e-300),
+                Tuple.of(2.5),
+                Tuple.of(Double.POSITIVE_INFINITY),
+                Tuple.of(Double.NaN),
+                Tuple.of(""),
+                Tuple.of("", 1),
+                Tuple.of("a"),
+                Tuple.of("a", null),
+                Tuple.of("a", 1L),
+                Tuple.of("a", 2L),
+                Tuple.of("a", 2L, "x"),
+                Tuple.of("a", 10L),
+                Tuple.of("a\0"),
+                Tuple.of("a\0b"),
+                Tuple.of("ab"),
+                Tuple.of("b"),
+                Tuple.of("\ud7ff"),
+                Tuple.of("\ud800"),
+                Tuple.of("\ue000"),
+                Tuple.of("\ud83d\ude00"),
+                Tuple.of(new byte[0]),
+                Tuple.of(new byte[] {0}),
+                Tuple.of(new byte[] {0, 0}),
+                Tuple.of(new byte[] {1}),
+                Tuple.of(new byte[] {(byte) 0xFF})
+        ));
+
+        for (int i = 0; i < tuples.size(); i++) {
+            for (int j = 0; j < tuples.size(); j++) {
+                var a = tuples.get(i);
+                var b = tuples.get(j);
+                Assertions.assertEquals(Integer.signum(Integer.compare(i, j)), Integer.signum(a.compareTo(b)), a + " vs " + b);
+                Assertions.assertEquals(Integer.signum(Integer.compare(i, j)), Integer.signum(compareStored(a, b)), a + " vs " + b);
+            }
+        }
+
+        var shuffled = new ArrayList<>(tuples);
+        Collections.shuffle(shuffled, new Random(1));
+        Collections.sort(shuffled);
+        Assertions.assertEquals(tuples, shuffled);
+    }
+
+    @Test
+    public void testReadWrite() {
+        var tuple = Tuple.of(null, true, 7, -8L, 0.25, "tenant\0\ud83d\ude00\udc00", new byte[] {0, 1, (byte) 0xFF});
+        var buffer = ByteBuffer.allocate(128);
+        TupleSerializer.INSTANCE.write(buffer, tuple);
+        Assertions.assertEquals(TupleSerializer.INSTANCE.size(tuple), buffer.position());
+        buffer.flip();
+        Assertions.assertEquals(TupleSerializer.INSTANCE.size(tuple), TupleSerializer.INSTANCE.size(buffer.duplicate()));
+
+        var read = TupleSerializer.INSTANCE.read(buffer);
+        Assertions.assertEquals(tuple, read);
+        Assertions.assertEquals(tuple.hashCode(), read.hashCode());
+        Assertions.assertEquals(7, read.size());
+        Assertions.assertNull(read.get(0));
+        Assertions.assertTrue(read.getBoolean(1));
+        Assertions.assertEquals(7, read.getInt(2));
+        Assertions.assertEquals(-8L, read.getLong(3));
+        Assertions.assertEquals(0.25, read.getDouble(4));
+        Assertions.assertEquals("tenant\0\ud83d\ude00\udc00", read.getString(5));
+        Assertions.assertArrayEquals(new byte[] {0, 1, (byte) 0xFF}, (byte[]) read.get(6));
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Tuple.of(new Object()));
+    }
+
+    @Test
+    public void testRangeScan() throws IOException {
+        var tmpFile = Files.createTempFile("test", "jambodb");
+        var pager = FilePager
+                .create(TupleSerializer.INSTANCE, IntegerSerializer.INSTANCE)
+                .file(tmpFile).cachePages(10).prefixCompression(true)
+                .build();
+        var btree = new BTree<>(pager, 0);
+        var expected = new TreeMap<Tuple, Integer>();
+        for (int i = 0; i < 5000; i++) {
+            int tenant = i * 7919 % 50;
+            var key = Tuple.of("tenant-" + tenant, (long) (i * 31 % 1000) - 500, "device-" + i);
+            btree.put(key, i);
+            expected.put(key, i);
+        }
+        pager.fsync();
+
+        var prefix = Tuple.of("tenant-7");
+        assertRange(expected.subMap(prefix, true, prefix.upperBound(), true), btree, prefix, prefix.upperBound());
+
+        var from = Tuple.of("tenant-3", -100L);
+        var to = Tuple.of("tenant-3", 100L).upperBound();
+        var range = expected.subMap(from, true, to, true);
+        Assertions.assertFalse(range.isEmpty());
+        for (var key : range.keySet()) {
+            Assertions.assertEquals("tenant-3", key.getString(0));
+            Assertions.assertTrue(key.getLong(1) >= -100 && key.getLong(1) <= 100);
+        }
+        assertRange(range, btree, from, to);
+    }
+
+    private void assertRange(SortedMap<Tuple, Integer> expected, BTree<Tuple, Integer> btree, Tuple from, Tuple to) throws IOException {
+        var it = btree.query(from, to);
+        for (var entry : expected.entrySet()) {
+            Assertions.assertTrue(it.hasNext());
+            var actual = it.next();
+            Assertions.assertEquals(entry.getKey(), actual.key());
+            Assertions.assertEquals(entry.getValue(), actual.value());
+        }
+        Assertions.assertFalse(it.hasNext());
+    }
+
+    private int compareStored(Tuple stored, Tuple value) {
+        var buffer = ByteBuffer.allocate(TupleSerializer.INSTANCE.size(stored));
+        TupleSerializer.INSTANCE.write(buffer, stored);
+        buffer.flip();
+        return TupleSerializer.INSTANCE.compare(buffer, value);
+    }
+}